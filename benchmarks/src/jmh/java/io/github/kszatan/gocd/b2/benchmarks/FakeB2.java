@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.benchmarks;
+
+import io.github.kszatan.gocd.b2.fakeb2.FakeB2Server;
+import io.github.kszatan.gocd.b2.utils.storage.BackblazeStorage;
+import io.github.kszatan.gocd.b2.utils.storage.CachingCredentialsManager;
+import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+import io.github.kszatan.gocd.b2.utils.storage.api.BackblazeApiWrapper;
+
+import java.io.IOException;
+
+public class FakeB2 {
+    public static final String ACCOUNT_ID = "account";
+    public static final String APPLICATION_KEY = "key";
+    public static final String BUCKET_NAME = "bucket";
+
+    public static FakeB2Server start() throws IOException {
+        FakeB2Server server = new FakeB2Server(ACCOUNT_ID, APPLICATION_KEY);
+        server.createBucket(BUCKET_NAME);
+        server.start();
+        return server;
+    }
+
+    public static BackblazeStorage storage(FakeB2Server server) {
+        return new BackblazeStorage(BUCKET_NAME, new BackblazeApiWrapper(server.transport()),
+                new CachingCredentialsManager());
+    }
+
+    public static BackblazeStorage authorizedStorage(FakeB2Server server) throws StorageException {
+        BackblazeStorage storage = storage(server);
+        storage.setCredentials(ACCOUNT_ID, APPLICATION_KEY);
+        if (!storage.authorize()) {
+            throw new StorageException("Failed to authorize with the fake server: " + storage.getLastErrorMessage());
+        }
+        return storage;
+    }
+}
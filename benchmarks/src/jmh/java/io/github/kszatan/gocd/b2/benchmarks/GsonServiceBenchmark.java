@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.benchmarks;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.SerializedName;
+import io.github.kszatan.gocd.b2.publish.handlers.bodies.ExecuteRequest;
+import io.github.kszatan.gocd.b2.utils.json.GsonService;
+import io.github.kszatan.gocd.b2.utils.storage.AuthorizeResponse;
+import io.github.kszatan.gocd.b2.utils.storage.ListFileNamesResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Run with "-prof gc" to see allocation per call. The "fresh" benchmarks reproduce the old GsonService, which built
+// a new Gson for every call and bound DTOs reflectively; the Reflective* classes mirror the DTOs without their
+// type adapters.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GsonServiceBenchmark {
+    private static final String AUTHORIZE_JSON = "{\"absoluteMinimumPartSize\":5000000,\"accountId\":\"a30f20426f0b\"," +
+            "\"apiUrl\":\"https://api001.backblazeb2.com\",\"authorizationToken\":\"4_0022623512fc8f80000000001_0186e431" +
+            "_d18d02_acct_tH7VW03boebOXayIc43-sxptpfA=\",\"downloadUrl\":\"https://f001.backblazeb2.com\"," +
+            "\"recommendedPartSize\":100000000}";
+    private static final String EXECUTE_JSON = "{\"config\":{\"bucketName\":{\"value\":\"bucket\"}}," +
+            "\"context\":{\"workingDirectory\":\"pipelines/build\",\"environmentVariables\":{\"GO_PIPELINE_NAME\":\"build\"}}}";
+
+    @Param({"1000"})
+    public int entries;
+
+    private String listFileNamesJson;
+
+    public static class ReflectiveFileName {
+        public String fileId;
+        public String fileName;
+        public String action;
+        public Long contentLength;
+        public Long size;
+        public Long uploadTimestamp;
+        public String contentType;
+        public String contentSha1;
+        public ReflectiveFileInfo fileInfo;
+    }
+
+    public static class ReflectiveFileInfo {
+        @SerializedName("src_last_modified_millis")
+        public String srcLastModifiedMillis;
+        @SerializedName("large_file_sha1")
+        public String largeFileSha1;
+    }
+
+    public static class ReflectiveListFileNamesResponse {
+        @SerializedName("files")
+        public List<ReflectiveFileName> fileNames = new ArrayList<>();
+        public String nextFileName;
+    }
+
+    public static class ReflectiveAuthorizeResponse {
+        public Integer absoluteMinimumPartSize;
+        public String accountId;
+        public String apiUrl;
+        public String authorizationToken;
+        public String downloadUrl;
+        public Integer recommendedPartSize;
+    }
+
+    @Setup
+    public void setUp() {
+        listFileNamesJson = new String(Payloads.listFileNamesJson("pipeline/stage/job/1.1/", entries), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ReflectiveListFileNamesResponse listFileNamesFresh() {
+        return new GsonBuilder().create().fromJson(listFileNamesJson, ReflectiveListFileNamesResponse.class);
+    }
+
+    @Benchmark
+    public ListFileNamesResponse listFileNamesShared() {
+        return GsonService.fromJson(listFileNamesJson, ListFileNamesResponse.class);
+    }
+
+    @Benchmark
+    public ListFileNamesResponse listFileNamesRoundTrip() {
+        ListFileNamesResponse response = GsonService.fromJson(listFileNamesJson, ListFileNamesResponse.class);
+        return GsonService.fromJson(GsonService.toJson(response), ListFileNamesResponse.class);
+    }
+
+    @Benchmark
+    public ReflectiveAuthorizeResponse authorizeFresh() {
+        return new GsonBuilder().create().fromJson(AUTHORIZE_JSON, ReflectiveAuthorizeResponse.class);
+    }
+
+    @Benchmark
+    public AuthorizeResponse authorizeShared() {
+        return GsonService.fromJson(AUTHORIZE_JSON, AuthorizeResponse.class);
+    }
+
+    @Benchmark
+    public ExecuteRequest executeRequestFresh() throws Exception {
+        JsonObject root = new JsonParser().parse(EXECUTE_JSON).getAsJsonObject();
+        if (!root.has("config") || !root.has("context")) {
+            throw new IllegalStateException();
+        }
+        return new GsonBuilder().create().fromJson(EXECUTE_JSON, ExecuteRequest.class);
+    }
+
+    @Benchmark
+    public ExecuteRequest executeRequestShared() throws Exception {
+        return ExecuteRequest.create(EXECUTE_JSON);
+    }
+}
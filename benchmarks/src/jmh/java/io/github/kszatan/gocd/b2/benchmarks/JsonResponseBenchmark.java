@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.benchmarks;
+
+import io.github.kszatan.gocd.b2.utils.json.GsonService;
+import io.github.kszatan.gocd.b2.utils.storage.ListFileNamesResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Compares the old way of reading API responses (char by char into a String, then parsing) with decoding straight
+// from the response stream.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonResponseBenchmark {
+    @Param({"100", "1000"})
+    public int entries;
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        payload = Payloads.listFileNamesJson("pipeline/stage/job/1.1/", entries);
+    }
+
+    @Benchmark
+    public ListFileNamesResponse charByCharThenParse() throws IOException {
+        String json = legacyStreamReader(new ByteArrayInputStream(payload));
+        return GsonService.fromJson(json, ListFileNamesResponse.class);
+    }
+
+    @Benchmark
+    public ListFileNamesResponse streaming() throws IOException {
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8)) {
+            return GsonService.fromJson(reader, ListFileNamesResponse.class);
+        }
+    }
+
+    private static String legacyStreamReader(InputStream in) throws IOException {
+        InputStreamReader reader = new InputStreamReader(in);
+        StringBuilder sb = new StringBuilder();
+        int c = reader.read();
+        while (c != -1) {
+            sb.append((char) c);
+            c = reader.read();
+        }
+        reader.close();
+        return sb.toString();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.benchmarks;
+
+import io.github.kszatan.gocd.b2.fakeb2.FakeB2Server;
+import io.github.kszatan.gocd.b2.utils.storage.BackblazeStorage;
+import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Exercises BackblazeStorage.doUpload: slicing a file into parts, hashing them and sending them to the fake server.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LargeFileUploadBenchmark {
+    private static final Integer PART_SIZE = 1024 * 1024;
+
+    @Param({"16"})
+    public int parts;
+
+    @Param({"1", "4"})
+    public int partUploadThreads;
+
+    @Param({"0", "2"})
+    public int partsHashedAhead;
+
+    private FakeB2Server server;
+    private BackblazeStorage storage;
+    private Path workDir;
+    private Path relativeFilePath = Paths.get("large.bin");
+
+    @Setup
+    public void setUp() throws IOException, StorageException {
+        server = FakeB2.start();
+        server.setPartSizes(PART_SIZE, PART_SIZE);
+        storage = FakeB2.authorizedStorage(server);
+        storage.setPartUploadThreads(partUploadThreads);
+        storage.setPartsHashedAhead(partsHashedAhead);
+        workDir = Files.createTempDirectory("upload-benchmark");
+        byte[] content = new byte[parts * PART_SIZE - PART_SIZE / 2];
+        new Random(42).nextBytes(content);
+        Files.write(workDir.resolve(relativeFilePath), content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.stop();
+        Files.delete(workDir.resolve(relativeFilePath));
+        Files.delete(workDir);
+    }
+
+    @Benchmark
+    public void upload() throws StorageException {
+        storage.upload(workDir, relativeFilePath, "pipeline/stage/job/1.1");
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.benchmarks;
+
+import io.github.kszatan.gocd.b2.utils.storage.FileHash;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Formatter;
+
+// Sha1FileHash as it was before digests and buffers were reused, kept to compare against.
+class LegacySha1FileHash implements FileHash {
+    @Override
+    public String getHashValue(Path filePath) throws NoSuchAlgorithmException, IOException {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        try (InputStream fis = Files.newInputStream(filePath)) {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = fis.read(buffer)) != -1; ) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        try (Formatter formatter = new Formatter()) {
+            for (final byte b : digest.digest()) {
+                formatter.format("%02x", b);
+            }
+            return formatter.toString();
+        }
+    }
+
+    @Override
+    public String getHashValue(byte[] buffer, int length) throws NoSuchAlgorithmException {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        digest.update(buffer, 0, length);
+        try (Formatter formatter = new Formatter()) {
+            for (final byte b : digest.digest()) {
+                formatter.format("%02x", b);
+            }
+            return formatter.toString();
+        }
+    }
+
+    @Override
+    public String getHashValue(FileChannel channel, long position, long length) throws NoSuchAlgorithmException, IOException {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            if (end - position < buffer.capacity()) {
+                buffer.limit((int) (end - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of file at position " + position);
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+        try (Formatter formatter = new Formatter()) {
+            for (final byte b : digest.digest()) {
+                formatter.format("%02x", b);
+            }
+            return formatter.toString();
+        }
+    }
+}
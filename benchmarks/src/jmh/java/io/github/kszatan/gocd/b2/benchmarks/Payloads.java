@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.benchmarks;
+
+import io.github.kszatan.gocd.b2.utils.json.GsonService;
+import io.github.kszatan.gocd.b2.utils.storage.FileInfo;
+import io.github.kszatan.gocd.b2.utils.storage.FileName;
+import io.github.kszatan.gocd.b2.utils.storage.ListFileNamesResponse;
+
+import java.nio.charset.StandardCharsets;
+
+public class Payloads {
+    public static ListFileNamesResponse listFileNames(String prefix, int count) {
+        ListFileNamesResponse response = new ListFileNamesResponse();
+        for (int i = 0; i < count; ++i) {
+            FileName fileName = new FileName();
+            fileName.fileId = String.format("4_z27c88f1d182b150646ff0b16_f1004ba650fe24e6b_d20180101_m%06d_c001_v0001009_t0021", i);
+            fileName.fileName = String.format("%sdir%d/artifact-%06d.jar", prefix, i % 10, i);
+            fileName.action = "upload";
+            fileName.contentLength = 1024L * i;
+            fileName.size = fileName.contentLength;
+            fileName.uploadTimestamp = 1514764800000L + i;
+            fileName.contentType = "application/octet-stream";
+            fileName.contentSha1 = String.format("%040x", i);
+            fileName.fileInfo = new FileInfo();
+            fileName.fileInfo.srcLastModifiedMillis = Long.toString(fileName.uploadTimestamp);
+            response.fileNames.add(fileName);
+        }
+        response.nextFileName = count > 0 ? prefix + "zzz" : null;
+        return response;
+    }
+
+    public static byte[] listFileNamesJson(String prefix, int count) {
+        return GsonService.toJson(listFileNames(prefix, count)).getBytes(StandardCharsets.UTF_8);
+    }
+}
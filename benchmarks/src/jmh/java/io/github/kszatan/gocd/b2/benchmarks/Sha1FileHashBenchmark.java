@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.benchmarks;
+
+import io.github.kszatan.gocd.b2.utils.storage.FileHash;
+import io.github.kszatan.gocd.b2.utils.storage.Sha1FileHash;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Sha1FileHashBenchmark {
+    @Param({"4096", "1048576", "33554432"})
+    public int fileSize;
+
+    @Param({"legacy", "current"})
+    public String implementation;
+
+    private FileHash fileHash;
+    private Path file;
+    private byte[] content;
+    private FileChannel channel;
+
+    @Setup
+    public void setUp() throws IOException {
+        fileHash = implementation.equals("legacy") ? new LegacySha1FileHash() : new Sha1FileHash();
+        content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        file = Files.createTempFile("sha1-benchmark", ".bin");
+        Files.write(file, content);
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        channel.close();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public String path() throws IOException, NoSuchAlgorithmException {
+        return fileHash.getHashValue(file);
+    }
+
+    @Benchmark
+    public String channelRange() throws IOException, NoSuchAlgorithmException {
+        return fileHash.getHashValue(channel, 0, fileSize);
+    }
+
+    @Benchmark
+    public String buffer() throws IOException, NoSuchAlgorithmException {
+        return fileHash.getHashValue(content, fileSize);
+    }
+}
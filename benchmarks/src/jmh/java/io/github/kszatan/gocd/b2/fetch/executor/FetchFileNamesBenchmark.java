@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.fetch.executor;
+
+import io.github.kszatan.gocd.b2.benchmarks.FakeB2;
+import io.github.kszatan.gocd.b2.fakeb2.FakeB2Server;
+import io.github.kszatan.gocd.b2.utils.storage.FileName;
+import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+// Lists a package with the fetch task's own paging and prefix rewriting. Lives in the executor's package to reach
+// fetchFileNames directly.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FetchFileNamesBenchmark {
+    private static final String PREFIX = "pipeline/stage/job/1.1/";
+
+    @Param({"1000", "5000"})
+    public int files;
+
+    private FakeB2Server server;
+    private FetchTaskExecutor executor;
+
+    @Setup
+    public void setUp() throws IOException, StorageException {
+        server = FakeB2.start();
+        byte[] content = new byte[0];
+        for (int i = 0; i < files; ++i) {
+            server.putFile(FakeB2.BUCKET_NAME, String.format("%sdir%d/file-%06d.txt", PREFIX, i % 10, i), content, i);
+        }
+        executor = new FetchTaskExecutor(FakeB2.authorizedStorage(server));
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public LinkedList<FileName> fetchFileNames() throws StorageException {
+        return executor.fetchFileNames(PREFIX);
+    }
+}
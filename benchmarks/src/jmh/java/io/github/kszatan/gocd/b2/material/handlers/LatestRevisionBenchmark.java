@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.material.handlers;
+
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import io.github.kszatan.gocd.b2.benchmarks.FakeB2;
+import io.github.kszatan.gocd.b2.fakeb2.FakeB2Server;
+import io.github.kszatan.gocd.b2.utils.storage.Storage;
+import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Finds the latest revision of a job with many published revisions. A fresh index lists and compares all revision
+// folders; the handler keeps its index between requests, so after the first one it only lists folders past the latest.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LatestRevisionBenchmark {
+    private static final String REQUEST_BODY = "{" +
+            "\"repository-configuration\":{" +
+            "\"bucketName\":{\"value\":\"" + FakeB2.BUCKET_NAME + "\"}," +
+            "\"accountId\":{\"value\":\"" + FakeB2.ACCOUNT_ID + "\"}," +
+            "\"applicationKey\":{\"value\":\"" + FakeB2.APPLICATION_KEY + "\"}}," +
+            "\"package-configuration\":{" +
+            "\"pipelineName\":{\"value\":\"pipeline\"}," +
+            "\"stageName\":{\"value\":\"stage\"}," +
+            "\"jobName\":{\"value\":\"job\"}}}";
+
+    @Param({"100", "1000"})
+    public int revisions;
+
+    private FakeB2Server server;
+    private Storage storage;
+    private LatestRevisionRequestHandler handler;
+    private DefaultGoPluginApiRequest request;
+
+    @Setup
+    public void setUp() throws IOException, StorageException {
+        server = FakeB2.start();
+        byte[] content = new byte[0];
+        for (int i = 1; i <= revisions; ++i) {
+            server.putFile(FakeB2.BUCKET_NAME, "pipeline/stage/job/" + i + ".1/artifact.jar", content, i);
+        }
+        storage = FakeB2.authorizedStorage(server);
+        handler = new LatestRevisionRequestHandler(FakeB2.storage(server));
+        request = new DefaultGoPluginApiRequest("package-repository", "1.0", "latest-revision");
+        request.setRequestBody(REQUEST_BODY);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public Optional<String> coldIndex() throws StorageException {
+        return new RevisionIndex().latestRevision(storage, FakeB2.BUCKET_NAME, "pipeline/stage/job/");
+    }
+
+    @Benchmark
+    public GoPluginApiResponse warmHandler() {
+        GoPluginApiResponse response = handler.handle(request);
+        if (response.responseCode() != 200) {
+            throw new IllegalStateException(response.responseBody());
+        }
+        return response;
+    }
+}
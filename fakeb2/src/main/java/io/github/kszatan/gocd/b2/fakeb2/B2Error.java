@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.fakeb2;
+
+class B2Error extends Exception {
+    final int status;
+    final String code;
+    final Integer retryAfter;
+
+    B2Error(int status, String code, String message) {
+        this(status, code, message, null);
+    }
+
+    B2Error(int status, String code, String message, Integer retryAfter) {
+        super(message);
+        this.status = status;
+        this.code = code;
+        this.retryAfter = retryAfter;
+    }
+}
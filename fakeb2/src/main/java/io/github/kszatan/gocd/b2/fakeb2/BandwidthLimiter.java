@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.fakeb2;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+// Caps the combined transfer rate of all connections. Every chunk reserves its slot on a shared timeline and the
+// transferring thread sleeps until that slot comes.
+class BandwidthLimiter {
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final long bytesPerSecond;
+    private long nextFreeNanos = System.nanoTime();
+
+    BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    void acquire(int bytes) throws InterruptedIOException {
+        long waitUntil;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextFreeNanos = Math.max(nextFreeNanos, now) + TimeUnit.SECONDS.toNanos(bytes) / bytesPerSecond;
+            waitUntil = nextFreeNanos;
+        }
+        long delay = waitUntil - System.nanoTime();
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling");
+            }
+        }
+    }
+
+    InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                acquire(1);
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, Math.min(length, CHUNK_SIZE));
+                if (read > 0) {
+                    acquire(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    OutputStream wrap(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                acquire(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                for (int written = 0; written < length; ) {
+                    int chunk = Math.min(length - written, CHUNK_SIZE);
+                    acquire(chunk);
+                    out.write(buffer, offset + written, chunk);
+                    written += chunk;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,757 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.fakeb2;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.kszatan.gocd.b2.utils.json.GsonService;
+import io.github.kszatan.gocd.b2.utils.json.InvalidJson;
+import io.github.kszatan.gocd.b2.utils.storage.*;
+import io.github.kszatan.gocd.b2.utils.storage.api.HttpTransport;
+import io.github.kszatan.gocd.b2.utils.storage.api.KeepAliveHttpTransport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// In-process stand-in for the B2 v1 API, good enough to drive BackblazeApiWrapper over real sockets in tests and
+// benchmarks. Files are kept in memory and only the latest version of every file name is remembered. Latency,
+// a bandwidth cap, injected errors and token expiry can be switched on to see how clients cope with a busy B2.
+public class FakeB2Server {
+    private static final String API_HOST = "api.backblazeb2.com";
+    private static final String API_PREFIX = "/b2api/v1/";
+    private static final String SHA1_AT_END = "hex_digits_at_end";
+    private static final Integer SHA1_HEX_LENGTH = 40;
+    private static final Integer MAX_FILE_COUNT = 10000;
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final String accountId;
+    private final String applicationKey;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fake-b2");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, String> bucketIds = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<String, StoredFile>> buckets = new ConcurrentHashMap<>();
+    private final Map<String, LargeFile> largeFiles = new ConcurrentHashMap<>();
+    private final Map<String, Long> accountTokens = new ConcurrentHashMap<>();
+    private final Map<String, Long> uploadTokens = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> callCounts = new ConcurrentHashMap<>();
+    private final Map<String, Queue<Fault>> scheduledFaults = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+    private volatile long latencyMillis = 0;
+    private volatile BandwidthLimiter bandwidthLimiter;
+    private volatile double faultRate = 0;
+    private volatile Fault randomFault;
+    private volatile long tokenLifetimeMillis = 0;
+    private final AtomicLong ids = new AtomicLong();
+    private volatile Integer recommendedPartSize = 100 * 1000 * 1000;
+    private volatile Integer absoluteMinimumPartSize = 5 * 1000 * 1000;
+
+    public FakeB2Server(String accountId, String applicationKey) throws IOException {
+        this.accountId = accountId;
+        this.applicationKey = applicationKey;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext(API_PREFIX, exchange -> handle(exchange, this::apiCall));
+        server.createContext("/upload/", exchange -> handle(exchange, this::uploadFile));
+        server.createContext("/upload_part/", exchange -> handle(exchange, this::uploadPart));
+        server.createContext("/file/", exchange -> handle(exchange, this::downloadFileByName));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    // Sends calls aimed at the real B2 API host to this server instead.
+    public HttpTransport transport() {
+        final HttpTransport delegate = new KeepAliveHttpTransport();
+        final int port = server.getAddress().getPort();
+        return new HttpTransport() {
+            @Override
+            public HttpURLConnection open(URL url) throws IOException {
+                if (API_HOST.equals(url.getHost())) {
+                    url = new URL("http", "localhost", port, url.getFile());
+                }
+                return delegate.open(url);
+            }
+
+            @Override
+            public void release(HttpURLConnection connection, boolean responded) {
+                delegate.release(connection, responded);
+            }
+        };
+    }
+
+    public void setPartSizes(Integer recommendedPartSize, Integer absoluteMinimumPartSize) {
+        this.recommendedPartSize = recommendedPartSize;
+        this.absoluteMinimumPartSize = absoluteMinimumPartSize;
+    }
+
+    public void setLatency(long millis) {
+        this.latencyMillis = millis;
+    }
+
+    // Caps the combined upload and download rate; null removes the cap.
+    public void setBandwidth(Long bytesPerSecond) {
+        this.bandwidthLimiter = bytesPerSecond == null ? null : new BandwidthLimiter(bytesPerSecond);
+    }
+
+    // The next `count` calls named `call` (e.g. "b2_upload_file") fail with `fault`.
+    public void injectFaults(String call, int count, Fault fault) {
+        Queue<Fault> faults = scheduledFaults.computeIfAbsent(call, name -> new ConcurrentLinkedQueue<>());
+        for (int i = 0; i < count; ++i) {
+            faults.add(fault);
+        }
+    }
+
+    // Any call fails with `fault` with the given probability.
+    public void setFaultRate(double rate, Fault fault) {
+        this.randomFault = fault;
+        this.faultRate = rate;
+    }
+
+    // Tokens issued from now on stop working after the given time; 0 means they never expire.
+    public void setTokenLifetime(long millis) {
+        this.tokenLifetimeMillis = millis;
+    }
+
+    public void expireTokens() {
+        accountTokens.replaceAll((token, expiresAt) -> 0L);
+        uploadTokens.replaceAll((token, expiresAt) -> 0L);
+    }
+
+    public String createBucket(String bucketName) {
+        return bucketIds.computeIfAbsent(bucketName, name -> {
+            String bucketId = "bucket" + ids.incrementAndGet();
+            buckets.put(bucketId, new ConcurrentSkipListMap<>());
+            return bucketId;
+        });
+    }
+
+    public void putFile(String bucketName, String fileName, byte[] content, long uploadTimestamp) {
+        String bucketId = createBucket(bucketName);
+        buckets.get(bucketId).put(fileName, new StoredFile(nextFileId(), bucketId, fileName, "application/octet-stream",
+                sha1(content, content.length), Collections.emptyMap(), content, uploadTimestamp));
+    }
+
+    public Optional<byte[]> getFile(String bucketName, String fileName) {
+        String bucketId = bucketIds.get(bucketName);
+        StoredFile file = bucketId == null ? null : buckets.get(bucketId).get(fileName);
+        return file == null ? Optional.empty() : Optional.of(file.content);
+    }
+
+    public Integer getFileCount(String bucketName) {
+        String bucketId = bucketIds.get(bucketName);
+        return bucketId == null ? 0 : buckets.get(bucketId).size();
+    }
+
+    public Integer getCallCount(String call) {
+        AtomicInteger count = callCounts.get(call);
+        return count == null ? 0 : count.get();
+    }
+
+    private interface Endpoint {
+        void handle(HttpExchange exchange) throws IOException, B2Error;
+    }
+
+    private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            endpoint.handle(exchange);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (B2Error e) {
+            sendError(exchange, e);
+        } catch (RuntimeException e) {
+            sendError(exchange, new B2Error(500, "internal_error", String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void apiCall(HttpExchange exchange) throws IOException, B2Error {
+        String call = exchange.getRequestURI().getPath().substring(API_PREFIX.length());
+        countCall(call);
+        if (call.equals("b2_authorize_account")) {
+            checkFaults(call);
+            authorizeAccount(exchange);
+            return;
+        }
+        JsonObject body = readJsonBody(exchange);
+        checkFaults(call);
+        requireToken(exchange, accountTokens);
+        switch (call) {
+            case "b2_list_buckets":
+                listBuckets(exchange);
+                break;
+            case "b2_get_upload_url":
+                getUploadUrl(exchange, body);
+                break;
+            case "b2_start_large_file":
+                startLargeFile(exchange, body);
+                break;
+            case "b2_get_upload_part_url":
+                getUploadPartUrl(exchange, body);
+                break;
+            case "b2_finish_large_file":
+                finishLargeFile(exchange, body);
+                break;
+            case "b2_cancel_large_file":
+                cancelLargeFile(exchange, body);
+                break;
+            case "b2_list_file_names":
+                listFileNames(exchange, body);
+                break;
+            case "b2_list_unfinished_large_files":
+                listUnfinishedLargeFiles(exchange, body);
+                break;
+            case "b2_list_parts":
+                listParts(exchange, body);
+                break;
+            default:
+                throw new B2Error(404, "not_found", "Unknown API call: " + call);
+        }
+    }
+
+    private void authorizeAccount(HttpExchange exchange) throws IOException, B2Error {
+        String expected = "Basic " + Base64.getEncoder().encodeToString(
+                (accountId + ":" + applicationKey).getBytes(StandardCharsets.UTF_8));
+        if (!expected.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            throw new B2Error(401, "unauthorized", "Invalid accountId or applicationKey");
+        }
+        AuthorizeResponse response = new AuthorizeResponse();
+        response.accountId = accountId;
+        response.apiUrl = getUrl();
+        response.downloadUrl = getUrl();
+        response.authorizationToken = newToken(accountTokens);
+        response.recommendedPartSize = recommendedPartSize;
+        response.absoluteMinimumPartSize = absoluteMinimumPartSize;
+        sendJson(exchange, response);
+    }
+
+    private void listBuckets(HttpExchange exchange) throws IOException {
+        ListBucketsResponse response = new ListBucketsResponse();
+        for (Map.Entry<String, String> entry : bucketIds.entrySet()) {
+            Bucket bucket = new Bucket();
+            bucket.accountId = accountId;
+            bucket.id = entry.getValue();
+            bucket.name = entry.getKey();
+            bucket.type = "allPrivate";
+            response.buckets.add(bucket);
+        }
+        sendJson(exchange, response);
+    }
+
+    private void getUploadUrl(HttpExchange exchange, JsonObject body) throws IOException, B2Error {
+        String bucketId = requireString(body, "bucketId");
+        bucket(bucketId);
+        GetUploadUrlResponse response = new GetUploadUrlResponse();
+        response.bucketId = bucketId;
+        response.uploadUrl = getUrl() + "/upload/" + bucketId;
+        response.authorizationToken = newToken(uploadTokens);
+        sendJson(exchange, response);
+    }
+
+    private void uploadFile(HttpExchange exchange) throws IOException, B2Error {
+        countCall("b2_upload_file");
+        byte[] content = readBody(exchange);
+        checkFaults("b2_upload_file");
+        requireToken(exchange, uploadTokens);
+        String bucketId = exchange.getRequestURI().getPath().substring("/upload/".length());
+        ConcurrentSkipListMap<String, StoredFile> bucket = bucket(bucketId);
+        Headers headers = exchange.getRequestHeaders();
+        String fileName = requireHeader(headers, "X-Bz-File-Name");
+        int length = content.length;
+        String sha1 = requireHeader(headers, "X-Bz-Content-Sha1");
+        if (SHA1_AT_END.equals(sha1)) {
+            if (length < SHA1_HEX_LENGTH) {
+                throw new B2Error(400, "bad_request", "Missing SHA1 at the end of the body");
+            }
+            length -= SHA1_HEX_LENGTH;
+            sha1 = new String(content, length, SHA1_HEX_LENGTH, StandardCharsets.US_ASCII);
+            content = Arrays.copyOf(content, length);
+        }
+        if (!sha1.equals(sha1(content, length))) {
+            throw new B2Error(400, "bad_request", "Sha1 did not match data received");
+        }
+        StoredFile file = new StoredFile(nextFileId(), bucketId, fileName, contentType(headers), sha1,
+                fileInfo(headers), content, System.currentTimeMillis());
+        bucket.put(fileName, file);
+        sendJson(exchange, fileJson(file, "upload"));
+    }
+
+    private void startLargeFile(HttpExchange exchange, JsonObject body) throws IOException, B2Error {
+        String bucketId = requireString(body, "bucketId");
+        bucket(bucketId);
+        Map<String, String> fileInfo = new HashMap<>();
+        JsonElement info = body.get("fileInfo");
+        if (info != null && info.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : info.getAsJsonObject().entrySet()) {
+                fileInfo.put(entry.getKey(), entry.getValue().getAsString());
+            }
+        }
+        LargeFile file = new LargeFile(nextFileId(), bucketId, requireString(body, "fileName"),
+                body.has("contentType") ? body.get("contentType").getAsString() : "b2/x-auto", fileInfo,
+                System.currentTimeMillis());
+        largeFiles.put(file.fileId, file);
+        StartLargeFileResponse response = new StartLargeFileResponse();
+        response.fileId = file.fileId;
+        response.fileName = file.fileName;
+        response.accountId = accountId;
+        response.bucketId = bucketId;
+        response.contentType = file.contentType;
+        response.uploadTimestamp = file.uploadTimestamp;
+        sendJson(exchange, response);
+    }
+
+    private void getUploadPartUrl(HttpExchange exchange, JsonObject body) throws IOException, B2Error {
+        String fileId = requireString(body, "fileId");
+        largeFile(fileId);
+        GetUploadPartUrlResponse response = new GetUploadPartUrlResponse();
+        response.fileId = fileId;
+        response.uploadUrl = getUrl() + "/upload_part/" + fileId;
+        response.authorizationToken = newToken(uploadTokens);
+        sendJson(exchange, response);
+    }
+
+    private void uploadPart(HttpExchange exchange) throws IOException, B2Error {
+        countCall("b2_upload_part");
+        byte[] content = readBody(exchange);
+        checkFaults("b2_upload_part");
+        requireToken(exchange, uploadTokens);
+        LargeFile file = largeFile(exchange.getRequestURI().getPath().substring("/upload_part/".length()));
+        Headers headers = exchange.getRequestHeaders();
+        int partNumber;
+        try {
+            partNumber = Integer.parseInt(requireHeader(headers, "X-Bz-Part-Number"));
+        } catch (NumberFormatException e) {
+            throw new B2Error(400, "bad_request", "Invalid part number");
+        }
+        if (partNumber < 1 || partNumber > 10000) {
+            throw new B2Error(400, "bad_request", "Part number out of range: " + partNumber);
+        }
+        String sha1 = requireHeader(headers, "X-Bz-Content-Sha1");
+        if (!sha1.equals(sha1(content, content.length))) {
+            throw new B2Error(400, "bad_request", "Sha1 did not match data received");
+        }
+        file.parts.put(partNumber, new LargeFile.Part(content, sha1));
+        UploadPartResponse response = new UploadPartResponse();
+        response.fileId = file.fileId;
+        response.partNumber = partNumber;
+        response.contentLength = content.length;
+        response.contentSha1 = sha1;
+        sendJson(exchange, response);
+    }
+
+    private void finishLargeFile(HttpExchange exchange, JsonObject body) throws IOException, B2Error {
+        LargeFile file = largeFile(requireString(body, "fileId"));
+        JsonElement sha1Array = body.get("partSha1Array");
+        if (sha1Array == null || !sha1Array.isJsonArray()) {
+            throw new B2Error(400, "bad_request", "Missing partSha1Array");
+        }
+        List<String> partSha1s = new ArrayList<>();
+        sha1Array.getAsJsonArray().forEach(element -> partSha1s.add(element.getAsString()));
+        if (partSha1s.size() < 2 || partSha1s.size() != file.parts.size()) {
+            throw new B2Error(400, "bad_request", "Expected " + file.parts.size() + " parts, got " + partSha1s.size());
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (int i = 0; i < partSha1s.size(); ++i) {
+            LargeFile.Part part = file.parts.get(i + 1);
+            if (part == null || !part.contentSha1.equals(partSha1s.get(i))) {
+                throw new B2Error(400, "bad_request", "Part " + (i + 1) + " is missing or its SHA1 doesn't match");
+            }
+            if (i < partSha1s.size() - 1 && part.content.length < absoluteMinimumPartSize) {
+                throw new B2Error(400, "bad_request", "Part " + (i + 1) + " is smaller than " + absoluteMinimumPartSize);
+            }
+            content.write(part.content);
+        }
+        largeFiles.remove(file.fileId);
+        StoredFile stored = new StoredFile(file.fileId, file.bucketId, file.fileName, file.contentType, "none",
+                file.fileInfo, content.toByteArray(), file.uploadTimestamp);
+        bucket(file.bucketId).put(file.fileName, stored);
+        sendJson(exchange, fileJson(stored, "upload"));
+    }
+
+    private void cancelLargeFile(HttpExchange exchange, JsonObject body) throws IOException, B2Error {
+        LargeFile file = largeFile(requireString(body, "fileId"));
+        largeFiles.remove(file.fileId);
+        CancelLargeFileResponse response = new CancelLargeFileResponse();
+        response.fileId = file.fileId;
+        response.fileName = file.fileName;
+        response.accountId = accountId;
+        response.bucketId = file.bucketId;
+        sendJson(exchange, response);
+    }
+
+    private void listFileNames(HttpExchange exchange, JsonObject body) throws IOException, B2Error {
+        ConcurrentSkipListMap<String, StoredFile> bucket = bucket(requireString(body, "bucketId"));
+        String prefix = optionalString(body, "prefix", "");
+        String delimiter = optionalString(body, "delimiter", null);
+        String startFileName = optionalString(body, "startFileName", null);
+        int maxFileCount = body.has("maxFileCount") && !body.get("maxFileCount").isJsonNull()
+                ? body.get("maxFileCount").getAsInt() : 100;
+        if (maxFileCount < 1 || maxFileCount > MAX_FILE_COUNT) {
+            throw new B2Error(400, "bad_request", "maxFileCount out of range: " + maxFileCount);
+        }
+        String from = startFileName != null && startFileName.compareTo(prefix) > 0 ? startFileName : prefix;
+
+        ListFileNamesResponse response = new ListFileNamesResponse();
+        String key = bucket.ceilingKey(from);
+        while (key != null && key.startsWith(prefix)) {
+            if (response.fileNames.size() == maxFileCount) {
+                response.nextFileName = key;
+                break;
+            }
+            int delimiterIndex = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+            if (delimiterIndex >= 0) {
+                String folder = key.substring(0, delimiterIndex + delimiter.length());
+                FileName fileName = new FileName();
+                fileName.fileName = folder;
+                fileName.action = "folder";
+                fileName.contentLength = 0L;
+                fileName.size = 0L;
+                fileName.uploadTimestamp = 0L;
+                response.fileNames.add(fileName);
+                key = bucket.higherKey(folder + Character.MAX_VALUE);
+            } else {
+                response.fileNames.add(fileName(bucket.get(key)));
+                key = bucket.higherKey(key);
+            }
+        }
+        sendJson(exchange, response);
+    }
+
+    private void listUnfinishedLargeFiles(HttpExchange exchange, JsonObject body) throws IOException, B2Error {
+        String bucketId = requireString(body, "bucketId");
+        bucket(bucketId);
+        String namePrefix = optionalString(body, "namePrefix", "");
+        String startFileId = optionalString(body, "startFileId", null);
+        int maxFileCount = body.has("maxFileCount") ? body.get("maxFileCount").getAsInt() : 100;
+        List<LargeFile> files = largeFiles.values().stream()
+                .filter(file -> file.bucketId.equals(bucketId) && file.fileName.startsWith(namePrefix))
+                .sorted(Comparator.comparing((LargeFile file) -> file.fileName).thenComparing(file -> file.fileId))
+                .collect(Collectors.toList());
+        int first = 0;
+        while (startFileId != null && first < files.size() && !files.get(first).fileId.equals(startFileId)) {
+            first++;
+        }
+        ListUnfinishedLargeFilesResponse response = new ListUnfinishedLargeFilesResponse();
+        for (LargeFile file : files.subList(Math.min(first, files.size()), files.size())) {
+            if (response.files.size() == maxFileCount) {
+                response.nextFileId = file.fileId;
+                break;
+            }
+            FileName fileName = new FileName();
+            fileName.fileId = file.fileId;
+            fileName.fileName = file.fileName;
+            fileName.action = "start";
+            fileName.uploadTimestamp = file.uploadTimestamp;
+            fileName.contentType = file.contentType;
+            fileName.fileInfo = new FileInfo();
+            fileName.fileInfo.largeFileSha1 = file.fileInfo.get("large_file_sha1");
+            response.files.add(fileName);
+        }
+        sendJson(exchange, response);
+    }
+
+    private void listParts(HttpExchange exchange, JsonObject body) throws IOException, B2Error {
+        LargeFile file = largeFile(requireString(body, "fileId"));
+        int startPartNumber = body.has("startPartNumber") ? body.get("startPartNumber").getAsInt() : 1;
+        int maxPartCount = body.has("maxPartCount") ? body.get("maxPartCount").getAsInt() : 100;
+        ListPartsResponse response = new ListPartsResponse();
+        for (Map.Entry<Integer, LargeFile.Part> entry : file.parts.tailMap(startPartNumber).entrySet()) {
+            if (response.parts.size() == maxPartCount) {
+                response.nextPartNumber = entry.getKey();
+                break;
+            }
+            UploadPartResponse part = new UploadPartResponse();
+            part.fileId = file.fileId;
+            part.partNumber = entry.getKey();
+            part.contentLength = entry.getValue().content.length;
+            part.contentSha1 = entry.getValue().contentSha1;
+            response.parts.add(part);
+        }
+        sendJson(exchange, response);
+    }
+
+    private void downloadFileByName(HttpExchange exchange) throws IOException, B2Error {
+        countCall("b2_download_file_by_name");
+        checkFaults("b2_download_file_by_name");
+        requireToken(exchange, accountTokens);
+        String path = exchange.getRequestURI().getPath().substring("/file/".length());
+        int slash = path.indexOf('/');
+        if (slash < 0) {
+            throw new B2Error(400, "bad_request", "Missing file name");
+        }
+        String bucketId = bucketIds.get(path.substring(0, slash));
+        StoredFile file = bucketId == null ? null : buckets.get(bucketId).get(path.substring(slash + 1));
+        if (file == null) {
+            throw new B2Error(404, "not_found", "File not present: " + path.substring(slash + 1));
+        }
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Content-Type", file.contentType);
+        headers.add("X-Bz-File-Id", file.fileId);
+        headers.add("X-Bz-File-Name", file.fileName);
+        headers.add("X-Bz-Content-Sha1", file.contentSha1);
+        headers.add("X-Bz-Upload-Timestamp", String.valueOf(file.uploadTimestamp));
+        file.fileInfo.forEach((name, value) -> headers.add("X-Bz-Info-" + name, value));
+        headers.add("Accept-Ranges", "bytes");
+
+        int first = 0;
+        int last = file.content.length - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            Matcher matcher = RANGE_PATTERN.matcher(range);
+            if (!matcher.matches()) {
+                throw new B2Error(416, "range_not_satisfiable", "Invalid range: " + range);
+            }
+            first = Integer.parseInt(matcher.group(1));
+            if (!matcher.group(2).isEmpty()) {
+                last = Math.min(last, Integer.parseInt(matcher.group(2)));
+            }
+            if (first > last) {
+                throw new B2Error(416, "range_not_satisfiable", "Invalid range: " + range);
+            }
+            headers.add("Content-Range", "bytes " + first + "-" + last + "/" + file.content.length);
+            status = 206;
+        }
+        int length = last - first + 1;
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        if (length > 0) {
+            try (OutputStream os = throttled(exchange.getResponseBody())) {
+                os.write(file.content, first, length);
+            }
+        }
+    }
+
+    private FileName fileName(StoredFile file) {
+        FileName fileName = new FileName();
+        fileName.fileId = file.fileId;
+        fileName.fileName = file.fileName;
+        fileName.action = "upload";
+        fileName.contentLength = (long) file.content.length;
+        fileName.size = (long) file.content.length;
+        fileName.uploadTimestamp = file.uploadTimestamp;
+        fileName.contentType = file.contentType;
+        fileName.contentSha1 = file.contentSha1;
+        fileName.fileInfo = new FileInfo();
+        fileName.fileInfo.srcLastModifiedMillis = file.fileInfo.get("src_last_modified_millis");
+        fileName.fileInfo.largeFileSha1 = file.fileInfo.get("large_file_sha1");
+        return fileName;
+    }
+
+    private JsonObject fileJson(StoredFile file, String action) {
+        JsonObject json = new JsonObject();
+        json.addProperty("accountId", accountId);
+        json.addProperty("action", action);
+        json.addProperty("bucketId", file.bucketId);
+        json.addProperty("contentLength", file.content.length);
+        json.addProperty("contentSha1", file.contentSha1);
+        json.addProperty("contentType", file.contentType);
+        json.addProperty("fileId", file.fileId);
+        JsonObject info = new JsonObject();
+        file.fileInfo.forEach((name, value) -> info.add(name, new JsonPrimitive(value)));
+        json.add("fileInfo", info);
+        json.addProperty("fileName", file.fileName);
+        json.addProperty("uploadTimestamp", file.uploadTimestamp);
+        return json;
+    }
+
+    private ConcurrentSkipListMap<String, StoredFile> bucket(String bucketId) throws B2Error {
+        ConcurrentSkipListMap<String, StoredFile> bucket = buckets.get(bucketId);
+        if (bucket == null) {
+            throw new B2Error(400, "bad_request", "Invalid bucketId: " + bucketId);
+        }
+        return bucket;
+    }
+
+    private LargeFile largeFile(String fileId) throws B2Error {
+        LargeFile file = largeFiles.get(fileId);
+        if (file == null) {
+            throw new B2Error(400, "bad_request", "No active upload for: " + fileId);
+        }
+        return file;
+    }
+
+    private void requireToken(HttpExchange exchange, Map<String, Long> tokens) throws B2Error {
+        String token = exchange.getRequestHeaders().getFirst("Authorization");
+        Long expiresAt = token == null ? null : tokens.get(token);
+        if (expiresAt == null) {
+            throw new B2Error(401, "bad_auth_token", "Invalid authorization token");
+        }
+        if (expiresAt <= System.currentTimeMillis()) {
+            throw new B2Error(401, "expired_auth_token", "Authorization token has expired");
+        }
+    }
+
+    private void checkFaults(String call) throws B2Error {
+        Queue<Fault> faults = scheduledFaults.get(call);
+        Fault fault = faults == null ? null : faults.poll();
+        if (fault == null && faultRate > 0 && random.nextDouble() < faultRate) {
+            fault = randomFault;
+        }
+        if (fault != null) {
+            throw new B2Error(fault.status, fault.code, "Injected failure of " + call, fault.retryAfter);
+        }
+    }
+
+    private InputStream throttled(InputStream in) {
+        BandwidthLimiter limiter = bandwidthLimiter;
+        return limiter == null ? in : limiter.wrap(in);
+    }
+
+    private OutputStream throttled(OutputStream out) {
+        BandwidthLimiter limiter = bandwidthLimiter;
+        return limiter == null ? out : limiter.wrap(out);
+    }
+
+    private static String requireHeader(Headers headers, String name) throws B2Error {
+        String value = headers.getFirst(name);
+        if (value == null) {
+            throw new B2Error(400, "bad_request", "Missing header: " + name);
+        }
+        return value;
+    }
+
+    private static String requireString(JsonObject body, String field) throws B2Error {
+        JsonElement value = body.get(field);
+        if (value == null || value.isJsonNull()) {
+            throw new B2Error(400, "bad_request", "Missing field: " + field);
+        }
+        return value.getAsString();
+    }
+
+    private static String optionalString(JsonObject body, String field, String defaultValue) {
+        JsonElement value = body.get(field);
+        return value == null || value.isJsonNull() ? defaultValue : value.getAsString();
+    }
+
+    private static String contentType(Headers headers) {
+        String contentType = headers.getFirst("Content-Type");
+        return contentType == null || contentType.equals("b2/x-auto") ? "application/octet-stream" : contentType;
+    }
+
+    private static Map<String, String> fileInfo(Headers headers) {
+        Map<String, String> fileInfo = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey().toLowerCase(Locale.ROOT).startsWith("x-bz-info-")) {
+                fileInfo.put(header.getKey().substring("x-bz-info-".length()).toLowerCase(Locale.ROOT),
+                        header.getValue().get(0));
+            }
+        }
+        return fileInfo;
+    }
+
+    private String newToken(Map<String, Long> tokens) {
+        String token = "token" + ids.incrementAndGet() + "_" + UUID.randomUUID();
+        long lifetime = tokenLifetimeMillis;
+        tokens.put(token, lifetime > 0 ? System.currentTimeMillis() + lifetime : Long.MAX_VALUE);
+        return token;
+    }
+
+    private String nextFileId() {
+        return String.format("4_zfake_f%016x", ids.incrementAndGet());
+    }
+
+    private void countCall(String call) {
+        callCounts.computeIfAbsent(call, name -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream is = throttled(exchange.getRequestBody())) {
+            for (int read; (read = is.read(buffer)) != -1; ) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private JsonObject readJsonBody(HttpExchange exchange) throws IOException, B2Error {
+        byte[] body = readBody(exchange);
+        if (body.length == 0) {
+            return new JsonObject();
+        }
+        try {
+            return GsonService.parse(new String(body, StandardCharsets.UTF_8));
+        } catch (InvalidJson e) {
+            throw new B2Error(400, "bad_json", e.getMessage());
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, Object response) throws IOException {
+        sendJson(exchange, 200, GsonService.toJson(response));
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, B2Error error) throws IOException {
+        if (error.retryAfter != null) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(error.retryAfter));
+        }
+        JsonObject json = new JsonObject();
+        json.addProperty("status", error.status);
+        json.addProperty("code", error.code);
+        json.addProperty("message", error.getMessage());
+        sendJson(exchange, error.status, json.toString());
+    }
+
+    static String sha1(byte[] content, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(content, 0, length);
+            StringBuilder hex = new StringBuilder(SHA1_HEX_LENGTH);
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.fakeb2;
+
+// An error the fake server answers with instead of handling a call.
+public class Fault {
+    final int status;
+    final String code;
+    final Integer retryAfter;
+
+    private Fault(int status, String code, Integer retryAfter) {
+        this.status = status;
+        this.code = code;
+        this.retryAfter = retryAfter;
+    }
+
+    public static Fault tooManyRequests(Integer retryAfterSeconds) {
+        return new Fault(429, "too_many_requests", retryAfterSeconds);
+    }
+
+    public static Fault serviceUnavailable(Integer retryAfterSeconds) {
+        return new Fault(503, "service_unavailable", retryAfterSeconds);
+    }
+
+    public static Fault internalError() {
+        return new Fault(500, "internal_error", null);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.fakeb2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+class LargeFile {
+    final String fileId;
+    final String bucketId;
+    final String fileName;
+    final String contentType;
+    final Map<String, String> fileInfo;
+    final long uploadTimestamp;
+    final ConcurrentSkipListMap<Integer, Part> parts = new ConcurrentSkipListMap<>();
+
+    static class Part {
+        final byte[] content;
+        final String contentSha1;
+
+        Part(byte[] content, String contentSha1) {
+            this.content = content;
+            this.contentSha1 = contentSha1;
+        }
+    }
+
+    LargeFile(String fileId, String bucketId, String fileName, String contentType, Map<String, String> fileInfo,
+              long uploadTimestamp) {
+        this.fileId = fileId;
+        this.bucketId = bucketId;
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.fileInfo = fileInfo;
+        this.uploadTimestamp = uploadTimestamp;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.fakeb2;
+
+import java.util.Map;
+
+class StoredFile {
+    final String fileId;
+    final String bucketId;
+    final String fileName;
+    final String contentType;
+    final String contentSha1;
+    final Map<String, String> fileInfo;
+    final byte[] content;
+    final long uploadTimestamp;
+
+    StoredFile(String fileId, String bucketId, String fileName, String contentType, String contentSha1,
+               Map<String, String> fileInfo, byte[] content, long uploadTimestamp) {
+        this.fileId = fileId;
+        this.bucketId = bucketId;
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.contentSha1 = contentSha1;
+        this.fileInfo = fileInfo;
+        this.content = content;
+        this.uploadTimestamp = uploadTimestamp;
+    }
+}
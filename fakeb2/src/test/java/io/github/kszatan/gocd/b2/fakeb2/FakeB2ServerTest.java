@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.fakeb2;
+
+import io.github.kszatan.gocd.b2.utils.storage.*;
+import io.github.kszatan.gocd.b2.utils.storage.api.BackblazeApiWrapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class FakeB2ServerTest {
+    private static final String ACCOUNT_ID = "account";
+    private static final String APPLICATION_KEY = "key";
+    private static final String BUCKET_NAME = "bucket";
+    private static final String PREFIX = "pipeline/stage/job/1.1/";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FakeB2Server server;
+    private BackblazeApiWrapper wrapper;
+    private BackblazeStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeB2Server(ACCOUNT_ID, APPLICATION_KEY);
+        server.createBucket(BUCKET_NAME);
+        server.start();
+        wrapper = new BackblazeApiWrapper(server.transport());
+        storage = new BackblazeStorage(BUCKET_NAME, wrapper, new CachingCredentialsManager());
+        storage.setCredentials(ACCOUNT_ID, APPLICATION_KEY);
+        assertThat(storage.authorize(), equalTo(true));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void uploadedFileShouldBeListedAndDownloaded() throws Exception {
+        Path workDir = temporaryFolder.newFolder("work").toPath();
+        byte[] content = randomBytes(10000);
+        Files.createDirectories(workDir.resolve("dir"));
+        Files.write(workDir.resolve("dir/file.txt"), content);
+
+        storage.upload(workDir, Paths.get("dir/file.txt"), PREFIX);
+        ListFileNamesResponse listing = storage.listFiles(null, PREFIX, null).get();
+        assertThat(listing.fileNames.size(), equalTo(1));
+        assertThat(listing.fileNames.get(0).fileName, equalTo(PREFIX + "dir/file.txt"));
+        assertThat(listing.fileNames.get(0).contentLength, equalTo(10000L));
+
+        Path destination = temporaryFolder.newFolder("destination").toPath();
+        assertThat(storage.download("dir/file.txt", destination, PREFIX), equalTo(true));
+        assertThat(Files.readAllBytes(destination.resolve("dir/file.txt")), equalTo(content));
+    }
+
+    @Test
+    public void singlePassUploadShouldStoreContentWithoutTrailer() throws Exception {
+        Path workDir = temporaryFolder.newFolder("work").toPath();
+        byte[] content = randomBytes(5000);
+        Files.write(workDir.resolve("file.bin"), content);
+
+        storage.setSinglePassUpload(true);
+        storage.upload(workDir, Paths.get("file.bin"), PREFIX);
+        assertThat(server.getFile(BUCKET_NAME, PREFIX + "file.bin").get(), equalTo(content));
+    }
+
+    @Test
+    public void largeFileShouldBeAssembledFromParts() throws Exception {
+        server.setPartSizes(100 * 1024, 100 * 1024);
+        storage = new BackblazeStorage(BUCKET_NAME, wrapper, new CachingCredentialsManager());
+        storage.setCredentials(ACCOUNT_ID, APPLICATION_KEY);
+        storage.authorize();
+        storage.setPartUploadThreads(3);
+        Path workDir = temporaryFolder.newFolder("work").toPath();
+        byte[] content = randomBytes(450 * 1024);
+        Files.write(workDir.resolve("large.bin"), content);
+
+        storage.upload(workDir, Paths.get("large.bin"), PREFIX);
+        assertThat(server.getCallCount("b2_upload_part"), equalTo(5));
+        assertThat(server.getCallCount("b2_finish_large_file"), equalTo(1));
+        assertThat(server.getFile(BUCKET_NAME, PREFIX + "large.bin").get(), equalTo(content));
+    }
+
+    @Test
+    public void largeFileShouldRecordGivenSha1() throws Exception {
+        server.setPartSizes(100 * 1024, 100 * 1024);
+        storage = new BackblazeStorage(BUCKET_NAME, wrapper, new CachingCredentialsManager());
+        storage.setCredentials(ACCOUNT_ID, APPLICATION_KEY);
+        storage.authorize();
+        Path workDir = temporaryFolder.newFolder("work").toPath();
+        Files.write(workDir.resolve("large.bin"), randomBytes(250 * 1024));
+        String sha1 = new Sha1FileHash().getHashValue(workDir.resolve("large.bin"));
+
+        storage.upload(workDir, Paths.get("large.bin"), PREFIX, sha1);
+        FileName fileName = storage.listFiles(null, PREFIX, null).get().fileNames.get(0);
+        assertThat(fileName.contentSha1, equalTo("none"));
+        assertThat(fileName.fileInfo.largeFileSha1, equalTo(sha1));
+    }
+
+    @Test
+    public void failedLargeFileUploadShouldBeResumedFromStoredParts() throws Exception {
+        server.setPartSizes(100 * 1024, 100 * 1024);
+        storage = new BackblazeStorage(BUCKET_NAME, wrapper, new CachingCredentialsManager());
+        storage.setCredentials(ACCOUNT_ID, APPLICATION_KEY);
+        storage.authorize();
+        storage.setResumableUpload(true);
+        Path workDir = temporaryFolder.newFolder("work").toPath();
+        byte[] content = randomBytes(450 * 1024);
+        Files.write(workDir.resolve("large.bin"), content);
+        server.injectFaults("b2_finish_large_file", 5, Fault.internalError());
+        try {
+            storage.upload(workDir, Paths.get("large.bin"), PREFIX);
+            fail("StorageException expected");
+        } catch (StorageException e) {
+            assertThat(server.getCallCount("b2_cancel_large_file"), equalTo(0));
+        }
+
+        content[250 * 1024] ^= 1;
+        Files.write(workDir.resolve("large.bin"), content);
+        storage.setPartsHashedAhead(2);
+        storage.upload(workDir, Paths.get("large.bin"), PREFIX);
+        assertThat(server.getCallCount("b2_start_large_file"), equalTo(1));
+        assertThat(server.getCallCount("b2_upload_part"), equalTo(6));
+        assertThat(server.getFile(BUCKET_NAME, PREFIX + "large.bin").get(), equalTo(content));
+    }
+
+    @Test
+    public void failedLargeFileUploadShouldBeCancelledUnlessResumable() throws Exception {
+        server.setPartSizes(100 * 1024, 100 * 1024);
+        storage = new BackblazeStorage(BUCKET_NAME, wrapper, new CachingCredentialsManager());
+        storage.setCredentials(ACCOUNT_ID, APPLICATION_KEY);
+        storage.authorize();
+        Path workDir = temporaryFolder.newFolder("work").toPath();
+        Files.write(workDir.resolve("large.bin"), randomBytes(250 * 1024));
+        server.injectFaults("b2_finish_large_file", 5, Fault.internalError());
+        try {
+            storage.upload(workDir, Paths.get("large.bin"), PREFIX);
+            fail("StorageException expected");
+        } catch (StorageException e) {
+            assertThat(server.getCallCount("b2_cancel_large_file"), equalTo(1));
+        }
+
+        storage.setResumableUpload(true);
+        storage.upload(workDir, Paths.get("large.bin"), PREFIX);
+        assertThat(server.getCallCount("b2_start_large_file"), equalTo(2));
+        assertThat(server.getCallCount("b2_upload_part"), equalTo(6));
+    }
+
+    @Test
+    public void listFileNamesShouldCollapseFoldersAndPage() throws Exception {
+        for (int i = 1; i <= 5; ++i) {
+            server.putFile(BUCKET_NAME, "pipeline/stage/job/" + i + ".1/a.txt", new byte[1], i);
+            server.putFile(BUCKET_NAME, "pipeline/stage/job/" + i + ".1/b.txt", new byte[1], i);
+        }
+        ListFileNamesResponse folders = storage.listFiles(null, "pipeline/stage/job/", "/").get();
+        assertThat(folders.fileNames.stream().map(f -> f.fileName).collect(Collectors.toList()), contains(
+                "pipeline/stage/job/1.1/", "pipeline/stage/job/2.1/", "pipeline/stage/job/3.1/",
+                "pipeline/stage/job/4.1/", "pipeline/stage/job/5.1/"));
+        assertThat(folders.fileNames.get(0).action, equalTo("folder"));
+
+        ListFileNamesParams params = new ListFileNamesParams();
+        params.bucketId = server.createBucket(BUCKET_NAME);
+        params.prefix = "pipeline/stage/job/";
+        params.maxFileCount = 4;
+        AuthorizeResponse authorizeResponse = wrapper.authorize(ACCOUNT_ID, APPLICATION_KEY).get();
+        ListFileNamesResponse page = wrapper.listFileNames(authorizeResponse, params).get();
+        assertThat(page.fileNames.size(), equalTo(4));
+        assertThat(page.nextFileName, equalTo("pipeline/stage/job/3.1/a.txt"));
+    }
+
+    @Test
+    public void serviceUnavailableShouldBeRetriedAfterRetryAfter() throws Exception {
+        server.injectFaults("b2_list_file_names", 1, Fault.serviceUnavailable(1));
+        long start = System.currentTimeMillis();
+        Optional<ListFileNamesResponse> listing = storage.listFiles(null, PREFIX, null);
+        assertThat(listing.isPresent(), equalTo(true));
+        assertThat(server.getCallCount("b2_list_file_names"), equalTo(2));
+        assertThat(System.currentTimeMillis() - start, greaterThanOrEqualTo(1000L));
+    }
+
+    @Test
+    public void tooManyRequestsShouldBeReported() throws Exception {
+        server.injectFaults("b2_list_buckets", 1, Fault.tooManyRequests(2));
+        AuthorizeResponse authorizeResponse = wrapper.authorize(ACCOUNT_ID, APPLICATION_KEY).get();
+        assertThat(wrapper.listBuckets(authorizeResponse).isPresent(), equalTo(false));
+        ErrorResponse error = wrapper.getLastError().get();
+        assertThat(error.status, equalTo(429));
+        assertThat(error.code, equalTo("too_many_requests"));
+        assertThat(wrapper.listBuckets(authorizeResponse).isPresent(), equalTo(true));
+    }
+
+    @Test
+    public void expiredTokenShouldBeRejectedUntilReauthorized() throws Exception {
+        server.setTokenLifetime(50);
+        AuthorizeResponse authorizeResponse = wrapper.authorize(ACCOUNT_ID, APPLICATION_KEY).get();
+        Thread.sleep(100);
+        assertThat(wrapper.listBuckets(authorizeResponse).isPresent(), equalTo(false));
+        ErrorResponse error = wrapper.getLastError().get();
+        assertThat(error.status, equalTo(401));
+        assertThat(error.code, equalTo("expired_auth_token"));
+
+        server.setTokenLifetime(0);
+        authorizeResponse = wrapper.authorize(ACCOUNT_ID, APPLICATION_KEY).get();
+        assertThat(wrapper.listBuckets(authorizeResponse).isPresent(), equalTo(true));
+    }
+
+    @Test
+    public void wrongCredentialsShouldBeRejected() throws Exception {
+        assertThat(wrapper.authorize(ACCOUNT_ID, "wrong").isPresent(), equalTo(false));
+        assertThat(wrapper.getLastError().get().status, equalTo(401));
+    }
+
+    @Test
+    public void latencyShouldDelayEveryCall() throws Exception {
+        server.setLatency(200);
+        long start = System.currentTimeMillis();
+        wrapper.authorize(ACCOUNT_ID, APPLICATION_KEY);
+        assertThat(System.currentTimeMillis() - start, greaterThanOrEqualTo(200L));
+    }
+
+    @Test
+    public void bandwidthCapShouldSlowDownDownloads() throws Exception {
+        byte[] content = randomBytes(200 * 1024);
+        server.putFile(BUCKET_NAME, PREFIX + "file.bin", content, 1);
+        server.setBandwidth(400 * 1024L);
+        Path destination = temporaryFolder.newFolder("destination").toPath();
+
+        long start = System.currentTimeMillis();
+        assertThat(storage.download("file.bin", destination, PREFIX), equalTo(true));
+        assertThat(System.currentTimeMillis() - start, greaterThanOrEqualTo(400L));
+        assertThat(Files.readAllBytes(destination.resolve("file.bin")), equalTo(content));
+    }
+
+    @Test
+    public void rangeRequestsShouldReturnPartialContent() throws Exception {
+        byte[] content = randomBytes(300 * 1024);
+        server.putFile(BUCKET_NAME, PREFIX + "big.bin", content, 1);
+        storage.setSegmentedDownload(1024L, 3);
+        Path destination = temporaryFolder.newFolder("destination").toPath();
+
+        assertThat(storage.download("big.bin", (long) content.length, destination, PREFIX), equalTo(true));
+        assertThat(server.getCallCount("b2_download_file_by_name"), equalTo(3));
+        assertThat(Files.readAllBytes(destination.resolve("big.bin")), equalTo(content));
+    }
+
+    @Test
+    public void concurrentIdenticalListingsShouldShareOneCall() throws Exception {
+        server.putFile(BUCKET_NAME, PREFIX + "file.bin", randomBytes(100), 1);
+        List<BackblazeStorage> storages = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            BackblazeStorage material = new BackblazeStorage(BUCKET_NAME, new BackblazeApiWrapper(server.transport()),
+                    new CachingCredentialsManager());
+            material.setCredentials(ACCOUNT_ID, APPLICATION_KEY);
+            assertThat(material.authorize(), equalTo(true));
+            storages.add(material);
+        }
+        Integer callsBefore = server.getCallCount("b2_list_file_names");
+        server.setLatency(500);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(storages.size());
+        List<Future<ListFileNamesResponse>> listings = new ArrayList<>();
+        try {
+            for (BackblazeStorage material : storages) {
+                listings.add(executor.submit(() -> {
+                    start.await();
+                    return material.listFiles(null, PREFIX, null).get();
+                }));
+            }
+            start.countDown();
+            Set<ListFileNamesResponse> responses = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Future<ListFileNamesResponse> listing : listings) {
+                ListFileNamesResponse response = listing.get();
+                assertThat(response.fileNames.get(0).fileName, equalTo(PREFIX + "file.bin"));
+                response.fileNames.get(0).fileName = "file.bin";
+                responses.add(response);
+            }
+            assertThat(responses.size(), equalTo(storages.size()));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(server.getCallCount("b2_list_file_names") - callsBefore, equalTo(1));
+    }
+
+    @Test
+    public void failedSharedListingShouldReportErrorToEveryCaller() throws Exception {
+        List<BackblazeStorage> storages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            BackblazeStorage material = new BackblazeStorage(BUCKET_NAME, new BackblazeApiWrapper(server.transport()),
+                    new CachingCredentialsManager());
+            material.setCredentials(ACCOUNT_ID, APPLICATION_KEY);
+            assertThat(material.authorize(), equalTo(true));
+            storages.add(material);
+        }
+        server.injectFaults("b2_list_file_names", 5, Fault.internalError());
+        server.setLatency(200);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(storages.size());
+        List<Future<String>> errors = new ArrayList<>();
+        try {
+            for (BackblazeStorage material : storages) {
+                errors.add(executor.submit(() -> {
+                    start.await();
+                    Optional<ListFileNamesResponse> listing = material.listFiles(null, PREFIX, null);
+                    return listing.isPresent() ? null : material.getLastErrorMessage();
+                }));
+            }
+            start.countDown();
+            for (Future<String> error : errors) {
+                assertThat(error.get(), equalTo("Failed to list file names: maximum number of retry attempts reached"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.fetch.executor;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.GZIPInputStream;
+
+// Unpacks gzip or zstd compressed tar archives straight from a download stream into the destination directory, so
+// the archive itself never touches the disk. Only regular files and directories are extracted; entries pointing
+// outside of the destination are rejected.
+class ArchiveExtractor {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static Boolean isArchive(String fileName) {
+        return isGzipped(fileName) || isZstdCompressed(fileName);
+    }
+
+    void extract(String fileName, InputStream content, Path targetDir) throws IOException {
+        Path root = targetDir.toAbsolutePath().normalize();
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(decompress(fileName, content))) {
+            for (TarArchiveEntry entry; (entry = tar.getNextTarEntry()) != null; ) {
+                Path path = root.resolve(entry.getName()).normalize();
+                if (!path.startsWith(root)) {
+                    throw new IOException("Archive entry outside of destination: " + entry.getName());
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(path);
+                } else if (entry.isFile()) {
+                    Files.createDirectories(path.getParent());
+                    Files.copy(tar, path, StandardCopyOption.REPLACE_EXISTING);
+                    Files.setLastModifiedTime(path, FileTime.fromMillis(entry.getModTime().getTime()));
+                }
+            }
+        }
+    }
+
+    private static InputStream decompress(String fileName, InputStream content) throws IOException {
+        if (isZstdCompressed(fileName)) {
+            return new ZstdCompressorInputStream(content);
+        }
+        if (isGzipped(fileName)) {
+            return new GZIPInputStream(content, BUFFER_SIZE);
+        }
+        throw new IOException("Unsupported archive: " + fileName);
+    }
+
+    private static Boolean isGzipped(String fileName) {
+        return fileName.endsWith(".tar.gz") || fileName.endsWith(".tgz");
+    }
+
+    private static Boolean isZstdCompressed(String fileName) {
+        return fileName.endsWith(".tar.zst") || fileName.endsWith(".tzst");
+    }
+}
@@ -14,15 +14,29 @@ import io.github.kszatan.gocd.b2.fetch.handlers.bodies.TaskContext;
 import io.github.kszatan.gocd.b2.utils.storage.*;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+import static io.github.kszatan.gocd.b2.utils.Constants.BUNDLE_SUFFIX;
+import static io.github.kszatan.gocd.b2.utils.Constants.MANIFEST_FILE_NAME;
 
 public class FetchTaskExecutor implements TaskExecutor, ProgressObserver {
     public JobConsoleLogger console = new JobConsoleLogger() {
     };
     private Logger logger = Logger.getLoggerFor(FetchTaskExecutor.class);
     private final Storage storage;
+    private final ArchiveExtractor extractor = new ArchiveExtractor();
 
     public FetchTaskExecutor(Storage storage) {
         this.storage = storage;
@@ -42,7 +56,11 @@ public class FetchTaskExecutor implements TaskExecutor, ProgressObserver {
                 try {
                     authorize(context, repositoryName, packageName);
                     String packagePrefix = getPackagePrefix(repositoryName, packageName, context);
-                    LinkedList<FileName> fileNames = fetchFileNames(packagePrefix);
+                    Map<String, Manifest.Entry> blobs = new HashMap<>();
+                    Optional<Manifest> manifest = Manifests.read(storage, packagePrefix);
+                    LinkedList<FileName> fileNames = manifest.isPresent()
+                            ? manifestFileNames(manifest.get(), blobs)
+                            : fetchFileNames(packagePrefix);
                     if (fileNames.isEmpty()) {
                         throw new StorageException("No files found under '" + packagePrefix + "' path.");
                     }
@@ -52,7 +70,15 @@ public class FetchTaskExecutor implements TaskExecutor, ProgressObserver {
                             context.getStageName(repositoryName, packageName),
                             context.getJobName(repositoryName, packageName),
                             context.getLabel(repositoryName, packageName)));
-                    downloadFiles(fileNames, destination, packagePrefix);
+                    storage.setSegmentedDownload(configuration.getSegmentedDownloadThresholdInBytes(),
+                            configuration.getDownloadSegmentsAsInteger());
+                    List<String> failures = downloadFiles(fileNames, destination, packagePrefix,
+                            configuration.getDownloadThreadsAsInteger(), configuration.isSegmentedDownloadEnabled(),
+                            name -> shouldExtract(configuration, name), blobs);
+                    if (!failures.isEmpty()) {
+                        response = ExecuteResponse.failure("Failed to download " + failures.size() + " file(s): "
+                                + StringUtils.join(failures, "; "));
+                    }
                     break;
                 } catch (UnauthorizedCallException e) {
                     notify(e.getMessage());
@@ -77,7 +103,7 @@ public class FetchTaskExecutor implements TaskExecutor, ProgressObserver {
         }
     }
 
-    private LinkedList<FileName> fetchFileNames(String prefix) throws StorageException {
+    LinkedList<FileName> fetchFileNames(String prefix) throws StorageException {
         LinkedList<FileName> fileNames = new LinkedList<>();
         String nextFileName = null;
         do {
@@ -88,22 +114,134 @@ public class FetchTaskExecutor implements TaskExecutor, ProgressObserver {
                         .stream()
                         .forEach(fn -> fn.fileName = fn.fileName.replaceFirst("^" + prefix, ""));
                 fileNames.addAll(response.fileNames);
+                fileNames.removeIf(fn -> fn.fileName.equals(MANIFEST_FILE_NAME));
                 nextFileName = response.nextFileName;
             }
         } while (nextFileName != null);
         return fileNames;
     }
 
-    private void downloadFiles(Queue<FileName> fileNames, Path destination, String packagePrefix) throws StorageException {
-        while (!fileNames.isEmpty()) {
-            FileName fileName = fileNames.peek();
-            storage.download(fileName.fileName, destination, packagePrefix);
-            fileNames.remove();
+    private List<String> downloadFiles(Queue<FileName> fileNames, Path destination, String packagePrefix,
+                                       Integer threads, Boolean segmented, Predicate<String> extract,
+                                       Map<String, Manifest.Entry> blobs) throws StorageException {
+        Queue<FileName> pending = new ConcurrentLinkedQueue<>(fileNames);
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<UnauthorizedCallException> unauthorizedException = new AtomicReference<>();
+        Runnable worker = () -> {
+            FileName fileName;
+            while (unauthorizedException.get() == null && (fileName = pending.poll()) != null) {
+                try {
+                    Boolean downloaded;
+                    Manifest.Entry blob = blobs.get(fileName.fileName);
+                    Path file = checkedPath(destination, fileName.fileName);
+                    if (extract.test(fileName.fileName)) {
+                        String archiveName = fileName.fileName;
+                        // Archives are extracted into the directory they were uploaded to; bundles hold paths
+                        // relative to it.
+                        Path archiveDir = file.getParent();
+                        downloaded = storage.downloadStream(blob == null ? archiveName : blob.blobName,
+                                blob == null ? packagePrefix : "",
+                                content -> extractor.extract(archiveName, content, archiveDir));
+                    } else if (blob != null) {
+                        downloaded = storage.downloadStream(blob.blobName, "",
+                                content -> copyVerified(content, file, blob.contentSha1));
+                    } else {
+                        downloaded = segmented
+                                ? storage.download(fileName.fileName, fileName.contentLength, destination,
+                                        packagePrefix)
+                                : storage.download(fileName.fileName, destination, packagePrefix);
+                    }
+                    if (!downloaded) {
+                        failures.add(fileName.fileName + ": " + storage.getLastErrorMessage());
+                    }
+                } catch (UnauthorizedCallException e) {
+                    unauthorizedException.compareAndSet(null, e);
+                } catch (StorageException | RuntimeException e) {
+                    failures.add(fileName.fileName + ": " + e.getMessage());
+                }
+            }
+        };
+        int workers = Math.min(threads, pending.size());
+        if (workers <= 1) {
+            worker.run();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < workers; i++) {
+                    futures.add(executor.submit(worker));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException("Download interrupted", e);
+            } catch (ExecutionException e) {
+                throw new StorageException("Download failed: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        if (unauthorizedException.get() != null) {
+            throw unauthorizedException.get();
         }
+        return failures;
+    }
+
+    // Files in the content-addressed layout are mapped to the blobs holding them.
+    private LinkedList<FileName> manifestFileNames(Manifest manifest, Map<String, Manifest.Entry> blobs) {
+        LinkedList<FileName> fileNames = new LinkedList<>();
+        for (Manifest.Entry entry : manifest.files) {
+            FileName fileName = new FileName();
+            fileName.fileName = entry.fileName;
+            fileName.contentLength = entry.contentLength;
+            fileName.contentSha1 = entry.contentSha1;
+            fileNames.add(fileName);
+            if (entry.blobName != null) {
+                blobs.put(entry.fileName, entry);
+            }
+        }
+        return fileNames;
+    }
+
+    // File names come from the bucket, either listed or read from a manifest, so like paths inside archives they're
+    // checked to stay within the destination before anything is downloaded.
+    private static Path checkedPath(Path destination, String fileName) throws StorageException {
+        Path root = destination.toAbsolutePath().normalize();
+        Path file = root.resolve(fileName).normalize();
+        if (!file.startsWith(root) || file.equals(root)) {
+            throw new StorageException("File outside of destination: " + fileName);
+        }
+        return file;
+    }
+
+    // Blobs are named after their SHA-1, so it's checked while they're written.
+    private static void copyVerified(InputStream content, Path file, String contentSha1) throws IOException {
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        Files.copy(new DigestInputStream(content, digest), file, StandardCopyOption.REPLACE_EXISTING);
+        String actualSha1 = Sha1FileHash.toHex(digest.digest());
+        if (!actualSha1.equalsIgnoreCase(contentSha1)) {
+            throw new IOException("SHA-1 mismatch, expected " + contentSha1 + " but got " + actualSha1);
+        }
+    }
+
+    private static Boolean shouldExtract(TaskConfiguration configuration, String fileName) {
+        return (configuration.isExtractBundles() && fileName.endsWith(BUNDLE_SUFFIX))
+                || (configuration.isExtractArchives() && ArchiveExtractor.isArchive(fileName));
     }
 
     @Override
-    public void notify(String notification) {
+    public synchronized void notify(String notification) {
         console.printLine(notification);
     }
 
@@ -21,6 +21,11 @@ public class ConfigurationDefinition {
     public Field repositoryName;
     public Field packageName;
     public Field destination;
+    public Field downloadThreads;
+    public Field segmentedDownloadThreshold;
+    public Field downloadSegments;
+    public Field extractBundles;
+    public Field extractArchives;
 
     public ConfigurationDefinition() {
         repositoryName = new Field();
@@ -37,5 +42,30 @@ public class ConfigurationDefinition {
         destination.defaultValue = "";
         destination.required = false;
         destination.secure = false;
+
+        downloadThreads = new Field();
+        downloadThreads.defaultValue = "1";
+        downloadThreads.required = false;
+        downloadThreads.secure = false;
+
+        segmentedDownloadThreshold = new Field();
+        segmentedDownloadThreshold.defaultValue = "";
+        segmentedDownloadThreshold.required = false;
+        segmentedDownloadThreshold.secure = false;
+
+        downloadSegments = new Field();
+        downloadSegments.defaultValue = "4";
+        downloadSegments.required = false;
+        downloadSegments.secure = false;
+
+        extractBundles = new Field();
+        extractBundles.defaultValue = "false";
+        extractBundles.required = false;
+        extractBundles.secure = false;
+
+        extractArchives = new Field();
+        extractArchives.defaultValue = "false";
+        extractArchives.required = false;
+        extractArchives.secure = false;
     }
 }
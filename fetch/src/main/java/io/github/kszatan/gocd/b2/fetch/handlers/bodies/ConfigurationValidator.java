@@ -7,6 +7,8 @@
 package io.github.kszatan.gocd.b2.fetch.handlers.bodies;
 
 public class ConfigurationValidator {
+    public static final Integer MAX_DOWNLOAD_THREADS = 16;
+
     public TaskConfigurationValidationResponse validate(TaskConfiguration configuration) {
         TaskConfigurationValidationResponse result = new TaskConfigurationValidationResponse();
         String repositoryName = configuration.getRepositoryName();
@@ -17,6 +19,38 @@ public class ConfigurationValidator {
         if (packageName == null || packageName.isEmpty()) {
             result.errors.put("packageName", "Missing package name");
         }
+        if (!validateThreadCount(configuration.getDownloadThreads())) {
+            result.errors.put("downloadThreads", "Number of threads must be between 1 and " + MAX_DOWNLOAD_THREADS);
+        }
+        if (!validateThreshold(configuration.getSegmentedDownloadThreshold())) {
+            result.errors.put("segmentedDownloadThreshold", "Threshold must be a positive number of megabytes");
+        }
+        if (!validateThreadCount(configuration.getDownloadSegments())) {
+            result.errors.put("downloadSegments", "Number of segments must be between 1 and " + MAX_DOWNLOAD_THREADS);
+        }
         return result;
     }
+
+    public Boolean validateThreadCount(String threads) {
+        if (threads == null || threads.trim().isEmpty()) {
+            return true;
+        }
+        try {
+            int value = Integer.parseInt(threads.trim());
+            return value >= 1 && value <= MAX_DOWNLOAD_THREADS;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public Boolean validateThreshold(String threshold) {
+        if (threshold == null || threshold.trim().isEmpty()) {
+            return true;
+        }
+        try {
+            return Integer.parseInt(threshold.trim()) > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
 }
@@ -6,24 +6,36 @@
 
 package io.github.kszatan.gocd.b2.fetch.handlers.bodies;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import io.github.kszatan.gocd.b2.utils.json.GsonService;
 import io.github.kszatan.gocd.b2.utils.json.IncompleteJson;
 import io.github.kszatan.gocd.b2.utils.json.InvalidJson;
+import io.github.kszatan.gocd.b2.utils.json.NullableValues;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 
+@JsonAdapter(ExecuteRequest.AdapterFactory.class)
 public class ExecuteRequest {
     private TaskConfiguration config;
     private TaskContext context;
 
     static public ExecuteRequest create(String json) throws InvalidJson, IncompleteJson {
-        Collection<String> missing = GsonService.validate(json,
+        JsonObject root = GsonService.parse(json);
+        Collection<String> missing = GsonService.validate(root,
                 Arrays.asList("config", "context"));
         if (!missing.isEmpty()) {
             throw new IncompleteJson("Missing fields: " + missing.toString());
         }
-        return GsonService.fromJson(json, ExecuteRequest.class);
+        return GsonService.fromJson(root, ExecuteRequest.class);
     }
 
     public TaskConfiguration getTaskConfiguration() {
@@ -31,4 +43,54 @@ public class ExecuteRequest {
     }
 
     public TaskContext getTaskContext() { return context; }
+
+    static class AdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (type.getRawType() != ExecuteRequest.class) {
+                return null;
+            }
+            TypeAdapter<TaskConfiguration> configAdapter = gson.getAdapter(TaskConfiguration.class);
+            TypeAdapter<TaskContext> contextAdapter = gson.getAdapter(TaskContext.class);
+            return (TypeAdapter<T>) new TypeAdapter<ExecuteRequest>() {
+                @Override
+                public void write(JsonWriter out, ExecuteRequest value) throws IOException {
+                    if (value == null) {
+                        out.nullValue();
+                        return;
+                    }
+                    out.beginObject();
+                    out.name("config");
+                    configAdapter.write(out, value.config);
+                    out.name("context");
+                    contextAdapter.write(out, value.context);
+                    out.endObject();
+                }
+
+                @Override
+                public ExecuteRequest read(JsonReader in) throws IOException {
+                    if (NullableValues.skipNull(in)) {
+                        return null;
+                    }
+                    ExecuteRequest value = new ExecuteRequest();
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        switch (in.nextName()) {
+                            case "config":
+                                value.config = configAdapter.read(in);
+                                break;
+                            case "context":
+                                value.context = contextAdapter.read(in);
+                                break;
+                            default:
+                                in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    return value;
+                }
+            };
+        }
+    }
 }
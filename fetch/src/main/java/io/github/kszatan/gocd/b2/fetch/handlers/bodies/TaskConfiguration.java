@@ -10,11 +10,21 @@ public class TaskConfiguration {
     private Entry repositoryName;
     private Entry packageName;
     private Entry destination;
+    private Entry downloadThreads;
+    private Entry segmentedDownloadThreshold;
+    private Entry downloadSegments;
+    private Entry extractBundles;
+    private Entry extractArchives;
 
     public TaskConfiguration() {
         repositoryName = new Entry();
         packageName = new Entry();
         destination = new Entry();
+        downloadThreads = new Entry();
+        segmentedDownloadThreshold = new Entry();
+        downloadSegments = new Entry();
+        extractBundles = new Entry();
+        extractArchives = new Entry();
     }
 
     public String getRepositoryName() { return repositoryName.value; }
@@ -27,6 +37,42 @@ public class TaskConfiguration {
         return destination.value;
     }
 
+    public String getDownloadThreads() {
+        return downloadThreads.value;
+    }
+
+    public Integer getDownloadThreadsAsInteger() {
+        return parseInteger(downloadThreads.value, 1);
+    }
+
+    public String getSegmentedDownloadThreshold() {
+        return segmentedDownloadThreshold.value;
+    }
+
+    public Long getSegmentedDownloadThresholdInBytes() {
+        return parseInteger(segmentedDownloadThreshold.value, 0) * 1024L * 1024L;
+    }
+
+    public Boolean isSegmentedDownloadEnabled() {
+        return getSegmentedDownloadThresholdInBytes() > 0 && getDownloadSegmentsAsInteger() > 1;
+    }
+
+    public String getDownloadSegments() {
+        return downloadSegments.value;
+    }
+
+    public Integer getDownloadSegmentsAsInteger() {
+        return parseInteger(downloadSegments.value, 4);
+    }
+
+    public Boolean isExtractBundles() {
+        return "true".equalsIgnoreCase(extractBundles.value);
+    }
+
+    public Boolean isExtractArchives() {
+        return "true".equalsIgnoreCase(extractArchives.value);
+    }
+
     public void setRepositoryName(String repositoryName) { this.repositoryName.value = repositoryName; }
 
     public void setPackageName(String packageName) {
@@ -36,4 +82,31 @@ public class TaskConfiguration {
     public void setDestination(String destination) {
         this.destination.value = destination;
     }
+
+    public void setDownloadThreads(String downloadThreads) {
+        this.downloadThreads.value = downloadThreads;
+    }
+
+    public void setSegmentedDownloadThreshold(String segmentedDownloadThreshold) {
+        this.segmentedDownloadThreshold.value = segmentedDownloadThreshold;
+    }
+
+    public void setDownloadSegments(String downloadSegments) {
+        this.downloadSegments.value = downloadSegments;
+    }
+
+    public void setExtractBundles(String extractBundles) {
+        this.extractBundles.value = extractBundles;
+    }
+
+    public void setExtractArchives(String extractArchives) {
+        this.extractArchives.value = extractArchives;
+    }
+
+    private Integer parseInteger(String value, Integer defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
 }
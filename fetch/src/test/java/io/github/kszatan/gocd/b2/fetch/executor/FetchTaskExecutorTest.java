@@ -10,25 +10,40 @@ import com.thoughtworks.go.plugin.api.task.JobConsoleLogger;
 import io.github.kszatan.gocd.b2.fetch.handlers.bodies.ExecuteResponse;
 import io.github.kszatan.gocd.b2.fetch.handlers.bodies.TaskConfiguration;
 import io.github.kszatan.gocd.b2.fetch.handlers.bodies.TaskContext;
-import io.github.kszatan.gocd.b2.utils.storage.FileName;
-import io.github.kszatan.gocd.b2.utils.storage.ListFileNamesResponse;
-import io.github.kszatan.gocd.b2.utils.storage.Storage;
-import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+import io.github.kszatan.gocd.b2.utils.json.GsonService;
+import io.github.kszatan.gocd.b2.utils.storage.*;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static io.github.kszatan.gocd.b2.utils.Constants.BLOB_PREFIX;
+import static io.github.kszatan.gocd.b2.utils.Constants.BUNDLE_SUFFIX;
+import static io.github.kszatan.gocd.b2.utils.Constants.MANIFEST_FILE_NAME;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 public class FetchTaskExecutorTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private Storage storage;
     private FetchTaskExecutor executor;
 
@@ -192,6 +207,7 @@ public class FetchTaskExecutorTest {
             return fileName;
         }).collect(Collectors.toList());
         doReturn(Optional.of(listFileNamesResponse)).when(storage).listFiles(any(), any(), any());
+        doReturn(true).when(storage).download(any(), any(), any());
         TaskConfiguration configuration = getDefaultTaskConfiguration();
         TaskContext context = getDefaultTaskContext();
         ExecuteResponse response = executor.execute(configuration, context);
@@ -202,4 +218,245 @@ public class FetchTaskExecutorTest {
         verify(storage).download("file3", destination, "up42/up42_stage/up42_job/63.1/");
         verify(storage).download("c/d/e/f/file4.txt", destination, "up42/up42_stage/up42_job/63.1/");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void executorShouldDownloadFilesConcurrentlyAndReportAllFailures() throws Exception {
+        doReturn(true).when(storage).authorize();
+        ListFileNamesResponse listFileNamesResponse = new ListFileNamesResponse();
+        List<String> fileNames = Arrays.asList("up42/up42_stage/up42_job/63.1/a/file1",
+                "up42/up42_stage/up42_job/63.1/b/file2",
+                "up42/up42_stage/up42_job/63.1/file3",
+                "up42/up42_stage/up42_job/63.1/c/d/e/f/file4.txt");
+        listFileNamesResponse.fileNames = fileNames.stream().map(name -> {
+            FileName fileName = new FileName();
+            fileName.fileName = name;
+            return fileName;
+        }).collect(Collectors.toList());
+        doReturn(Optional.of(listFileNamesResponse)).when(storage).listFiles(any(), any(), any());
+        Path destination = Paths.get("pipelines/pajplajn/path/to/dest").toAbsolutePath();
+        final String prefix = "up42/up42_stage/up42_job/63.1/";
+        doReturn(true).when(storage).download(any(), any(), any());
+        doThrow(new StorageException("Not found")).when(storage).download("b/file2", destination, prefix);
+        TaskConfiguration configuration = getDefaultTaskConfiguration();
+        configuration.setDownloadThreads("3");
+        TaskContext context = getDefaultTaskContext();
+        ExecuteResponse response = executor.execute(configuration, context);
+        assertThat(response.success, equalTo(false));
+        assertThat(response.message, equalTo("Failed to download 1 file(s): b/file2: Not found"));
+        verify(storage).download("a/file1", destination, prefix);
+        verify(storage).download("file3", destination, prefix);
+        verify(storage).download("c/d/e/f/file4.txt", destination, prefix);
+    }
+
+    @Test
+    public void executorShouldExtractBundlesWhileDownloading() throws Exception {
+        doReturn(true).when(storage).authorize();
+        ListFileNamesResponse listFileNamesResponse = new ListFileNamesResponse();
+        listFileNamesResponse.fileNames = Arrays.asList("up42/up42_stage/up42_job/63.1/a/bundle-1" + BUNDLE_SUFFIX,
+                "up42/up42_stage/up42_job/63.1/file3").stream().map(name -> {
+            FileName fileName = new FileName();
+            fileName.fileName = name;
+            return fileName;
+        }).collect(Collectors.toList());
+        doReturn(Optional.of(listFileNamesResponse)).when(storage).listFiles(any(), any(), any());
+        byte[] bundle = tarball(false, "b/file1", "content1", "file2", "content2");
+        doAnswer(invocation -> {
+            ((DownloadConsumer) invocation.getArguments()[2]).accept(new ByteArrayInputStream(bundle));
+            return true;
+        }).when(storage).downloadStream(eq("a/bundle-1" + BUNDLE_SUFFIX), eq("up42/up42_stage/up42_job/63.1/"),
+                any(DownloadConsumer.class));
+        doReturn(true).when(storage).download(anyString(), any(Path.class), anyString());
+        TaskConfiguration configuration = getDefaultTaskConfiguration();
+        configuration.setExtractBundles("true");
+        TaskContext context = getDefaultTaskContext();
+        context.workingDirectory = temporaryFolder.getRoot().toString();
+        ExecuteResponse response = executor.execute(configuration, context);
+        assertThat(response.success, equalTo(true));
+        Path destination = temporaryFolder.getRoot().toPath().resolve(DESTINATION).toAbsolutePath();
+        assertThat(new String(Files.readAllBytes(destination.resolve("a/b/file1")), StandardCharsets.UTF_8),
+                equalTo("content1"));
+        assertThat(new String(Files.readAllBytes(destination.resolve("a/file2")), StandardCharsets.UTF_8),
+                equalTo("content2"));
+        verify(storage).download("file3", destination, "up42/up42_stage/up42_job/63.1/");
+        verify(storage, never()).download(eq("a/bundle-1" + BUNDLE_SUFFIX), any(Path.class), anyString());
+    }
+
+    @Test
+    public void executorShouldExtractCompressedArchivesWhileDownloading() throws Exception {
+        doReturn(true).when(storage).authorize();
+        ListFileNamesResponse listFileNamesResponse = new ListFileNamesResponse();
+        listFileNamesResponse.fileNames = Arrays.asList("up42/up42_stage/up42_job/63.1/dist/app.tar.zst",
+                "up42/up42_stage/up42_job/63.1/docs.tgz", "up42/up42_stage/up42_job/63.1/notes.gz").stream()
+                .map(name -> {
+                    FileName fileName = new FileName();
+                    fileName.fileName = name;
+                    return fileName;
+                }).collect(Collectors.toList());
+        doReturn(Optional.of(listFileNamesResponse)).when(storage).listFiles(any(), any(), any());
+        Map<String, byte[]> archives = new HashMap<>();
+        archives.put("dist/app.tar.zst", tarball(true, "bin/app", "binary"));
+        archives.put("docs.tgz", tarball(false, "docs/index.html", "html"));
+        doAnswer(invocation -> {
+            byte[] archive = archives.get((String) invocation.getArguments()[0]);
+            if (archive == null) {
+                return false;
+            }
+            ((DownloadConsumer) invocation.getArguments()[2]).accept(new ByteArrayInputStream(archive));
+            return true;
+        }).when(storage).downloadStream(anyString(), anyString(), any(DownloadConsumer.class));
+        doReturn(true).when(storage).download(anyString(), any(Path.class), anyString());
+        TaskConfiguration configuration = getDefaultTaskConfiguration();
+        configuration.setExtractArchives("true");
+        configuration.setDownloadThreads("2");
+        TaskContext context = getDefaultTaskContext();
+        context.workingDirectory = temporaryFolder.getRoot().toString();
+        ExecuteResponse response = executor.execute(configuration, context);
+        assertThat(response.success, equalTo(true));
+        Path destination = temporaryFolder.getRoot().toPath().resolve(DESTINATION).toAbsolutePath();
+        assertThat(new String(Files.readAllBytes(destination.resolve("dist/bin/app")), StandardCharsets.UTF_8),
+                equalTo("binary"));
+        assertThat(new String(Files.readAllBytes(destination.resolve("docs/index.html")), StandardCharsets.UTF_8),
+                equalTo("html"));
+        assertThat(Files.exists(destination.resolve("dist/app.tar.zst")), equalTo(false));
+        verify(storage).download("notes.gz", destination, "up42/up42_stage/up42_job/63.1/");
+    }
+
+    @Test
+    public void contentAddressedRevisionShouldBeFetchedFromVerifiedBlobs() throws Exception {
+        doReturn(true).when(storage).authorize();
+        ListFileNamesResponse listFileNamesResponse = new ListFileNamesResponse();
+        FileName manifestFile = new FileName();
+        manifestFile.fileName = "up42/up42_stage/up42_job/63.1/" + MANIFEST_FILE_NAME;
+        listFileNamesResponse.fileNames = Collections.singletonList(manifestFile);
+        doReturn(Optional.of(listFileNamesResponse)).when(storage).listFiles(any(), any(), any());
+        Manifest manifest = new Manifest();
+        manifest.contentAddressed = true;
+        manifest.files.add(new Manifest.Entry("a/tool.bin", 4L, new Sha1FileHash().getHashValue(
+                "tool".getBytes(StandardCharsets.UTF_8), 4), BLOB_PREFIX + "1111/tool.bin"));
+        manifest.files.add(new Manifest.Entry("broken.txt", 4L, "0000000000000000000000000000000000000000",
+                BLOB_PREFIX + "0000/broken.txt"));
+        Map<String, String> objects = new HashMap<>();
+        objects.put("up42/up42_stage/up42_job/63.1/" + MANIFEST_FILE_NAME, GsonService.toJson(manifest));
+        objects.put(BLOB_PREFIX + "1111/tool.bin", "tool");
+        objects.put(BLOB_PREFIX + "0000/broken.txt", "oops");
+        doAnswer(invocation -> {
+            String name = (String) invocation.getArguments()[1] + invocation.getArguments()[0];
+            try {
+                ((DownloadConsumer) invocation.getArguments()[2]).accept(
+                        new ByteArrayInputStream(objects.get(name).getBytes(StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+            return true;
+        }).when(storage).downloadStream(anyString(), anyString(), any(DownloadConsumer.class));
+        TaskConfiguration configuration = getDefaultTaskConfiguration();
+        TaskContext context = getDefaultTaskContext();
+        context.workingDirectory = temporaryFolder.getRoot().toString();
+        ExecuteResponse response = executor.execute(configuration, context);
+        assertThat(response.success, equalTo(false));
+        assertThat(response.message, equalTo("Failed to download 1 file(s): broken.txt: SHA-1 mismatch, expected "
+                + "0000000000000000000000000000000000000000 but got " + new Sha1FileHash().getHashValue(
+                "oops".getBytes(StandardCharsets.UTF_8), 4)));
+        Path destination = temporaryFolder.getRoot().toPath().resolve(DESTINATION).toAbsolutePath();
+        assertThat(new String(Files.readAllBytes(destination.resolve("a/tool.bin")), StandardCharsets.UTF_8),
+                equalTo("tool"));
+        assertThat(Files.exists(destination.resolve(MANIFEST_FILE_NAME)), equalTo(false));
+        verify(storage, never()).download(anyString(), any(Path.class), anyString());
+    }
+
+    @Test
+    public void blobsOutsideOfDestinationShouldBeRejected() throws Exception {
+        doReturn(true).when(storage).authorize();
+        Manifest manifest = new Manifest();
+        manifest.contentAddressed = true;
+        manifest.files.add(new Manifest.Entry("../escaped", 4L, new Sha1FileHash().getHashValue(
+                "evil".getBytes(StandardCharsets.UTF_8), 4), BLOB_PREFIX + "1111/escaped"));
+        doAnswer(invocation -> {
+            ((DownloadConsumer) invocation.getArguments()[2]).accept(
+                    new ByteArrayInputStream(GsonService.toJson(manifest).getBytes(StandardCharsets.UTF_8)));
+            return true;
+        }).when(storage).downloadStream(eq(MANIFEST_FILE_NAME), eq("up42/up42_stage/up42_job/63.1/"),
+                any(DownloadConsumer.class));
+        TaskContext context = getDefaultTaskContext();
+        context.workingDirectory = temporaryFolder.getRoot().toString();
+        ExecuteResponse response = executor.execute(getDefaultTaskConfiguration(), context);
+        assertThat(response.success, equalTo(false));
+        assertThat(response.message, equalTo(
+                "Failed to download 1 file(s): ../escaped: File outside of destination: ../escaped"));
+        verify(storage, never()).downloadStream(eq(BLOB_PREFIX + "1111/escaped"), anyString(),
+                any(DownloadConsumer.class));
+    }
+
+    @Test
+    public void executorShouldTakeFileNamesFromManifestInsteadOfListing() throws Exception {
+        doReturn(true).when(storage).authorize();
+        Manifest manifest = new Manifest();
+        manifest.files.add(new Manifest.Entry("a/file1", 10L, null, null));
+        manifest.files.add(new Manifest.Entry("file2", 20L, null, null));
+        doAnswer(invocation -> {
+            ((DownloadConsumer) invocation.getArguments()[2]).accept(
+                    new ByteArrayInputStream(GsonService.toJson(manifest).getBytes(StandardCharsets.UTF_8)));
+            return true;
+        }).when(storage).downloadStream(eq(MANIFEST_FILE_NAME), eq("up42/up42_stage/up42_job/63.1/"),
+                any(DownloadConsumer.class));
+        doReturn(true).when(storage).download(anyString(), any(Path.class), anyString());
+        ExecuteResponse response = executor.execute(getDefaultTaskConfiguration(), getDefaultTaskContext());
+        assertThat(response.success, equalTo(true));
+        Path destination = Paths.get("pipelines/pajplajn/path/to/dest").toAbsolutePath();
+        verify(storage).download("a/file1", destination, "up42/up42_stage/up42_job/63.1/");
+        verify(storage).download("file2", destination, "up42/up42_stage/up42_job/63.1/");
+        verify(storage, never()).listFiles(any(), any(), any());
+    }
+
+    @Test
+    public void manifestEntriesOutsideOfDestinationShouldBeRejected() throws Exception {
+        doReturn(true).when(storage).authorize();
+        Manifest manifest = new Manifest();
+        manifest.files.add(new Manifest.Entry("../escaped", 4L, null, null));
+        manifest.files.add(new Manifest.Entry("../evil.tar.gz", 4L, null, null));
+        doAnswer(invocation -> {
+            ((DownloadConsumer) invocation.getArguments()[2]).accept(
+                    new ByteArrayInputStream(GsonService.toJson(manifest).getBytes(StandardCharsets.UTF_8)));
+            return true;
+        }).when(storage).downloadStream(eq(MANIFEST_FILE_NAME), eq("up42/up42_stage/up42_job/63.1/"),
+                any(DownloadConsumer.class));
+        TaskConfiguration configuration = getDefaultTaskConfiguration();
+        configuration.setExtractArchives("true");
+        ExecuteResponse response = executor.execute(configuration, getDefaultTaskContext());
+        assertThat(response.success, equalTo(false));
+        assertThat(response.message, equalTo("Failed to download 2 file(s): "
+                + "../escaped: File outside of destination: ../escaped; "
+                + "../evil.tar.gz: File outside of destination: ../evil.tar.gz"));
+        verify(storage, never()).download(anyString(), any(Path.class), anyString());
+        verify(storage, never()).downloadStream(eq("../evil.tar.gz"), anyString(), any(DownloadConsumer.class));
+    }
+
+    @Test
+    public void bundleEntriesOutsideOfDestinationShouldBeRejected() throws Exception {
+        Path destination = temporaryFolder.newFolder("dest").toPath();
+        try {
+            new ArchiveExtractor().extract("evil.tar.gz", new ByteArrayInputStream(tarball(false, "../escaped", "x")),
+                    destination);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), equalTo("Archive entry outside of destination: ../escaped"));
+        }
+        assertThat(Files.exists(destination.resolveSibling("escaped")), equalTo(false));
+    }
+
+    private static byte[] tarball(Boolean zstd, String... namesAndContents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream compressed = zstd ? new ZstdCompressorOutputStream(bytes) : new GZIPOutputStream(bytes);
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(compressed)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                byte[] content = namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8);
+                TarArchiveEntry entry = new TarArchiveEntry(namesAndContents[i]);
+                entry.setSize(content.length);
+                tar.putArchiveEntry(entry);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -40,4 +40,16 @@ public class ConfigurationValidatorTest {
         assertThat(errors.size(), equalTo(1));
         assertThat(errors.get("packageName"), equalTo("Missing package name"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void validateShouldReportInvalidDownloadThreads() throws Exception {
+        ConfigurationValidator validator = new ConfigurationValidator();
+        TaskConfiguration configuration = new TaskConfiguration();
+        configuration.setRepositoryName("repository");
+        configuration.setPackageName("package");
+        configuration.setDownloadThreads("0");
+        Map<String, String> errors = validator.validate(configuration).errors;
+        assertThat(errors.size(), equalTo(1));
+        assertThat(errors.get("downloadThreads"), equalTo("Number of threads must be between 1 and 16"));
+    }
+}
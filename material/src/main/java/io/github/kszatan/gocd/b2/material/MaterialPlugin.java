@@ -15,10 +15,12 @@ import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import io.github.kszatan.gocd.b2.material.handlers.DefaultRequestHandlerFactory;
+import io.github.kszatan.gocd.b2.material.handlers.PollScheduler;
 import io.github.kszatan.gocd.b2.material.handlers.RequestHandler;
 import io.github.kszatan.gocd.b2.material.handlers.RequestHandlerFactory;
 import io.github.kszatan.gocd.b2.utils.storage.BackblazeStorage;
 import io.github.kszatan.gocd.b2.utils.storage.CachingCredentialsManager;
+import io.github.kszatan.gocd.b2.utils.storage.api.BackblazeApiWrapper;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -34,8 +36,11 @@ public class MaterialPlugin extends AbstractGoPlugin {
 
     public MaterialPlugin() {
         try {
-            requestHandlerFactory = new DefaultRequestHandlerFactory(
-                    new BackblazeStorage(new CachingCredentialsManager()));
+            CachingCredentialsManager credentialsManager =
+                    new CachingCredentialsManager(new BackblazeApiWrapper()::authorize);
+            requestHandlerFactory = new DefaultRequestHandlerFactory(new BackblazeStorage(credentialsManager),
+                    new PollScheduler(() -> new BackblazeStorage(credentialsManager),
+                            PollScheduler.newExecutor(PollScheduler.DEFAULT_THREADS)));
         } catch (IOException e) {
             logger.error("Unable to create request handler: " + e.getMessage());
         }
@@ -13,8 +13,15 @@ import java.io.IOException;
 
 public class DefaultRequestHandlerFactory implements RequestHandlerFactory {
     private Storage storage;
+    private PollScheduler pollScheduler;
+
     public DefaultRequestHandlerFactory(Storage storage) {
+        this(storage, new PollScheduler(() -> storage, PollScheduler.newExecutor(PollScheduler.DEFAULT_THREADS)));
+    }
+
+    public DefaultRequestHandlerFactory(Storage storage, PollScheduler pollScheduler) {
         this.storage = storage;
+        this.pollScheduler = pollScheduler;
     }
 
     public RequestHandler create(String requestType) throws UnhandledRequestTypeException {
@@ -27,10 +34,10 @@ public class DefaultRequestHandlerFactory implements RequestHandlerFactory {
                 handler = new CheckRepositoryConnectionRequestHandler(storage);
                 break;
             case LATEST_REVISION:
-                handler = new LatestRevisionRequestHandler(storage);
+                handler = new LatestRevisionRequestHandler(pollScheduler);
                 break;
             case LATEST_REVISION_SINCE:
-                handler = new LatestRevisionSinceRequestHandler(storage);
+                handler = new LatestRevisionSinceRequestHandler(pollScheduler);
                 break;
             case PACKAGE_CONFIGURATION:
                 handler = new PackageConfigurationRequestHandler();
@@ -16,20 +16,21 @@ import io.github.kszatan.gocd.b2.utils.json.InvalidJson;
 import io.github.kszatan.gocd.b2.utils.storage.*;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Date;
 import java.util.Optional;
 
 public class LatestRevisionSinceRequestHandler implements RequestHandler {
-    private Storage storage;
+    private PollScheduler pollScheduler;
 
     public LatestRevisionSinceRequestHandler() throws IOException {
-        storage = new BackblazeStorage();
+        this(new BackblazeStorage());
     }
 
     public LatestRevisionSinceRequestHandler(Storage storage) {
-        this.storage = storage;
+        this(new PollScheduler(() -> storage));
+    }
+
+    public LatestRevisionSinceRequestHandler(PollScheduler pollScheduler) {
+        this.pollScheduler = pollScheduler;
     }
 
     @Override
@@ -38,19 +39,13 @@ public class LatestRevisionSinceRequestHandler implements RequestHandler {
         try {
             LatestRevisionSinceRequest latestRevisionSinceRequest =
                     new LatestRevisionSinceRequest(request.requestBody());
-            RepositoryConfiguration repositoryConfiguration = latestRevisionSinceRequest.getRepositoryConfiguration();
-            storage.setCredentials(repositoryConfiguration.getAccountId(), repositoryConfiguration.getApplicationKey());
-            storage.setBucketName(repositoryConfiguration.getBucketName());
-            Optional<LatestRevisionSinceResponse> maybeLatestRevision;
-            if (!storage.authorize()) {
-                throw new StorageException(storage.getLastErrorMessage());
-            } else {
-                PackageConfiguration packageConfiguration = latestRevisionSinceRequest.getPackageConfiguration();
-                Revision revision = latestRevisionSinceRequest.getPreviousRevision();
-                maybeLatestRevision = fetchLatestPackageSince(packageConfiguration, revision);
-            }
-            if (maybeLatestRevision.isPresent()) {
-                response = DefaultGoPluginApiResponse.success(GsonService.toJson(maybeLatestRevision.get()));
+            Optional<LatestRevisionResponse> maybeLatestRevision = pollScheduler.latestRevision(
+                    latestRevisionSinceRequest.getRepositoryConfiguration(),
+                    latestRevisionSinceRequest.getPackageConfiguration());
+            Optional<LatestRevisionSinceResponse> maybeLatestRevisionSince = newerThan(maybeLatestRevision,
+                    latestRevisionSinceRequest.getPreviousRevision());
+            if (maybeLatestRevisionSince.isPresent()) {
+                response = DefaultGoPluginApiResponse.success(GsonService.toJson(maybeLatestRevisionSince.get()));
             } else {
                 response = DefaultGoPluginApiResponse.success("{}");
             }
@@ -62,68 +57,21 @@ public class LatestRevisionSinceRequestHandler implements RequestHandler {
         return response;
     }
 
-    private Optional<LatestRevisionSinceResponse> fetchLatestPackageSince(PackageConfiguration packageConfiguration,
-                                                                Revision revision) throws StorageException {
-        final String prefix = packageConfiguration.getPipelineName() + "/" +
-                packageConfiguration.getStageName() + "/" +
-                packageConfiguration.getJobName() + "/";
-        Optional<ListFileNamesResponse> maybeResponse = storage.listFiles(null, prefix, "/");
-        Optional<LatestRevisionSinceResponse> maybeLatestRevision = Optional.empty();
-        if (maybeResponse.isPresent()) {
-            ListFileNamesResponse response = maybeResponse.get();
-            Optional<FileName> maybeFirstPackage = response.fileNames.stream()
-                    .filter(fname -> isFileNameRevisionGreater(fname.fileName, revision.revision))
-                    .sorted((f1, f2) -> fileNameRevisionComparator(f2, f1))
-                    .findFirst();
-            if (maybeFirstPackage.isPresent()) {
-                FileName firstPackage = maybeFirstPackage.get();
-                LatestRevisionSinceResponse latestRevisionSince = new LatestRevisionSinceResponse();
-                Path lastRevisionPath = Paths.get(firstPackage.fileName);
-                latestRevisionSince.revision = lastRevisionPath.getName(lastRevisionPath.getNameCount() - 1).toString();
-                latestRevisionSince.timestamp = getUploadedTime(prefix + latestRevisionSince.revision);
-                latestRevisionSince.data = new RevisionData(packageConfiguration.getPipelineName(),
-                        packageConfiguration.getStageName(),
-                        packageConfiguration.getJobName(),
-                        latestRevisionSince.revision);
-                maybeLatestRevision = Optional.of(latestRevisionSince);
-            }
+    private Optional<LatestRevisionSinceResponse> newerThan(Optional<LatestRevisionResponse> maybeLatestRevision,
+                                                            Revision revision) {
+        if (!maybeLatestRevision.isPresent()) {
+            return Optional.empty();
         }
-        return maybeLatestRevision;
-    }
-
-    private Date getUploadedTime(String path) throws StorageException {
-        Date uploadedTime = new Date();
-        Optional<ListFileNamesResponse> maybeResponse = storage.listFiles(null, path, "*");
-        if (maybeResponse.isPresent()) {
-            ListFileNamesResponse response = maybeResponse.get();
-            Optional<FileName> maybeFileName = response.fileNames.stream()
-                    .sorted((f1, f2) -> f2.uploadTimestamp.compareTo(f1.uploadTimestamp))
-                    .findFirst();
-            if (maybeFileName.isPresent()) {
-                uploadedTime.setTime(maybeFileName.get().uploadTimestamp);
-            }
-        } else {
-            uploadedTime.setTime(0);
+        LatestRevisionResponse latestRevision = maybeLatestRevision.get();
+        Optional<RevisionKey> latest = RevisionKey.parse(latestRevision.revision);
+        Optional<RevisionKey> previous = RevisionKey.parse(revision.revision);
+        if (latest.isPresent() && previous.isPresent() && latest.get().compareTo(previous.get()) <= 0) {
+            return Optional.empty();
         }
-        return uploadedTime;
-    }
-
-    private Boolean isFileNameRevisionGreater(String fileName, String revision) {
-        Path path = Paths.get(fileName);
-        String fnameRevision = path.getName(path.getNameCount() - 1).toString();
-        return Float.parseFloat(fnameRevision) > Float.parseFloat(revision);
-    }
-    
-    static private int fileNameRevisionComparator(FileName f1, FileName f2) {
-        Path path = Paths.get(f1.fileName);
-        String f1Revision = path.getName(path.getNameCount() - 1).toString();
-        path = Paths.get(f2.fileName);
-        String f2Revision = path.getName(path.getNameCount() - 1).toString();
-        float result = Float.parseFloat(f1Revision) - Float.parseFloat(f2Revision);
-        if (result > 0)
-            return 1;
-        else if (result < 0)
-            return -1;
-        return 0;
+        LatestRevisionSinceResponse latestRevisionSince = new LatestRevisionSinceResponse();
+        latestRevisionSince.revision = latestRevision.revision;
+        latestRevisionSince.timestamp = latestRevision.timestamp;
+        latestRevisionSince.data = latestRevision.data;
+        return Optional.of(latestRevisionSince);
     }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.material.handlers;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import io.github.kszatan.gocd.b2.material.handlers.bodies.LatestRevisionResponse;
+import io.github.kszatan.gocd.b2.material.handlers.bodies.PackageConfiguration;
+import io.github.kszatan.gocd.b2.material.handlers.bodies.RepositoryConfiguration;
+import io.github.kszatan.gocd.b2.material.handlers.bodies.RevisionData;
+import io.github.kszatan.gocd.b2.utils.storage.Storage;
+import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+
+// Keeps the latest revision of every package GoCD polls for and refreshes it in the background, so that poll requests
+// are answered from memory instead of waiting on B2. Only the first request for a package is fetched synchronously.
+// Refreshes run on a bounded pool, each package once per interval give or take a tenth of it, so packages that became
+// known together don't hit B2 together. A request arriving while its package is being fetched joins that fetch.
+// Packages nobody asked about for ten intervals are dropped. After three refreshes in a row fail the last known revision
+// is dropped too, so that the next request fetches it again and reports the error instead of a stale answer.
+public class PollScheduler {
+    public static final long DEFAULT_INTERVAL_MILLIS = 60 * 1000L;
+    public static final int DEFAULT_THREADS = 4;
+    private static final int IDLE_INTERVALS = 10;
+    private static final int MAX_FAILED_REFRESHES = 3;
+
+    // Each fetch gets its own storage, since a storage holds the credentials and bucket it was last set up for.
+    @FunctionalInterface
+    public interface StorageFactory {
+        Storage create() throws IOException;
+    }
+
+    private final Logger logger = Logger.getLoggerFor(PollScheduler.class);
+    private final Map<List<String>, Poll> polls = new ConcurrentHashMap<>();
+    private final RevisionIndex revisionIndex = new RevisionIndex();
+    private final StorageFactory storageFactory;
+    private final ScheduledExecutorService executor;
+    private final long intervalMillis;
+    private final LongSupplier clock;
+
+    // Without an executor every request is fetched synchronously.
+    public PollScheduler(StorageFactory storageFactory) {
+        this(storageFactory, null, DEFAULT_INTERVAL_MILLIS, System::currentTimeMillis);
+    }
+
+    public PollScheduler(StorageFactory storageFactory, ScheduledExecutorService executor) {
+        this(storageFactory, executor, DEFAULT_INTERVAL_MILLIS, System::currentTimeMillis);
+    }
+
+    public PollScheduler(StorageFactory storageFactory, ScheduledExecutorService executor, long intervalMillis,
+                         LongSupplier clock) {
+        this.storageFactory = storageFactory;
+        this.executor = executor;
+        this.intervalMillis = intervalMillis;
+        this.clock = clock;
+    }
+
+    public static ScheduledExecutorService newExecutor(int threads) {
+        return Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "b2-material-poll");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Optional<LatestRevisionResponse> latestRevision(RepositoryConfiguration repositoryConfiguration,
+                                                           PackageConfiguration packageConfiguration)
+            throws StorageException {
+        List<String> key = Arrays.asList(repositoryConfiguration.getAccountId(),
+                repositoryConfiguration.getApplicationKey(), repositoryConfiguration.getBucketName(),
+                prefix(packageConfiguration));
+        Poll poll = polls.get(key);
+        if (poll == null) {
+            Poll created = new Poll(key);
+            poll = polls.putIfAbsent(key, created);
+            if (poll == null) {
+                poll = created;
+                schedule(poll);
+            }
+        }
+        poll.repositoryConfiguration = repositoryConfiguration;
+        poll.packageConfiguration = packageConfiguration;
+        poll.askedAt = clock.getAsLong();
+        Optional<LatestRevisionResponse> latest = poll.latest;
+        if (executor != null && latest != null) {
+            return latest;
+        }
+        try {
+            return poll.refresh().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof StorageException) {
+                throw (StorageException) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private void schedule(Poll poll) {
+        if (executor == null) {
+            return;
+        }
+        long jitter = intervalMillis / 10;
+        long delay = intervalMillis + (jitter > 0 ? ThreadLocalRandom.current().nextLong(-jitter, jitter + 1) : 0);
+        try {
+            executor.schedule(poll, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            polls.remove(poll.key, poll);
+        }
+    }
+
+    private Optional<LatestRevisionResponse> fetch(RepositoryConfiguration repositoryConfiguration,
+                                                   PackageConfiguration packageConfiguration)
+            throws StorageException {
+        String bucketName = repositoryConfiguration.getBucketName();
+        Storage storage;
+        try {
+            storage = storageFactory.create();
+        } catch (IOException e) {
+            throw new StorageException("Unable to create storage: " + e.getMessage(), e);
+        }
+        storage.setCredentials(repositoryConfiguration.getAccountId(), repositoryConfiguration.getApplicationKey());
+        storage.setBucketName(bucketName);
+        if (!storage.authorize()) {
+            throw new StorageException(storage.getLastErrorMessage());
+        }
+        String prefix = prefix(packageConfiguration);
+        Optional<String> maybeRevision = revisionIndex.latestRevision(storage, bucketName, prefix);
+        if (!maybeRevision.isPresent()) {
+            return Optional.empty();
+        }
+        LatestRevisionResponse latestRevision = new LatestRevisionResponse();
+        latestRevision.revision = maybeRevision.get();
+        latestRevision.timestamp = revisionIndex.uploadedTime(storage, bucketName, prefix, latestRevision.revision);
+        latestRevision.data = new RevisionData(packageConfiguration.getPipelineName(),
+                packageConfiguration.getStageName(),
+                packageConfiguration.getJobName(),
+                latestRevision.revision);
+        return Optional.of(latestRevision);
+    }
+
+    private static String prefix(PackageConfiguration packageConfiguration) {
+        return packageConfiguration.getPipelineName() + "/" +
+                packageConfiguration.getStageName() + "/" +
+                packageConfiguration.getJobName() + "/";
+    }
+
+    private class Poll implements Runnable {
+        final List<String> key;
+        volatile RepositoryConfiguration repositoryConfiguration;
+        volatile PackageConfiguration packageConfiguration;
+        volatile long askedAt;
+        // Null until the first successful fetch.
+        volatile Optional<LatestRevisionResponse> latest;
+        private CompletableFuture<Optional<LatestRevisionResponse>> inFlight;
+
+        // Only touched by the thread running the refresh.
+        private int failedRefreshes;
+
+        Poll(List<String> key) {
+            this.key = key;
+        }
+
+        CompletableFuture<Optional<LatestRevisionResponse>> refresh() {
+            CompletableFuture<Optional<LatestRevisionResponse>> future;
+            synchronized (this) {
+                if (inFlight != null) {
+                    return inFlight;
+                }
+                future = inFlight = new CompletableFuture<>();
+            }
+            try {
+                latest = fetch(repositoryConfiguration, packageConfiguration);
+                failedRefreshes = 0;
+                future.complete(latest);
+            } catch (StorageException | RuntimeException e) {
+                if (++failedRefreshes >= MAX_FAILED_REFRESHES) {
+                    latest = null;
+                }
+                future.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    inFlight = null;
+                }
+            }
+            return future;
+        }
+
+        @Override
+        public void run() {
+            if (clock.getAsLong() - askedAt >= IDLE_INTERVALS * intervalMillis) {
+                if (polls.remove(key, this)) {
+                    revisionIndex.forget(repositoryConfiguration.getBucketName(), prefix(packageConfiguration));
+                }
+                return;
+            }
+            try {
+                refresh().join();
+            } catch (CompletionException e) {
+                logger.warn("Background poll of '" + repositoryConfiguration.getBucketName() + "/"
+                        + prefix(packageConfiguration) + "' failed: " + e.getCause().getMessage());
+            }
+            schedule(this);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.material.handlers;
+
+import io.github.kszatan.gocd.b2.utils.storage.*;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+// Remembers the latest revision of every polled package, so that a poll lists only the revision folders that sort
+// after it instead of all of them. B2 lists names in lexical order, in which revisions with the same number of digits
+// in the pipeline counter follow each other numerically, with only a few shorter labels in between. A new revision
+// therefore either sorts right after the latest one, or, when the counter gained a digit, right after "10...0".
+// Both places are listed until a page brings nothing new. Entries are rebuilt from a full listing once they are
+// older than the TTL, which also drops revisions deleted in the meantime. Packages no longer polled are forgotten, and
+// only the most recently used maxEntries packages are kept in any case.
+public class RevisionIndex {
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000L;
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final Map<String, PackageEntry> entries;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    private static class PackageEntry {
+        long listedAt;
+        RevisionKey latest;
+        String timestampRevision;
+        Date timestamp;
+    }
+
+    public RevisionIndex() {
+        this(DEFAULT_TTL_MILLIS, System::currentTimeMillis);
+    }
+
+    public RevisionIndex(long ttlMillis, LongSupplier clock) {
+        this(ttlMillis, DEFAULT_MAX_ENTRIES, clock);
+    }
+
+    public RevisionIndex(long ttlMillis, int maxEntries, LongSupplier clock) {
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<String, PackageEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PackageEntry> eldest) {
+                return size() > maxEntries;
+            }
+        });
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    // Storage has to be authorized for the bucket already. The prefix is "pipeline/stage/job/".
+    public Optional<String> latestRevision(Storage storage, String bucketName, String prefix)
+            throws StorageException {
+        PackageEntry entry = entry(bucketName, prefix);
+        synchronized (entry) {
+            long now = clock.getAsLong();
+            RevisionScanner scanner = new RevisionScanner(storage, prefix);
+            if (entry.latest == null || now - entry.listedAt >= ttlMillis) {
+                entry.latest = scanner.max(null, null, false);
+                entry.listedAt = now;
+            } else {
+                String counter = entry.latest.pipelineCounter();
+                entry.latest = scanner.max(prefix + counter, entry.latest, true);
+                entry.latest = scanner.max(prefix + "1" + counter.replaceAll(".", "0"), entry.latest, true);
+            }
+            return Optional.ofNullable(entry.latest).map(key -> key.label);
+        }
+    }
+
+    // Upload time of a revision doesn't change, so it's only read again when the latest revision does.
+    public Date uploadedTime(Storage storage, String bucketName, String prefix, String revision)
+            throws StorageException {
+        PackageEntry entry = entry(bucketName, prefix);
+        synchronized (entry) {
+            if (!revision.equals(entry.timestampRevision)) {
+                entry.timestamp = readUploadedTime(storage, prefix + revision + "/");
+                entry.timestampRevision = revision;
+            }
+            return new Date(entry.timestamp.getTime());
+        }
+    }
+
+    public void forget(String bucketName, String prefix) {
+        entries.remove(bucketName + "/" + prefix);
+    }
+
+    private PackageEntry entry(String bucketName, String prefix) {
+        return entries.computeIfAbsent(bucketName + "/" + prefix, key -> new PackageEntry());
+    }
+
+    // Takes the upload time from the revision's manifest, and lists the revision only if it doesn't have one. The
+    // folder ends with the delimiter, so that listing "57.1/" doesn't pick up "57.10/".
+    private static Date readUploadedTime(Storage storage, String folder) throws StorageException {
+        Date uploadedTime = new Date();
+        Optional<Manifest> manifest = Manifests.read(storage, folder);
+        if (manifest.isPresent() && manifest.get().uploadTimestamp != null) {
+            uploadedTime.setTime(manifest.get().uploadTimestamp);
+            return uploadedTime;
+        }
+        Optional<ListFileNamesResponse> maybeResponse = storage.listFiles(null, folder, "*");
+        if (maybeResponse.isPresent()) {
+            ListFileNamesResponse response = maybeResponse.get();
+            Optional<FileName> maybeFileName = response.fileNames.stream()
+                    .filter(f -> f.uploadTimestamp != null)
+                    .sorted((f1, f2) -> f2.uploadTimestamp.compareTo(f1.uploadTimestamp))
+                    .findFirst();
+            if (maybeFileName.isPresent()) {
+                uploadedTime.setTime(maybeFileName.get().uploadTimestamp);
+            }
+        } else {
+            uploadedTime.setTime(0);
+        }
+        return uploadedTime;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.material.handlers;
+
+import java.util.Optional;
+
+// Revision label like "57.2" parsed once into its counters, which are compared one by one, so that "57.10" comes
+// after "57.9" and "100.1" after "99.1".
+final class RevisionKey implements Comparable<RevisionKey> {
+    final String label;
+    private final long[] counters;
+
+    private RevisionKey(String label, long[] counters) {
+        this.label = label;
+        this.counters = counters;
+    }
+
+    static Optional<RevisionKey> parse(String label) {
+        String[] parts = label.split("\\.", -1);
+        long[] counters = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].isEmpty() || parts[i].length() > 18 || !parts[i].chars().allMatch(Character::isDigit)) {
+                return Optional.empty();
+            }
+            counters[i] = Long.parseLong(parts[i]);
+        }
+        return Optional.of(new RevisionKey(label, counters));
+    }
+
+    // Folders are listed as "pipeline/stage/job/57.2/".
+    static Optional<RevisionKey> fromFolder(String folderName) {
+        String name = folderName.endsWith("/") ? folderName.substring(0, folderName.length() - 1) : folderName;
+        return parse(name.substring(name.lastIndexOf('/') + 1));
+    }
+
+    // Pipeline counter as it appears in the label.
+    String pipelineCounter() {
+        int dot = label.indexOf('.');
+        return dot < 0 ? label : label.substring(0, dot);
+    }
+
+    @Override
+    public int compareTo(RevisionKey other) {
+        for (int i = 0; i < Math.min(counters.length, other.counters.length); i++) {
+            int result = Long.compare(counters[i], other.counters[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(counters.length, other.counters.length);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.material.handlers;
+
+import io.github.kszatan.gocd.b2.utils.storage.FileName;
+import io.github.kszatan.gocd.b2.utils.storage.ListFileNamesResponse;
+import io.github.kszatan.gocd.b2.utils.storage.Storage;
+import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+
+import java.util.Optional;
+
+// Finds the largest revision under a job prefix by going through the folder listing one page at a time and keeping
+// only the running maximum, so memory use doesn't depend on the number of revisions. In lexical order a longer
+// pipeline counter sorts before a shorter one ("100.1" < "99.1"), so the listing can't be cut short while it's still
+// in names starting with a digit; it stops as soon as it gets past them.
+class RevisionScanner {
+    private final Storage storage;
+    private final String prefix;
+
+    RevisionScanner(Storage storage, String prefix) {
+        this.storage = storage;
+        this.prefix = prefix;
+    }
+
+    // Returns the largest revision listed from startFileName on, or latest if none is larger. With untilNothingNew
+    // set, pages are only read until one brings nothing larger than the maximum so far.
+    RevisionKey max(String startFileName, RevisionKey latest, Boolean untilNothingNew) throws StorageException {
+        String nextFileName = startFileName;
+        do {
+            Optional<ListFileNamesResponse> maybeResponse = storage.listFiles(nextFileName, prefix, "/");
+            if (!maybeResponse.isPresent()) {
+                break;
+            }
+            Boolean foundLarger = false;
+            for (FileName fileName : maybeResponse.get().fileNames) {
+                Optional<RevisionKey> key = RevisionKey.fromFolder(fileName.fileName);
+                if (key.isPresent() && (latest == null || key.get().compareTo(latest) > 0)) {
+                    latest = key.get();
+                    foundLarger = true;
+                }
+            }
+            nextFileName = maybeResponse.get().nextFileName;
+            if ((untilNothingNew && !foundLarger) || pastRevisions(nextFileName)) {
+                break;
+            }
+        } while (nextFileName != null);
+        return latest;
+    }
+
+    // Revision labels start with a digit, so nothing listed after a name that sorts past "9" can be one.
+    private Boolean pastRevisions(String fileName) {
+        return fileName != null && fileName.startsWith(prefix) && fileName.length() > prefix.length()
+                && fileName.charAt(prefix.length()) > '9';
+    }
+}
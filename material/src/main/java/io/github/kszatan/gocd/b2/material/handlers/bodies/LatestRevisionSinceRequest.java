@@ -6,6 +6,7 @@
 
 package io.github.kszatan.gocd.b2.material.handlers.bodies;
 
+import com.google.gson.JsonObject;
 import io.github.kszatan.gocd.b2.utils.json.GsonService;
 import io.github.kszatan.gocd.b2.utils.json.IncompleteJson;
 import io.github.kszatan.gocd.b2.utils.json.InvalidJson;
@@ -21,15 +22,16 @@ public class LatestRevisionSinceRequest {
     private final Revision previousRevision;
 
     public LatestRevisionSinceRequest(final String json) throws InvalidJson, IncompleteJson {
-        ValidatePackageConfigurationRequest validator = new ValidatePackageConfigurationRequest(json);
+        JsonObject root = GsonService.parse(json);
+        ValidatePackageConfigurationRequest validator = new ValidatePackageConfigurationRequest(root);
         repositoryConfiguration = validator.getRepositoryConfiguration();
         packageConfiguration = validator.getPackageConfiguration();
-        Collection<String> missing = GsonService.validate(json,
+        Collection<String> missing = GsonService.validate(root,
                 Arrays.asList("previous-revision"));
         if (!missing.isEmpty()) {
             throw new IncompleteJson("Missing fields: " + missing.toString());
         }
-        String configurationJson = GsonService.getField(json, "previous-revision");
+        JsonObject configurationJson = GsonService.getObject(root, "previous-revision");
         missing.addAll(GsonService.validate(configurationJson,
                 Arrays.asList("revision", "timestamp")));
         if (!missing.isEmpty()) {
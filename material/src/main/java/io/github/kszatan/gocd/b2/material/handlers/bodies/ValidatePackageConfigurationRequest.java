@@ -6,6 +6,7 @@
 
 package io.github.kszatan.gocd.b2.material.handlers.bodies;
 
+import com.google.gson.JsonObject;
 import io.github.kszatan.gocd.b2.utils.json.GsonService;
 import io.github.kszatan.gocd.b2.utils.json.IncompleteJson;
 import io.github.kszatan.gocd.b2.utils.json.InvalidJson;
@@ -18,14 +19,18 @@ public class ValidatePackageConfigurationRequest {
     private final RepositoryConfiguration repositoryConfiguration;
 
     public ValidatePackageConfigurationRequest(final String json) throws InvalidJson, IncompleteJson {
-        ValidateRepositoryConfigurationRequest validateRepository = new ValidateRepositoryConfigurationRequest(json);
+        this(GsonService.parse(json));
+    }
+
+    public ValidatePackageConfigurationRequest(final JsonObject root) throws InvalidJson, IncompleteJson {
+        ValidateRepositoryConfigurationRequest validateRepository = new ValidateRepositoryConfigurationRequest(root);
         repositoryConfiguration = validateRepository.getConfiguration();
-        Collection<String> missing = GsonService.validate(json,
+        Collection<String> missing = GsonService.validate(root,
                 Arrays.asList("package-configuration"));
         if (!missing.isEmpty()) {
             throw new IncompleteJson("Missing fields: " + missing.toString());
         }
-        String configurationJson = GsonService.getField(json, "package-configuration");
+        JsonObject configurationJson = GsonService.getObject(root, "package-configuration");
         missing.addAll(GsonService.validate(configurationJson,
                 Arrays.asList("pipelineName", "stageName", "jobName")));
         if (!missing.isEmpty()) {
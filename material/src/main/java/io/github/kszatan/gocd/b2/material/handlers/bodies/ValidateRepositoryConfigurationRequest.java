@@ -6,6 +6,7 @@
 
 package io.github.kszatan.gocd.b2.material.handlers.bodies;
 
+import com.google.gson.JsonObject;
 import io.github.kszatan.gocd.b2.utils.json.GsonService;
 import io.github.kszatan.gocd.b2.utils.json.IncompleteJson;
 import io.github.kszatan.gocd.b2.utils.json.InvalidJson;
@@ -16,12 +17,16 @@ public class ValidateRepositoryConfigurationRequest {
     private final RepositoryConfiguration configuration;
 
     public ValidateRepositoryConfigurationRequest(final String json) throws InvalidJson, IncompleteJson {
-        Collection<String> missing = GsonService.validate(json,
+        this(GsonService.parse(json));
+    }
+
+    public ValidateRepositoryConfigurationRequest(final JsonObject root) throws InvalidJson, IncompleteJson {
+        Collection<String> missing = GsonService.validate(root,
                 Arrays.asList("repository-configuration"));
         if (!missing.isEmpty()) {
             throw new IncompleteJson("Missing fields: " + missing.toString());
         }
-        String configurationJson = GsonService.getField(json, "repository-configuration");
+        JsonObject configurationJson = GsonService.getObject(root, "repository-configuration");
         missing.addAll(GsonService.validate(configurationJson,
                 Arrays.asList("bucketName", "accountId", "applicationKey")));
         if (!missing.isEmpty()) {
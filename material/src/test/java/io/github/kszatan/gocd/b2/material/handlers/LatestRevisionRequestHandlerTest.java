@@ -11,24 +11,21 @@ import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import io.github.kszatan.gocd.b2.material.handlers.bodies.StatusMessagesResponse;
 import io.github.kszatan.gocd.b2.utils.json.GsonService;
-import io.github.kszatan.gocd.b2.utils.storage.FileName;
-import io.github.kszatan.gocd.b2.utils.storage.ListBucketsResponse;
-import io.github.kszatan.gocd.b2.utils.storage.ListFileNamesResponse;
-import io.github.kszatan.gocd.b2.utils.storage.Storage;
+import io.github.kszatan.gocd.b2.utils.storage.*;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.util.Arrays;
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.stream.Collectors;
 
+import static io.github.kszatan.gocd.b2.utils.Constants.MANIFEST_FILE_NAME;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
-import static org.mockito.Mockito.doReturn;
-import static org.mockito.Mockito.mock;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
 
 public class LatestRevisionRequestHandlerTest {
     static private final String defaultRequestJson = "{\n" +
@@ -152,4 +149,31 @@ public class LatestRevisionRequestHandlerTest {
         assertThat(response.responseCode(), equalTo(DefaultGoPluginApiResponse.SUCCESS_RESPONSE_CODE));
         assertThat(response.responseBody(), equalTo("{\"revision\":\"57.2\",\"timestamp\":" + timestampString + ",\"data\":{\"pipelineName\":\"up42\",\"stageName\":\"up42_stage\",\"jobName\":\"up42_job\",\"label\":\"57.2\"}}"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void handleShouldTakeUploadTimeFromManifestInsteadOfListingRevision() throws Exception {
+        request.setRequestBody(defaultRequestJson);
+        doReturn(true).when(storage).authorize();
+        ListFileNamesResponse folders = new ListFileNamesResponse();
+        FileName folder = new FileName();
+        folder.fileName = "up42/up42_stage/up42_job/3.1/";
+        folders.fileNames = Collections.singletonList(folder);
+        doReturn(Optional.of(folders)).when(storage).listFiles(any(), any(), any());
+        Manifest manifest = new Manifest();
+        manifest.uploadTimestamp = 1525540976000L;
+        doAnswer(invocation -> {
+            ((DownloadConsumer) invocation.getArguments()[2]).accept(
+                    new ByteArrayInputStream(GsonService.toJson(manifest).getBytes(StandardCharsets.UTF_8)));
+            return true;
+        }).when(storage).downloadStream(eq(MANIFEST_FILE_NAME), eq("up42/up42_stage/up42_job/3.1/"),
+                any(DownloadConsumer.class));
+        GoPluginApiResponse response = handler.handle(request);
+        Date timestamp = new Date();
+        timestamp.setTime(1525540976000L);
+        assertThat(response.responseCode(), equalTo(DefaultGoPluginApiResponse.SUCCESS_RESPONSE_CODE));
+        assertThat(response.responseBody(), equalTo("{\"revision\":\"3.1\",\"timestamp\":"
+                + GsonService.toJson(timestamp) + ",\"data\":{\"pipelineName\":\"up42\",\"stageName\":\"up42_stage\","
+                + "\"jobName\":\"up42_job\",\"label\":\"3.1\"}}"));
+        verify(storage, times(1)).listFiles(any(), any(), any());
+    }
+}
@@ -26,8 +26,8 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
-import static org.mockito.Mockito.doReturn;
-import static org.mockito.Mockito.mock;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
 
 public class LatestRevisionSinceRequestHandlerTest {
     static private final String defaultRequestJson = "{\n" +
@@ -181,4 +181,33 @@ public class LatestRevisionSinceRequestHandlerTest {
         assertThat(response.responseCode(), equalTo(DefaultGoPluginApiResponse.SUCCESS_RESPONSE_CODE));
         assertThat(response.responseBody(), equalTo("{}"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void handleShouldFindLatestRevisionOnAnyPageOfListing() throws Exception {
+        request.setRequestBody(defaultRequestJson);
+        doReturn(true).when(storage).authorize();
+        ListFileNamesResponse firstPage = folders("up42/up42_stage/up42_job/100.1/", "up42/up42_stage/up42_job/24.1/");
+        firstPage.nextFileName = "up42/up42_stage/up42_job/5.1/";
+        ListFileNamesResponse secondPage = folders("up42/up42_stage/up42_job/5.1/", "up42/up42_stage/up42_job/99.1/");
+        secondPage.nextFileName = "up42/up42_stage/up42_job/latest/";
+        doReturn(Optional.of(firstPage)).when(storage).listFiles(null, "up42/up42_stage/up42_job/", "/");
+        doReturn(Optional.of(secondPage))
+                .when(storage).listFiles("up42/up42_stage/up42_job/5.1/", "up42/up42_stage/up42_job/", "/");
+        doReturn(Optional.of(new ListFileNamesResponse()))
+                .when(storage).listFiles(null, "up42/up42_stage/up42_job/100.1/", "*");
+        GoPluginApiResponse response = handler.handle(request);
+        assertThat(response.responseCode(), equalTo(DefaultGoPluginApiResponse.SUCCESS_RESPONSE_CODE));
+        assertThat(GsonService.parse(response.responseBody()).get("revision").getAsString(), equalTo("100.1"));
+        verify(storage, never()).listFiles(eq("up42/up42_stage/up42_job/latest/"), any(), any());
+    }
+
+    private static ListFileNamesResponse folders(String... names) {
+        ListFileNamesResponse response = new ListFileNamesResponse();
+        response.fileNames = Arrays.stream(names).map(name -> {
+            FileName fileName = new FileName();
+            fileName.fileName = name;
+            return fileName;
+        }).collect(Collectors.toList());
+        return response;
+    }
+}
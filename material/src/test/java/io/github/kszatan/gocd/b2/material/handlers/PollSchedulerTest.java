@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.material.handlers;
+
+import io.github.kszatan.gocd.b2.material.handlers.bodies.LatestRevisionResponse;
+import io.github.kszatan.gocd.b2.material.handlers.bodies.PackageConfiguration;
+import io.github.kszatan.gocd.b2.material.handlers.bodies.RepositoryConfiguration;
+import io.github.kszatan.gocd.b2.utils.json.GsonService;
+import io.github.kszatan.gocd.b2.utils.storage.FileName;
+import io.github.kszatan.gocd.b2.utils.storage.ListFileNamesResponse;
+import io.github.kszatan.gocd.b2.utils.storage.Storage;
+import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class PollSchedulerTest {
+    private static final String PREFIX = "up42/up42_stage/up42_job/";
+
+    private final RepositoryConfiguration repositoryConfiguration = GsonService.fromJson("{" +
+            "\"bucketName\": {\"value\": \"bukhet\"}," +
+            "\"accountId\": {\"value\": \"donald\"}," +
+            "\"applicationKey\": {\"value\": \"caca85ed4e7a3404db0b08bb8256d00d84e247e46\"}}",
+            RepositoryConfiguration.class);
+    private final PackageConfiguration packageConfiguration = GsonService.fromJson("{" +
+            "\"pipelineName\": {\"value\": \"up42\"}," +
+            "\"stageName\": {\"value\": \"up42_stage\"}," +
+            "\"jobName\": {\"value\": \"up42_job\"}}",
+            PackageConfiguration.class);
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private Storage storage;
+    private ScheduledExecutorService executor;
+    private AtomicLong now;
+    private PollScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        storage = mock(Storage.class);
+        executor = mock(ScheduledExecutorService.class);
+        now = new AtomicLong(1000);
+        scheduler = new PollScheduler(() -> storage, executor, 60000, now::get);
+        doReturn(true).when(storage).authorize();
+        doReturn(Optional.empty()).when(storage).listFiles(any(), any(), eq("*"));
+        doReturn(folders("57.1")).when(storage).listFiles(any(), eq(PREFIX), eq("/"));
+    }
+
+    @Test
+    public void latestRevisionShouldAnswerKnownPackageFromMemory() throws Exception {
+        assertThat(latestRevision(), equalTo("57.1"));
+        assertThat(latestRevision(), equalTo("57.1"));
+        verify(storage, times(1)).authorize();
+    }
+
+    @Test
+    public void backgroundRefreshShouldPickUpNewRevisionAndScheduleNextOne() throws Exception {
+        latestRevision();
+        ArgumentCaptor<Runnable> poll = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(poll.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        doReturn(folders("57.1", "58.1")).when(storage).listFiles(any(), eq(PREFIX), eq("/"));
+        poll.getValue().run();
+        assertThat(latestRevision(), equalTo("58.1"));
+        verify(executor, times(2)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void refreshShouldBeScheduledWithinTenthOfIntervalFromIt() throws Exception {
+        latestRevision();
+        ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+        verify(executor).schedule(any(Runnable.class), delay.capture(), eq(TimeUnit.MILLISECONDS));
+        assertTrue(delay.getValue() >= 54000 && delay.getValue() <= 66000);
+    }
+
+    @Test
+    public void failedBackgroundRefreshShouldKeepLastKnownRevision() throws Exception {
+        latestRevision();
+        ArgumentCaptor<Runnable> poll = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(poll.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        doReturn(false).when(storage).authorize();
+        poll.getValue().run();
+        assertThat(latestRevision(), equalTo("57.1"));
+        verify(executor, times(2)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void repeatedlyFailingRefreshShouldMakeNextRequestReportError() throws Exception {
+        latestRevision();
+        ArgumentCaptor<Runnable> poll = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(poll.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        doReturn(false).when(storage).authorize();
+        doReturn("Unauthorized").when(storage).getLastErrorMessage();
+        for (int i = 0; i < 3; i++) {
+            poll.getValue().run();
+        }
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("Unauthorized");
+        latestRevision();
+    }
+
+    @Test
+    public void packageShouldBePolledSeparatelyForEveryApplicationKey() throws Exception {
+        RepositoryConfiguration otherKey = GsonService.fromJson("{" +
+                "\"bucketName\": {\"value\": \"bukhet\"}," +
+                "\"accountId\": {\"value\": \"donald\"}," +
+                "\"applicationKey\": {\"value\": \"revoked\"}}",
+                RepositoryConfiguration.class);
+        latestRevision();
+        doReturn(false).when(storage).authorize();
+        thrown.expect(StorageException.class);
+        scheduler.latestRevision(otherKey, packageConfiguration);
+    }
+
+    @Test
+    public void idlePackageShouldBeDroppedAndFetchedAgainWhenAskedFor() throws Exception {
+        latestRevision();
+        ArgumentCaptor<Runnable> poll = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(poll.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        now.addAndGet(10 * 60000);
+        poll.getValue().run();
+        verify(storage, times(1)).authorize();
+        latestRevision();
+        verify(storage, times(2)).authorize();
+        verify(storage, times(2)).listFiles(null, PREFIX, "/");
+        verify(executor, times(2)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void concurrentRequestsForColdPackageShouldShareOneFetch() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            fetching.countDown();
+            release.await();
+            return true;
+        }).when(storage).authorize();
+        ExecutorService requests = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = requests.submit(this::latestRevision);
+            fetching.await();
+            Thread[] second = new Thread[1];
+            Future<String> joined = requests.submit(() -> {
+                second[0] = Thread.currentThread();
+                return latestRevision();
+            });
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((second[0] == null || second[0].getState() != Thread.State.WAITING)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            assertThat(first.get(), equalTo("57.1"));
+            assertThat(joined.get(), equalTo("57.1"));
+        } finally {
+            requests.shutdownNow();
+        }
+        verify(storage, times(1)).authorize();
+    }
+
+    @Test
+    public void slowFetchShouldNotHoldUpOtherPackagesOfSameRepository() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Storage slowStorage = mock(Storage.class);
+        doAnswer(invocation -> {
+            fetching.countDown();
+            release.await();
+            return true;
+        }).when(slowStorage).authorize();
+        doReturn(folders("57.1")).when(slowStorage).listFiles(any(), eq(PREFIX), eq("/"));
+        doReturn(Optional.empty()).when(slowStorage).listFiles(any(), any(), eq("*"));
+        Storage[] storages = {slowStorage, storage};
+        AtomicInteger created = new AtomicInteger();
+        scheduler = new PollScheduler(() -> storages[created.getAndIncrement()], executor, 60000, now::get);
+        PackageConfiguration otherPackage = GsonService.fromJson("{" +
+                "\"pipelineName\": {\"value\": \"up42\"}," +
+                "\"stageName\": {\"value\": \"up42_stage\"}," +
+                "\"jobName\": {\"value\": \"other_job\"}}",
+                PackageConfiguration.class);
+        doReturn(foldersIn("up42/up42_stage/other_job/", "3.1")).when(storage)
+                .listFiles(any(), eq("up42/up42_stage/other_job/"), eq("/"));
+        ExecutorService requests = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> slow = requests.submit(this::latestRevision);
+            fetching.await();
+            Optional<LatestRevisionResponse> other = scheduler.latestRevision(repositoryConfiguration, otherPackage);
+            assertThat(other.map(response -> response.revision).orElse(null), equalTo("3.1"));
+            release.countDown();
+            assertThat(slow.get(), equalTo("57.1"));
+        } finally {
+            release.countDown();
+            requests.shutdownNow();
+        }
+    }
+
+    @Test
+    public void withoutExecutorEveryRequestShouldBeFetched() throws Exception {
+        scheduler = new PollScheduler(() -> storage);
+        latestRevision();
+        latestRevision();
+        verify(storage, times(2)).authorize();
+    }
+
+    private String latestRevision() throws Exception {
+        Optional<LatestRevisionResponse> latest = scheduler.latestRevision(repositoryConfiguration,
+                packageConfiguration);
+        return latest.map(response -> response.revision).orElse(null);
+    }
+
+    private static Optional<ListFileNamesResponse> folders(String... revisions) {
+        return foldersIn(PREFIX, revisions);
+    }
+
+    private static Optional<ListFileNamesResponse> foldersIn(String prefix, String... revisions) {
+        ListFileNamesResponse response = new ListFileNamesResponse();
+        response.fileNames = Arrays.stream(revisions).map(revision -> {
+            FileName fileName = new FileName();
+            fileName.fileName = prefix + revision + "/";
+            return fileName;
+        }).collect(Collectors.toList());
+        return Optional.of(response);
+    }
+}
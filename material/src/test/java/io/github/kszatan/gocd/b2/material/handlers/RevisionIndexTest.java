@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.material.handlers;
+
+import io.github.kszatan.gocd.b2.utils.storage.FileName;
+import io.github.kszatan.gocd.b2.utils.storage.ListFileNamesResponse;
+import io.github.kszatan.gocd.b2.utils.storage.Storage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class RevisionIndexTest {
+    private static final String PREFIX = "up42/up42_stage/up42_job/";
+
+    private Storage storage;
+    private AtomicLong now;
+    private RevisionIndex index;
+
+    @Before
+    public void setUp() {
+        storage = mock(Storage.class);
+        now = new AtomicLong(1000);
+        index = new RevisionIndex(60000, now::get);
+    }
+
+    @Test
+    public void latestRevisionShouldCompareCountersNumerically() throws Exception {
+        doReturn(folders("57.9", "57.10", "9.1")).when(storage).listFiles(null, PREFIX, "/");
+        assertThat(index.latestRevision(storage, "bukhet", PREFIX), equalTo(Optional.of("57.10")));
+    }
+
+    @Test
+    public void latestRevisionShouldListOnlyNamesAfterLatestRevisionUntilTtlExpires() throws Exception {
+        doReturn(folders("9.1", "57.1", "8.1")).when(storage).listFiles(null, PREFIX, "/");
+        doReturn(folders("57.1", "58.1", "6.1")).when(storage).listFiles(PREFIX + "57", PREFIX, "/");
+        doReturn(folders("11.1")).when(storage).listFiles(PREFIX + "100", PREFIX, "/");
+        assertThat(index.latestRevision(storage, "bukhet", PREFIX), equalTo(Optional.of("57.1")));
+        assertThat(index.latestRevision(storage, "bukhet", PREFIX), equalTo(Optional.of("58.1")));
+        verify(storage, times(1)).listFiles(null, PREFIX, "/");
+
+        now.addAndGet(60000);
+        assertThat(index.latestRevision(storage, "bukhet", PREFIX), equalTo(Optional.of("57.1")));
+        verify(storage, times(2)).listFiles(null, PREFIX, "/");
+    }
+
+    @Test
+    public void latestRevisionShouldFindPipelineCounterWithMoreDigits() throws Exception {
+        doReturn(folders("98.1", "99.1")).when(storage).listFiles(null, PREFIX, "/");
+        doReturn(folders("99.1")).when(storage).listFiles(PREFIX + "99", PREFIX, "/");
+        doReturn(folders("100.1", "101.1", "11.1")).when(storage).listFiles(PREFIX + "100", PREFIX, "/");
+        index.latestRevision(storage, "bukhet", PREFIX);
+        assertThat(index.latestRevision(storage, "bukhet", PREFIX), equalTo(Optional.of("101.1")));
+    }
+
+    @Test
+    public void latestRevisionShouldSkipNamesThatAreNotRevisions() throws Exception {
+        doReturn(folders("3.1", "notes.txt", "latest")).when(storage).listFiles(null, PREFIX, "/");
+        assertThat(index.latestRevision(storage, "bukhet", PREFIX), equalTo(Optional.of("3.1")));
+    }
+
+    @Test
+    public void uploadedTimeShouldBeReadOncePerRevision() throws Exception {
+        ListFileNamesResponse files = new ListFileNamesResponse();
+        FileName file = new FileName();
+        file.fileName = PREFIX + "3.1/file";
+        file.uploadTimestamp = 1525540976000L;
+        files.fileNames = Arrays.asList(file);
+        doReturn(Optional.of(files)).when(storage).listFiles(null, PREFIX + "3.1/", "*");
+        assertThat(index.uploadedTime(storage, "bukhet", PREFIX, "3.1"), equalTo(new Date(1525540976000L)));
+        assertThat(index.uploadedTime(storage, "bukhet", PREFIX, "3.1"), equalTo(new Date(1525540976000L)));
+        verify(storage, times(1)).listFiles(any(), any(), any());
+    }
+
+    @Test
+    public void forgottenPackageShouldBeListedInFull() throws Exception {
+        doReturn(folders("57.1")).when(storage).listFiles(any(), eq(PREFIX), eq("/"));
+        index.latestRevision(storage, "bukhet", PREFIX);
+        index.forget("bukhet", PREFIX);
+        index.latestRevision(storage, "bukhet", PREFIX);
+        verify(storage, times(2)).listFiles(null, PREFIX, "/");
+    }
+
+    @Test
+    public void leastRecentlyUsedPackageShouldBeDroppedBeyondMaxEntries() throws Exception {
+        index = new RevisionIndex(60000, 1, now::get);
+        doReturn(folders("57.1")).when(storage).listFiles(any(), any(), eq("/"));
+        index.latestRevision(storage, "bukhet", PREFIX);
+        index.latestRevision(storage, "bukhet", "other/");
+        index.latestRevision(storage, "bukhet", PREFIX);
+        verify(storage, times(2)).listFiles(null, PREFIX, "/");
+    }
+
+    private static Optional<ListFileNamesResponse> folders(String... revisions) {
+        ListFileNamesResponse response = new ListFileNamesResponse();
+        response.fileNames = Arrays.stream(revisions).map(revision -> {
+            FileName fileName = new FileName();
+            fileName.fileName = PREFIX + revision + (revision.contains("txt") ? "" : "/");
+            return fileName;
+        }).collect(Collectors.toList());
+        return Optional.of(response);
+    }
+}
@@ -8,4 +8,6 @@ package io.github.kszatan.gocd.b2.publish;
 
 public class Constants {
     public static final String GO_ARTIFACTS_B2_BUCKET = "GO_ARTIFACTS_B2_BUCKET";
+    // Relative to the agent's working directory, shared by all jobs run by the agent.
+    public static final String HASH_INDEX_FILE = ".gocd-b2-hash-index";
 }
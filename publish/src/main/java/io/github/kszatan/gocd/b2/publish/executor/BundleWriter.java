@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.publish.executor;
+
+import io.github.kszatan.gocd.b2.publish.handlers.bodies.SourceDestination;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+import static io.github.kszatan.gocd.b2.utils.Constants.BUNDLE_SUFFIX;
+
+// Packs files into gzipped tar archives, so that lots of small files can be uploaded with a few requests. Files going
+// to the same destination share a bundle until it holds maxBundleSize bytes of content, then a new one is started.
+// Entries are relative to the destination, so the bundles can be extracted where the files would otherwise be.
+class BundleWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path workDir;
+    private final Path bundleDir;
+    private final long maxBundleSize;
+    private int bundleCount = 0;
+
+    BundleWriter(Path workDir, Path bundleDir, long maxBundleSize) {
+        this.workDir = workDir;
+        this.bundleDir = bundleDir;
+        this.maxBundleSize = maxBundleSize;
+    }
+
+    // Returns bundles as paths relative to bundleDir with the destinations they should be uploaded to.
+    List<SourceDestination> write(List<SourceDestination> files) throws IOException {
+        Map<String, List<SourceDestination>> byDestination = new LinkedHashMap<>();
+        for (SourceDestination sd : files) {
+            byDestination.computeIfAbsent(sd.destination, d -> new ArrayList<>()).add(sd);
+        }
+        List<SourceDestination> bundles = new ArrayList<>();
+        for (Map.Entry<String, List<SourceDestination>> destination : byDestination.entrySet()) {
+            Iterator<SourceDestination> pending = destination.getValue().iterator();
+            while (pending.hasNext()) {
+                String bundleName = "bundle-" + (++bundleCount) + BUNDLE_SUFFIX;
+                writeBundle(bundleDir.resolve(bundleName), pending);
+                bundles.add(new SourceDestination(bundleName, destination.getKey()));
+            }
+        }
+        return bundles;
+    }
+
+    private void writeBundle(Path bundle, Iterator<SourceDestination> pending) throws IOException {
+        long contentSize = 0;
+        try (OutputStream os = new GZIPOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(bundle), BUFFER_SIZE), BUFFER_SIZE);
+             TarArchiveOutputStream tar = new TarArchiveOutputStream(os)) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            while (pending.hasNext() && contentSize < maxBundleSize) {
+                SourceDestination sd = pending.next();
+                Path file = workDir.resolve(sd.source);
+                TarArchiveEntry entry = new TarArchiveEntry(file.toFile(), FilenameUtils.separatorsToUnix(sd.source));
+                tar.putArchiveEntry(entry);
+                Files.copy(file, tar);
+                tar.closeArchiveEntry();
+                contentSize += entry.getSize();
+            }
+            tar.finish();
+        }
+    }
+}
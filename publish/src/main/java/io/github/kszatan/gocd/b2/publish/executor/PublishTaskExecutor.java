@@ -9,39 +9,55 @@ package io.github.kszatan.gocd.b2.publish.executor;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.task.JobConsoleLogger;
 import io.github.kszatan.gocd.b2.publish.handlers.bodies.*;
-import io.github.kszatan.gocd.b2.utils.storage.ProgressObserver;
-import io.github.kszatan.gocd.b2.utils.storage.Storage;
-import io.github.kszatan.gocd.b2.utils.storage.StorageException;
-import io.github.kszatan.gocd.b2.utils.storage.UnauthorizedCallException;
+import io.github.kszatan.gocd.b2.utils.json.GsonService;
+import io.github.kszatan.gocd.b2.utils.storage.*;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static io.github.kszatan.gocd.b2.publish.Constants.GO_ARTIFACTS_B2_BUCKET;
+import static io.github.kszatan.gocd.b2.utils.Constants.BLOB_PREFIX;
+import static io.github.kszatan.gocd.b2.utils.Constants.MANIFEST_FILE_NAME;
 
 public class PublishTaskExecutor implements TaskExecutor, ProgressObserver {
+    // Content of a single bundle is capped, so that bundles can be uploaded in parallel and a failed one is cheap
+    // to send again.
+    static final long MAX_BUNDLE_SIZE = 512L * 1024 * 1024;
+
     public JobConsoleLogger console = new JobConsoleLogger() {
     };
     private Logger logger = Logger.getLoggerFor(PublishTaskExecutor.class);
     private final Storage storage;
     private final DirectoryScanner scanner;
+    private final FileHash fileHash;
 
     public PublishTaskExecutor(Storage storage, DirectoryScanner scanner) {
+        this(storage, scanner, new Sha1FileHash());
+    }
+
+    public PublishTaskExecutor(Storage storage, DirectoryScanner scanner, FileHash fileHash) {
         this.storage = storage;
         this.scanner = scanner;
+        this.fileHash = fileHash;
         storage.addProgressObserver(this);
     }
 
     @Override
     public ExecuteResponse execute(TaskConfiguration configuration, TaskContext context) {
         ExecuteResponse response = ExecuteResponse.success("Success");
+        Path bundleDir = null;
         try {
             List<String> errors = validateContext(context);
             if (!errors.isEmpty()) {
@@ -52,18 +68,62 @@ public class PublishTaskExecutor implements TaskExecutor, ProgressObserver {
                         scanSources(configuration.getSourceDestinationsAsList(), context.workingDirectory,
                                 destinationPrefix);
                 Path absoluteWorkDir = Paths.get(context.workingDirectory).toAbsolutePath();
+                Queue<SourceDestination> bundleQueue = new LinkedList<>();
+                long bundleThreshold = configuration.getBundleThresholdInBytes();
+                if (bundleThreshold > 0) {
+                    List<SourceDestination> smallFiles =
+                            takeSmallFiles(scannedSourcesQueue, absoluteWorkDir, bundleThreshold);
+                    if (!smallFiles.isEmpty()) {
+                        bundleDir = Files.createTempDirectory("gocd-b2-bundles");
+                        bundleQueue.addAll(new BundleWriter(absoluteWorkDir, bundleDir, MAX_BUNDLE_SIZE)
+                                .write(smallFiles));
+                        notify("Bundled " + smallFiles.size() + " small file(s) into " + bundleQueue.size()
+                                + " archive(s).");
+                    }
+                }
                 final int maxAttempts = 5;
                 int nthTry = 0;
                 storage.setCredentials(context.getAccountId(), context.getApplicationKey());
+                storage.setPartUploadThreads(configuration.getPartUploadThreadsAsInteger());
+                storage.setPartsHashedAhead(configuration.getPartsHashedAheadAsInteger());
+                storage.setSinglePassUpload(configuration.isSinglePassUpload());
+                storage.setResumableUpload(configuration.isResumableUpload());
+                List<String> failures = Collections.synchronizedList(new ArrayList<>());
+                AtomicInteger skipped = new AtomicInteger();
+                Map<String, FileName> remoteFiles = null;
+                Manifest manifest = null;
+                if (configuration.isWriteManifest() || configuration.isContentAddressed()) {
+                    manifest = new Manifest();
+                    manifest.contentAddressed = configuration.isContentAddressed();
+                }
+                // Files are hashed before upload when the hash is needed anyway, which also spares hashing them
+                // again while they're uploaded. Otherwise single-pass upload hashes small files as they're sent.
+                boolean hashFiles = configuration.isIncrementalUpload() || manifest != null;
+                Map<String, String> blobs = new ConcurrentHashMap<>();
+                AtomicInteger reused = new AtomicInteger();
+                boolean manifestUploaded = false;
                 while (true) {
                     try {
                         if (!storage.authorize()) {
                             return ExecuteResponse.failure("Failed to authorize: " + storage.getLastErrorMessage());
                         }
-                        while (!scannedSourcesQueue.isEmpty()) {
-                            SourceDestination sd = scannedSourcesQueue.peek();
-                            storage.upload(absoluteWorkDir, Paths.get(sd.source), sd.destination);
-                            scannedSourcesQueue.remove();
+                        if (configuration.isContentAddressed()) {
+                            uploadBlobs(scannedSourcesQueue, absoluteWorkDir,
+                                    configuration.getFileUploadThreadsAsInteger(), destinationPrefix, blobs, manifest,
+                                    reused, failures);
+                        } else {
+                            if (configuration.isIncrementalUpload() && remoteFiles == null) {
+                                remoteFiles = listRemoteFiles(destinationPrefix);
+                            }
+                            uploadFiles(scannedSourcesQueue, absoluteWorkDir,
+                                    configuration.getFileUploadThreadsAsInteger(), remoteFiles, hashFiles, manifest,
+                                    destinationPrefix, skipped, failures);
+                        }
+                        uploadFiles(bundleQueue, bundleDir, configuration.getFileUploadThreadsAsInteger(),
+                                null, hashFiles, manifest, destinationPrefix, skipped, failures);
+                        if (manifest != null && failures.isEmpty() && !manifestUploaded) {
+                            uploadManifest(manifest, destinationPrefix);
+                            manifestUploaded = true;
                         }
                         break;
                     } catch (UnauthorizedCallException e) {
@@ -74,18 +134,264 @@ public class PublishTaskExecutor implements TaskExecutor, ProgressObserver {
                         }
                     }
                 }
+                if (skipped.get() > 0) {
+                    notify("Skipped " + skipped.get() + " unchanged file(s).");
+                }
+                if (reused.get() > 0) {
+                    notify("Reused " + reused.get() + " file(s) already stored in the bucket.");
+                }
+                if (!failures.isEmpty()) {
+                    response = ExecuteResponse.failure("Failed to upload " + failures.size() + " file(s): "
+                            + StringUtils.join(failures, "; "));
+                }
             }
-        } catch (GeneralSecurityException | StorageException | RuntimeException e) {
+        } catch (IOException e) {
+            response = ExecuteResponse.failure("Failed to bundle files: " + e.getMessage());
+        } catch (StorageException | RuntimeException e) {
             response = ExecuteResponse.failure(e.getMessage());
+        } finally {
+            deleteTempDir(bundleDir);
         }
         return response;
     }
 
     @Override
-    public void notify(String notification) {
+    public synchronized void notify(String notification) {
         console.printLine(notification);
     }
 
+    // remoteFiles is null unless uploading incrementally, in which case files already stored with the same
+    // length and SHA-1 are skipped. Uploaded and skipped files are added to manifest unless it's null.
+    private void uploadFiles(Queue<SourceDestination> queue, Path absoluteWorkDir, Integer threads,
+                             Map<String, FileName> remoteFiles, boolean hashFiles, Manifest manifest,
+                             String destinationPrefix, AtomicInteger skipped, List<String> failures)
+            throws StorageException {
+        forEachFile(queue, threads, failures, sd -> {
+            if (remoteFiles == null && manifest == null) {
+                storage.upload(absoluteWorkDir, Paths.get(sd.source), sd.destination);
+                return;
+            }
+            Path file = absoluteWorkDir.resolve(sd.source);
+            long size = Files.size(file);
+            String contentSha1 = hashFiles ? fileHash.getHashValue(file) : null;
+            if (remoteFiles != null && isUnchanged(remoteFiles.get(backblazeFileName(sd)), size, contentSha1)) {
+                skipped.incrementAndGet();
+            } else {
+                storage.upload(absoluteWorkDir, Paths.get(sd.source), sd.destination, contentSha1);
+            }
+            addToManifest(manifest, new Manifest.Entry(relativeName(sd, destinationPrefix), size, contentSha1,
+                    null));
+        });
+    }
+
+    // Stores files as <sha1>/<name> under BLOB_PREFIX unless a blob with the same SHA-1 is already there, and adds
+    // them to the manifest. blobs maps SHA-1 to blob names known to be stored, so that identical files are looked
+    // up once.
+    private void uploadBlobs(Queue<SourceDestination> queue, Path absoluteWorkDir, Integer threads,
+                             String destinationPrefix, Map<String, String> blobs, Manifest manifest,
+                             AtomicInteger reused, List<String> failures) throws StorageException {
+        forEachFile(queue, threads, failures, sd -> {
+            Path file = absoluteWorkDir.resolve(sd.source);
+            String contentSha1 = fileHash.getHashValue(file);
+            String blobName = blobs.get(contentSha1);
+            if (blobName == null) {
+                blobName = findBlob(contentSha1);
+            }
+            if (blobName == null) {
+                String blobDir = BLOB_PREFIX + contentSha1;
+                storage.upload(file.getParent(), file.getFileName(), blobDir, contentSha1);
+                blobName = blobDir + "/" + file.getFileName();
+            } else {
+                reused.incrementAndGet();
+            }
+            blobs.put(contentSha1, blobName);
+            addToManifest(manifest, new Manifest.Entry(relativeName(sd, destinationPrefix), Files.size(file),
+                    contentSha1, blobName));
+        });
+    }
+
+    private static void addToManifest(Manifest manifest, Manifest.Entry entry) {
+        if (manifest == null) {
+            return;
+        }
+        synchronized (manifest) {
+            manifest.files.add(entry);
+        }
+    }
+
+    // A failed listing is treated as a missing blob; uploading it again is harmless.
+    private String findBlob(String contentSha1) throws StorageException {
+        Optional<ListFileNamesResponse> response = storage.listFiles(null, BLOB_PREFIX + contentSha1 + "/", null);
+        if (!response.isPresent() || response.get().fileNames.isEmpty()) {
+            return null;
+        }
+        return response.get().fileNames.get(0).fileName;
+    }
+
+    // Written last, so a revision with a manifest is complete. Fetch and the material plugin read it instead of
+    // listing the revision. Several tasks of a job may publish to the same revision one after another, so files
+    // listed by the manifest already there are kept unless this task uploaded them again.
+    private void uploadManifest(Manifest manifest, String destinationPrefix) throws StorageException {
+        Optional<Manifest> stored = Manifests.read(storage, destinationPrefix + "/");
+        if (stored.isPresent()) {
+            Map<String, Manifest.Entry> entries = new HashMap<>();
+            stored.get().files.forEach(entry -> entries.put(entry.fileName, entry));
+            manifest.files.forEach(entry -> entries.put(entry.fileName, entry));
+            manifest.files = new ArrayList<>(entries.values());
+            manifest.contentAddressed = manifest.contentAddressed || Boolean.TRUE.equals(
+                    stored.get().contentAddressed);
+        }
+        manifest.uploadTimestamp = System.currentTimeMillis();
+        manifest.files.sort(Comparator.comparing(entry -> entry.fileName));
+        Path manifestDir = null;
+        try {
+            manifestDir = Files.createTempDirectory("gocd-b2-manifest");
+            Files.write(manifestDir.resolve(MANIFEST_FILE_NAME),
+                    GsonService.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+            storage.upload(manifestDir, Paths.get(MANIFEST_FILE_NAME), destinationPrefix);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new StorageException("Failed to write manifest: " + e.getMessage(), e);
+        } finally {
+            deleteTempDir(manifestDir);
+        }
+    }
+
+    @FunctionalInterface
+    private interface FileTask {
+        void run(SourceDestination sd) throws GeneralSecurityException, IOException, StorageException;
+    }
+
+    // Runs task for queued files on up to `threads` threads. A failed file doesn't stop the others. After an
+    // unauthorized call the remaining files are put back in the queue and the exception is rethrown, so the caller
+    // can authorize again and carry on.
+    private void forEachFile(Queue<SourceDestination> queue, Integer threads, List<String> failures, FileTask task)
+            throws StorageException {
+        Queue<SourceDestination> pending = new ConcurrentLinkedQueue<>(queue);
+        Queue<SourceDestination> unauthorized = new ConcurrentLinkedQueue<>();
+        AtomicReference<UnauthorizedCallException> unauthorizedException = new AtomicReference<>();
+        queue.clear();
+        Runnable worker = () -> {
+            SourceDestination sd;
+            while (unauthorizedException.get() == null && (sd = pending.poll()) != null) {
+                try {
+                    task.run(sd);
+                } catch (UnauthorizedCallException e) {
+                    unauthorizedException.compareAndSet(null, e);
+                    unauthorized.add(sd);
+                } catch (GeneralSecurityException | IOException | StorageException | RuntimeException e) {
+                    failures.add(sd.source + ": " + e.getMessage());
+                }
+            }
+        };
+        int workers = Math.min(threads, pending.size());
+        if (workers <= 1) {
+            worker.run();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < workers; i++) {
+                    futures.add(executor.submit(worker));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException("Upload interrupted", e);
+            } catch (ExecutionException e) {
+                throw new StorageException("Upload failed: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        queue.addAll(unauthorized);
+        queue.addAll(pending);
+        if (unauthorizedException.get() != null) {
+            throw unauthorizedException.get();
+        }
+    }
+
+    // Removes files smaller than threshold from the queue and returns them.
+    private List<SourceDestination> takeSmallFiles(Queue<SourceDestination> queue, Path absoluteWorkDir,
+                                                   long threshold) throws IOException {
+        List<SourceDestination> smallFiles = new ArrayList<>();
+        Iterator<SourceDestination> it = queue.iterator();
+        while (it.hasNext()) {
+            SourceDestination sd = it.next();
+            if (Files.size(absoluteWorkDir.resolve(sd.source)) < threshold) {
+                smallFiles.add(sd);
+                it.remove();
+            }
+        }
+        return smallFiles;
+    }
+
+    private void deleteTempDir(Path dir) {
+        if (dir == null) {
+            return;
+        }
+        try {
+            FileUtils.deleteDirectory(dir.toFile());
+        } catch (IOException e) {
+            logger.warn("Failed to delete " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private Map<String, FileName> listRemoteFiles(String destinationPrefix) throws StorageException {
+        Map<String, FileName> files = new HashMap<>();
+        String prefix = FilenameUtils.normalize(destinationPrefix, true);
+        if (prefix == null) {
+            return files;
+        }
+        if (!prefix.isEmpty() && !prefix.endsWith("/")) {
+            prefix += "/";
+        }
+        String startFileName = null;
+        do {
+            Optional<ListFileNamesResponse> response = storage.listFiles(startFileName, prefix, null);
+            if (!response.isPresent()) {
+                notify("Failed to list files under " + prefix + ", uploading all files: "
+                        + storage.getLastErrorMessage());
+                return new HashMap<>();
+            }
+            for (FileName fileName : response.get().fileNames) {
+                files.put(fileName.fileName, fileName);
+            }
+            startFileName = response.get().nextFileName;
+        } while (startFileName != null);
+        return files;
+    }
+
+    private String relativeName(SourceDestination sd, String destinationPrefix) {
+        String name = backblazeFileName(sd);
+        String prefix = FilenameUtils.normalizeNoEndSeparator(destinationPrefix, true);
+        if (prefix != null && !prefix.isEmpty() && name.startsWith(prefix + "/")) {
+            return name.substring(prefix.length() + 1);
+        }
+        return name;
+    }
+
+    private String backblazeFileName(SourceDestination sd) {
+        return FilenameUtils.normalize(Paths.get(sd.destination).resolve(sd.source).toString(), true);
+    }
+
+    // Large files report "none" as their content SHA-1, so they can only be compared if large_file_sha1 was set
+    // when they were uploaded.
+    private Boolean isUnchanged(FileName remote, long size, String contentSha1) {
+        if (remote == null || remote.contentLength == null || remote.contentLength != size) {
+            return false;
+        }
+        String remoteSha1 = remote.contentSha1;
+        if (remoteSha1 != null && remoteSha1.startsWith("unverified:")) {
+            remoteSha1 = remoteSha1.substring("unverified:".length());
+        }
+        if ((remoteSha1 == null || remoteSha1.equals("none")) && remote.fileInfo != null) {
+            remoteSha1 = remote.fileInfo.largeFileSha1;
+        }
+        return contentSha1.equalsIgnoreCase(remoteSha1);
+    }
+
     private List<String> validateContext(TaskContext context) {
         List<String> errors = new ArrayList<>();
         ConfigurationValidator validator = new ConfigurationValidator();
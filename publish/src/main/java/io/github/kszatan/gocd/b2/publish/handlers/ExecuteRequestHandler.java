@@ -18,16 +18,19 @@ import io.github.kszatan.gocd.b2.publish.handlers.bodies.TaskConfiguration;
 import io.github.kszatan.gocd.b2.publish.handlers.bodies.TaskContext;
 import io.github.kszatan.gocd.b2.utils.json.IncompleteJson;
 import io.github.kszatan.gocd.b2.utils.json.InvalidJson;
-import io.github.kszatan.gocd.b2.utils.storage.BackblazeStorage;
-import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+import io.github.kszatan.gocd.b2.utils.storage.*;
+import io.github.kszatan.gocd.b2.utils.storage.api.BackblazeApiWrapper;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.util.Optional;
 
 import static io.github.kszatan.gocd.b2.publish.Constants.GO_ARTIFACTS_B2_BUCKET;
+import static io.github.kszatan.gocd.b2.publish.Constants.HASH_INDEX_FILE;
 
 public class ExecuteRequestHandler implements RequestHandler {
+    private static final FileHash fileHash = new CachingFileHash(new Sha1FileHash(), Paths.get(HASH_INDEX_FILE));
     private TaskExecutor executor;
 
     @Override
@@ -40,7 +43,9 @@ public class ExecuteRequestHandler implements RequestHandler {
             if (executor == null) { // for tests
                 String bucketName = getBucketName(configuration, context).orElseThrow(
                         () -> new StorageException("Failure: Bucket name not specified."));
-                setExecutor(new PublishTaskExecutor(new BackblazeStorage(bucketName), new DefaultDirectoryScanner()));
+                setExecutor(new PublishTaskExecutor(
+                        new BackblazeStorage(bucketName, new BackblazeApiWrapper(fileHash)),
+                        new DefaultDirectoryScanner(), fileHash));
             }
             ExecuteResponse result = executor.execute(configuration, context);
             response = DefaultGoPluginApiResponse.success(result.toJson());
@@ -21,6 +21,15 @@ public class ConfigurationDefinition {
     public Field sourceDestinations;
     public Field destinationPrefix;
     public Field bucketName;
+    public Field partUploadThreads;
+    public Field fileUploadThreads;
+    public Field singlePassUpload;
+    public Field incrementalUpload;
+    public Field partsHashedAhead;
+    public Field bundleThreshold;
+    public Field contentAddressed;
+    public Field writeManifest;
+    public Field resumableUpload;
 
     public ConfigurationDefinition() {
         sourceDestinations = new Field();
@@ -37,5 +46,50 @@ public class ConfigurationDefinition {
         bucketName.defaultValue = "";
         bucketName.required = false;
         bucketName.secure = false;
+
+        partUploadThreads = new Field();
+        partUploadThreads.defaultValue = "1";
+        partUploadThreads.required = false;
+        partUploadThreads.secure = false;
+
+        fileUploadThreads = new Field();
+        fileUploadThreads.defaultValue = "1";
+        fileUploadThreads.required = false;
+        fileUploadThreads.secure = false;
+
+        singlePassUpload = new Field();
+        singlePassUpload.defaultValue = "false";
+        singlePassUpload.required = false;
+        singlePassUpload.secure = false;
+
+        incrementalUpload = new Field();
+        incrementalUpload.defaultValue = "false";
+        incrementalUpload.required = false;
+        incrementalUpload.secure = false;
+
+        partsHashedAhead = new Field();
+        partsHashedAhead.defaultValue = TaskConfiguration.DEFAULT_PARTS_HASHED_AHEAD.toString();
+        partsHashedAhead.required = false;
+        partsHashedAhead.secure = false;
+
+        bundleThreshold = new Field();
+        bundleThreshold.defaultValue = "0";
+        bundleThreshold.required = false;
+        bundleThreshold.secure = false;
+
+        contentAddressed = new Field();
+        contentAddressed.defaultValue = "false";
+        contentAddressed.required = false;
+        contentAddressed.secure = false;
+
+        writeManifest = new Field();
+        writeManifest.defaultValue = "true";
+        writeManifest.required = false;
+        writeManifest.secure = false;
+
+        resumableUpload = new Field();
+        resumableUpload.defaultValue = "true";
+        resumableUpload.required = false;
+        resumableUpload.secure = false;
     }
 }
@@ -14,6 +14,8 @@ import java.util.regex.Pattern;
 public class ConfigurationValidator {
     private static final String BUCKET_ID_REGEX = "(?!b2-)[a-zA-Z0-9\\-]{6,50}";
     public static final Pattern pattern = Pattern.compile(BUCKET_ID_REGEX);
+    public static final Integer MAX_UPLOAD_THREADS = 16;
+    public static final Long MAX_BUNDLE_THRESHOLD_KB = 1024L * 1024;
 
     public TaskConfigurationValidationResponse validate(TaskConfiguration configuration) {
         TaskConfigurationValidationResponse result = new TaskConfigurationValidationResponse();
@@ -34,9 +36,57 @@ public class ConfigurationValidator {
         if (!validateBucketName(configuration.getBucketName())) {
             result.errors.put("bucketName", "Invalid bucket name format");
         }
+        if (!validateThreadCount(configuration.getPartUploadThreads())) {
+            result.errors.put("partUploadThreads", "Number of threads must be between 1 and " + MAX_UPLOAD_THREADS);
+        }
+        if (!validateThreadCount(configuration.getFileUploadThreads())) {
+            result.errors.put("fileUploadThreads", "Number of threads must be between 1 and " + MAX_UPLOAD_THREADS);
+        }
+        if (!validatePartsHashedAhead(configuration.getPartsHashedAhead())) {
+            result.errors.put("partsHashedAhead", "Number of parts must be between 0 and " + MAX_UPLOAD_THREADS);
+        }
+        if (!validateBundleThreshold(configuration.getBundleThreshold())) {
+            result.errors.put("bundleThreshold", "Bundle threshold must be between 0 and " + MAX_BUNDLE_THRESHOLD_KB + " KB");
+        }
         return result;
     }
 
+    public Boolean validateThreadCount(String threads) {
+        if (threads == null || threads.trim().isEmpty()) {
+            return true;
+        }
+        try {
+            int value = Integer.parseInt(threads.trim());
+            return value >= 1 && value <= MAX_UPLOAD_THREADS;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public Boolean validatePartsHashedAhead(String parts) {
+        if (parts == null || parts.trim().isEmpty()) {
+            return true;
+        }
+        try {
+            int value = Integer.parseInt(parts.trim());
+            return value >= 0 && value <= MAX_UPLOAD_THREADS;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public Boolean validateBundleThreshold(String threshold) {
+        if (threshold == null || threshold.trim().isEmpty()) {
+            return true;
+        }
+        try {
+            long value = Long.parseLong(threshold.trim());
+            return value >= 0 && value <= MAX_BUNDLE_THRESHOLD_KB;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     public Boolean validateBucketName(String bucketName) {
         return bucketName.isEmpty() || pattern.matcher(bucketName).matches();
     }
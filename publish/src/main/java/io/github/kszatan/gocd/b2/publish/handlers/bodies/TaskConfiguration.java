@@ -14,14 +14,34 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class TaskConfiguration {
+    public static final Integer DEFAULT_PARTS_HASHED_AHEAD = 2;
+
     private Entry sourceDestinations;
     private Entry destinationPrefix;
     private Entry bucketName;
+    private Entry partUploadThreads;
+    private Entry fileUploadThreads;
+    private Entry singlePassUpload;
+    private Entry incrementalUpload;
+    private Entry partsHashedAhead;
+    private Entry bundleThreshold;
+    private Entry contentAddressed;
+    private Entry writeManifest;
+    private Entry resumableUpload;
 
     public TaskConfiguration() {
         sourceDestinations = new Entry();
         destinationPrefix = new Entry();
         bucketName = new Entry();
+        partUploadThreads = new Entry();
+        fileUploadThreads = new Entry();
+        singlePassUpload = new Entry();
+        incrementalUpload = new Entry();
+        partsHashedAhead = new Entry();
+        bundleThreshold = new Entry();
+        contentAddressed = new Entry();
+        writeManifest = new Entry();
+        resumableUpload = new Entry();
     }
 
     public String getSourceDestinations() { return sourceDestinations.value; }
@@ -39,6 +59,65 @@ public class TaskConfiguration {
         return bucketName.value;
     }
 
+    public String getPartUploadThreads() {
+        return partUploadThreads.value;
+    }
+
+    public Integer getPartUploadThreadsAsInteger() {
+        return threadCount(partUploadThreads.value);
+    }
+
+    public String getFileUploadThreads() {
+        return fileUploadThreads.value;
+    }
+
+    public Integer getFileUploadThreadsAsInteger() {
+        return threadCount(fileUploadThreads.value);
+    }
+
+    public Boolean isSinglePassUpload() {
+        return "true".equalsIgnoreCase(singlePassUpload.value);
+    }
+
+    public String getPartsHashedAhead() {
+        return partsHashedAhead.value;
+    }
+
+    public Integer getPartsHashedAheadAsInteger() {
+        if (partsHashedAhead.value == null || partsHashedAhead.value.trim().isEmpty()) {
+            return DEFAULT_PARTS_HASHED_AHEAD;
+        }
+        return Integer.parseInt(partsHashedAhead.value.trim());
+    }
+
+    public Boolean isIncrementalUpload() {
+        return "true".equalsIgnoreCase(incrementalUpload.value);
+    }
+
+    public String getBundleThreshold() {
+        return bundleThreshold.value;
+    }
+
+    // Threshold is given in kilobytes; 0 turns bundling off.
+    public Long getBundleThresholdInBytes() {
+        if (bundleThreshold.value == null || bundleThreshold.value.trim().isEmpty()) {
+            return 0L;
+        }
+        return Long.parseLong(bundleThreshold.value.trim()) * 1024;
+    }
+
+    public Boolean isContentAddressed() {
+        return "true".equalsIgnoreCase(contentAddressed.value);
+    }
+
+    public Boolean isWriteManifest() {
+        return "true".equalsIgnoreCase(writeManifest.value);
+    }
+
+    public Boolean isResumableUpload() {
+        return "true".equalsIgnoreCase(resumableUpload.value);
+    }
+
     public void setSourceDestinations(String sourceDestinations) { this.sourceDestinations.value = sourceDestinations; }
 
     public void setDestinationPrefix(String destinationPrefix) {
@@ -48,4 +127,47 @@ public class TaskConfiguration {
     public void setBucketName(String bucketName) {
         this.bucketName.value = bucketName;
     }
+
+    public void setPartUploadThreads(String partUploadThreads) {
+        this.partUploadThreads.value = partUploadThreads;
+    }
+
+    public void setFileUploadThreads(String fileUploadThreads) {
+        this.fileUploadThreads.value = fileUploadThreads;
+    }
+
+    public void setSinglePassUpload(String singlePassUpload) {
+        this.singlePassUpload.value = singlePassUpload;
+    }
+
+    public void setPartsHashedAhead(String partsHashedAhead) {
+        this.partsHashedAhead.value = partsHashedAhead;
+    }
+
+    public void setIncrementalUpload(String incrementalUpload) {
+        this.incrementalUpload.value = incrementalUpload;
+    }
+
+    public void setBundleThreshold(String bundleThreshold) {
+        this.bundleThreshold.value = bundleThreshold;
+    }
+
+    public void setContentAddressed(String contentAddressed) {
+        this.contentAddressed.value = contentAddressed;
+    }
+
+    public void setWriteManifest(String writeManifest) {
+        this.writeManifest.value = writeManifest;
+    }
+
+    public void setResumableUpload(String resumableUpload) {
+        this.resumableUpload.value = resumableUpload;
+    }
+
+    private Integer threadCount(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return 1;
+        }
+        return Integer.parseInt(value.trim());
+    }
 }
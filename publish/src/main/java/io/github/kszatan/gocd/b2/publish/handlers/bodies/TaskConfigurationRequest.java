@@ -6,6 +6,7 @@
 
 package io.github.kszatan.gocd.b2.publish.handlers.bodies;
 
+import com.google.gson.JsonObject;
 import io.github.kszatan.gocd.b2.utils.json.GsonService;
 import io.github.kszatan.gocd.b2.utils.json.IncompleteJson;
 import io.github.kszatan.gocd.b2.utils.json.InvalidJson;
@@ -17,12 +18,13 @@ public class TaskConfigurationRequest {
     private final TaskConfiguration configuration;
 
     public TaskConfigurationRequest(String json) throws InvalidJson, IncompleteJson {
-        Collection<String> missing = GsonService.validate(json,
+        JsonObject root = GsonService.parse(json);
+        Collection<String> missing = GsonService.validate(root,
                 Arrays.asList("sourceDestinations", "destinationPrefix", "bucketName"));
         if (!missing.isEmpty()) {
             throw new IncompleteJson("Missing fields: " + missing.toString());
         }
-        configuration = GsonService.fromJson(json, TaskConfiguration.class);
+        configuration = GsonService.fromJson(root, TaskConfiguration.class);
     }
 
     public TaskConfiguration getConfiguration() {
@@ -13,21 +13,37 @@ import io.github.kszatan.gocd.b2.publish.executor.PublishTaskExecutor;
 import io.github.kszatan.gocd.b2.publish.handlers.bodies.ExecuteResponse;
 import io.github.kszatan.gocd.b2.publish.handlers.bodies.TaskConfiguration;
 import io.github.kszatan.gocd.b2.publish.handlers.bodies.TaskContext;
-import io.github.kszatan.gocd.b2.utils.storage.Storage;
-import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+import io.github.kszatan.gocd.b2.utils.json.GsonService;
+import io.github.kszatan.gocd.b2.utils.storage.*;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import static io.github.kszatan.gocd.b2.publish.Constants.GO_ARTIFACTS_B2_BUCKET;
+import static io.github.kszatan.gocd.b2.utils.Constants.BLOB_PREFIX;
+import static io.github.kszatan.gocd.b2.utils.Constants.BUNDLE_SUFFIX;
+import static io.github.kszatan.gocd.b2.utils.Constants.MANIFEST_FILE_NAME;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.*;
 
 public class PublishTaskExecutorTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private Storage storage;
     private DirectoryScanner scanner;
     private PublishTaskExecutor executor;
@@ -196,6 +212,280 @@ public class PublishTaskExecutorTest {
         verify(storage).upload(workDirPath, Paths.get("file2"), "destination/prefix/dest");
     }
 
+    @Test
+    public void executorShouldUploadFilesConcurrentlyWhenFileUploadThreadsSet() throws Exception {
+        when(storage.authorize()).thenReturn(true);
+        when(scanner.getIncludedFiles()).thenReturn(Arrays.asList("file1", "file2", "file3", "file4"));
+        TaskConfiguration configuration = new TaskConfiguration();
+        configuration.setSourceDestinations("[{\"source\": \"**\", \"destination\": \"dest\"}]");
+        configuration.setFileUploadThreads("3");
+        TaskContext context = getDefaultTaskContext();
+
+        ExecuteResponse response = executor.execute(configuration, context);
+        final Path workDirPath = Paths.get(context.workingDirectory).toAbsolutePath();
+
+        assertThat(response.success, equalTo(true));
+        verify(storage).upload(workDirPath, Paths.get("file1"), "pipe/stag/jobjob/10.5/dest");
+        verify(storage).upload(workDirPath, Paths.get("file2"), "pipe/stag/jobjob/10.5/dest");
+        verify(storage).upload(workDirPath, Paths.get("file3"), "pipe/stag/jobjob/10.5/dest");
+        verify(storage).upload(workDirPath, Paths.get("file4"), "pipe/stag/jobjob/10.5/dest");
+    }
+
+    @Test
+    public void executorShouldContinueUploadingAndReportAllFailedFiles() throws Exception {
+        when(storage.authorize()).thenReturn(true);
+        when(scanner.getIncludedFiles()).thenReturn(Arrays.asList("file1", "file2", "file3"));
+        TaskConfiguration configuration = new TaskConfiguration();
+        configuration.setSourceDestinations("[{\"source\": \"**\", \"destination\": \"\"}]");
+        TaskContext context = getDefaultTaskContext();
+        final Path workDirPath = Paths.get(context.workingDirectory).toAbsolutePath();
+        doThrow(new StorageException("boom")).when(storage).upload(workDirPath, Paths.get("file1"), "pipe/stag/jobjob/10.5");
+        doThrow(new StorageException("bang")).when(storage).upload(workDirPath, Paths.get("file3"), "pipe/stag/jobjob/10.5");
+
+        ExecuteResponse response = executor.execute(configuration, context);
+
+        verify(storage).upload(workDirPath, Paths.get("file2"), "pipe/stag/jobjob/10.5");
+        assertThat(response.success, equalTo(false));
+        assertThat(response.message, equalTo("Failed to upload 2 file(s): file1: boom; file3: bang"));
+    }
+
+    @Test
+    public void executorShouldReauthorizeAndRetryFileAfterUnauthorizedCall() throws Exception {
+        when(storage.authorize()).thenReturn(true);
+        when(scanner.getIncludedFiles()).thenReturn(Arrays.asList("file1", "file2"));
+        TaskConfiguration configuration = new TaskConfiguration();
+        configuration.setSourceDestinations("[{\"source\": \"**\", \"destination\": \"\"}]");
+        TaskContext context = getDefaultTaskContext();
+        final Path workDirPath = Paths.get(context.workingDirectory).toAbsolutePath();
+        doThrow(new UnauthorizedCallException("expired")).doNothing()
+                .when(storage).upload(workDirPath, Paths.get("file1"), "pipe/stag/jobjob/10.5");
+
+        ExecuteResponse response = executor.execute(configuration, context);
+
+        assertThat(response.success, equalTo(true));
+        verify(storage, times(2)).authorize();
+        verify(storage, times(2)).upload(workDirPath, Paths.get("file1"), "pipe/stag/jobjob/10.5");
+        verify(storage).upload(workDirPath, Paths.get("file2"), "pipe/stag/jobjob/10.5");
+    }
+
+    @Test
+    public void incrementalUploadShouldSkipFilesWithMatchingLengthAndSha1() throws Exception {
+        Path workDir = temporaryFolder.getRoot().toPath();
+        Files.write(workDir.resolve("same"), "same".getBytes(StandardCharsets.UTF_8));
+        Files.write(workDir.resolve("changed"), "changed".getBytes(StandardCharsets.UTF_8));
+        Files.write(workDir.resolve("new"), "new".getBytes(StandardCharsets.UTF_8));
+        String sameSha1 = new Sha1FileHash().getHashValue(workDir.resolve("same"));
+        String changedSha1 = new Sha1FileHash().getHashValue(workDir.resolve("changed"));
+        String newSha1 = new Sha1FileHash().getHashValue(workDir.resolve("new"));
+        when(storage.authorize()).thenReturn(true);
+        when(scanner.getIncludedFiles()).thenReturn(Arrays.asList("same", "changed", "new"));
+        ListFileNamesResponse listing = new ListFileNamesResponse();
+        listing.fileNames = Arrays.asList(
+                remoteFile("pipe/stag/jobjob/10.5/same", 4L, sameSha1),
+                remoteFile("pipe/stag/jobjob/10.5/changed", 7L, sameSha1));
+        when(storage.listFiles(null, "pipe/stag/jobjob/10.5/", null)).thenReturn(Optional.of(listing));
+        TaskConfiguration configuration = new TaskConfiguration();
+        configuration.setSourceDestinations("[{\"source\": \"**\", \"destination\": \"\"}]");
+        configuration.setIncrementalUpload("true");
+        TaskContext context = getDefaultTaskContext();
+        context.workingDirectory = workDir.toString();
+
+        ExecuteResponse response = executor.execute(configuration, context);
+
+        assertThat(response.success, equalTo(true));
+        verify(storage, never()).upload(eq(workDir), eq(Paths.get("same")), anyString(), anyString());
+        verify(storage).upload(workDir, Paths.get("changed"), "pipe/stag/jobjob/10.5", changedSha1);
+        verify(storage).upload(workDir, Paths.get("new"), "pipe/stag/jobjob/10.5", newSha1);
+        verify(executor.console).printLine("Skipped 1 unchanged file(s).");
+    }
+
+    @Test
+    public void incrementalUploadShouldCompareLargeFileSha1AndFollowListingPages() throws Exception {
+        Path workDir = temporaryFolder.getRoot().toPath();
+        Files.write(workDir.resolve("large"), "large".getBytes(StandardCharsets.UTF_8));
+        Files.write(workDir.resolve("small"), "small".getBytes(StandardCharsets.UTF_8));
+        when(storage.authorize()).thenReturn(true);
+        when(scanner.getIncludedFiles()).thenReturn(Arrays.asList("large", "small"));
+        ListFileNamesResponse firstPage = new ListFileNamesResponse();
+        FileName large = remoteFile("prefix/large", 5L, "none");
+        large.fileInfo = new FileInfo();
+        large.fileInfo.largeFileSha1 = new Sha1FileHash().getHashValue(workDir.resolve("large"));
+        firstPage.fileNames = Collections.singletonList(large);
+        firstPage.nextFileName = "prefix/small";
+        ListFileNamesResponse secondPage = new ListFileNamesResponse();
+        secondPage.fileNames = Collections.singletonList(remoteFile("prefix/small", 5L,
+                "unverified:" + new Sha1FileHash().getHashValue(workDir.resolve("small"))));
+        when(storage.listFiles(null, "prefix/", null)).thenReturn(Optional.of(firstPage));
+        when(storage.listFiles("prefix/small", "prefix/", null)).thenReturn(Optional.of(secondPage));
+        TaskConfiguration configuration = new TaskConfiguration();
+        configuration.setDestinationPrefix("prefix");
+        configuration.setSourceDestinations("[{\"source\": \"**\", \"destination\": \"\"}]");
+        configuration.setIncrementalUpload("true");
+        TaskContext context = getDefaultTaskContext();
+        context.workingDirectory = workDir.toString();
+
+        ExecuteResponse response = executor.execute(configuration, context);
+
+        assertThat(response.success, equalTo(true));
+        verify(storage, never()).upload(any(Path.class), any(Path.class), anyString(), anyString());
+        verify(executor.console).printLine("Skipped 2 unchanged file(s).");
+    }
+
+    @Test
+    public void incrementalUploadShouldUploadEverythingWhenListingFails() throws Exception {
+        Path workDir = temporaryFolder.getRoot().toPath();
+        Files.write(workDir.resolve("file"), "file".getBytes(StandardCharsets.UTF_8));
+        when(storage.authorize()).thenReturn(true);
+        when(scanner.getIncludedFiles()).thenReturn(Collections.singletonList("file"));
+        when(storage.listFiles(anyString(), anyString(), anyString())).thenReturn(Optional.empty());
+        TaskConfiguration configuration = new TaskConfiguration();
+        configuration.setSourceDestinations("[{\"source\": \"**\", \"destination\": \"\"}]");
+        configuration.setIncrementalUpload("true");
+        TaskContext context = getDefaultTaskContext();
+        context.workingDirectory = workDir.toString();
+
+        ExecuteResponse response = executor.execute(configuration, context);
+
+        assertThat(response.success, equalTo(true));
+        verify(storage).upload(workDir, Paths.get("file"), "pipe/stag/jobjob/10.5",
+                new Sha1FileHash().getHashValue(workDir.resolve("file")));
+    }
+
+    @Test
+    public void smallFilesShouldBeUploadedInBundle() throws Exception {
+        Path workDir = temporaryFolder.getRoot().toPath();
+        Files.createDirectories(workDir.resolve("a"));
+        Files.write(workDir.resolve("a/small1"), "small1".getBytes(StandardCharsets.UTF_8));
+        Files.write(workDir.resolve("small2"), "small2".getBytes(StandardCharsets.UTF_8));
+        Files.write(workDir.resolve("big"), new byte[2048]);
+        when(storage.authorize()).thenReturn(true);
+        when(scanner.getIncludedFiles()).thenReturn(Arrays.asList("a/small1", "small2", "big"));
+        Map<String, String> bundled = new HashMap<>();
+        Path bundleName = Paths.get("bundle-1" + BUNDLE_SUFFIX);
+        doAnswer(invocation -> {
+            Path bundle = ((Path) invocation.getArguments()[0]).resolve(bundleName);
+            try (TarArchiveInputStream tar = new TarArchiveInputStream(
+                    new GZIPInputStream(Files.newInputStream(bundle)))) {
+                for (TarArchiveEntry entry; (entry = tar.getNextTarEntry()) != null; ) {
+                    bundled.put(entry.getName(), IOUtils.toString(tar, StandardCharsets.UTF_8));
+                }
+            }
+            return null;
+        }).when(storage).upload(any(Path.class), eq(bundleName), eq("pipe/stag/jobjob/10.5/dest"));
+        TaskConfiguration configuration = new TaskConfiguration();
+        configuration.setSourceDestinations("[{\"source\": \"**\", \"destination\": \"dest\"}]");
+        configuration.setBundleThreshold("1");
+        TaskContext context = getDefaultTaskContext();
+        context.workingDirectory = workDir.toString();
+
+        ExecuteResponse response = executor.execute(configuration, context);
+
+        assertThat(response.success, equalTo(true));
+        assertThat(bundled.size(), equalTo(2));
+        assertThat(bundled.get("a/small1"), equalTo("small1"));
+        assertThat(bundled.get("small2"), equalTo("small2"));
+        verify(storage).upload(workDir, Paths.get("big"), "pipe/stag/jobjob/10.5/dest");
+        verify(storage, never()).upload(workDir, Paths.get("small2"), "pipe/stag/jobjob/10.5/dest");
+        verify(executor.console).printLine("Bundled 2 small file(s) into 1 archive(s).");
+    }
+
+    @Test
+    public void contentAddressedUploadShouldStoreOnlyMissingBlobsAndWriteManifest() throws Exception {
+        Path workDir = temporaryFolder.getRoot().toPath();
+        Files.createDirectories(workDir.resolve("a"));
+        Files.write(workDir.resolve("a/tool.tgz"), "tool".getBytes(StandardCharsets.UTF_8));
+        Files.write(workDir.resolve("new.txt"), "new".getBytes(StandardCharsets.UTF_8));
+        Files.write(workDir.resolve("copy.txt"), "new".getBytes(StandardCharsets.UTF_8));
+        String toolSha1 = new Sha1FileHash().getHashValue(workDir.resolve("a/tool.tgz"));
+        String newSha1 = new Sha1FileHash().getHashValue(workDir.resolve("new.txt"));
+        when(storage.authorize()).thenReturn(true);
+        when(scanner.getIncludedFiles()).thenReturn(Arrays.asList("a/tool.tgz", "new.txt"))
+                .thenReturn(Collections.singletonList("copy.txt"));
+        ListFileNamesResponse empty = new ListFileNamesResponse();
+        empty.fileNames = Collections.emptyList();
+        when(storage.listFiles(anyString(), anyString(), anyString())).thenReturn(Optional.of(empty));
+        ListFileNamesResponse stored = new ListFileNamesResponse();
+        stored.fileNames = Collections.singletonList(remoteFile(BLOB_PREFIX + toolSha1 + "/tool.tgz", 4L, toolSha1));
+        when(storage.listFiles(null, BLOB_PREFIX + toolSha1 + "/", null)).thenReturn(Optional.of(stored));
+        List<Manifest> manifests = new ArrayList<>();
+        doAnswer(invocation -> {
+            Path manifest = ((Path) invocation.getArguments()[0]).resolve(MANIFEST_FILE_NAME);
+            manifests.add(GsonService.fromJson(new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8),
+                    Manifest.class));
+            return null;
+        }).when(storage).upload(any(Path.class), eq(Paths.get(MANIFEST_FILE_NAME)), eq("prefix"));
+        TaskConfiguration configuration = new TaskConfiguration();
+        configuration.setDestinationPrefix("prefix");
+        configuration.setSourceDestinations("[{\"source\": \"**\", \"destination\": \"\"}, "
+                + "{\"source\": \"copy.txt\", \"destination\": \"dir\"}]");
+        configuration.setContentAddressed("true");
+        TaskContext context = getDefaultTaskContext();
+        context.workingDirectory = workDir.toString();
+
+        ExecuteResponse response = executor.execute(configuration, context);
+
+        assertThat(response.success, equalTo(true));
+        verify(storage).upload(workDir, Paths.get("new.txt"), BLOB_PREFIX + newSha1, newSha1);
+        verify(storage, times(1)).upload(any(Path.class), any(Path.class), anyString(), anyString());
+        assertThat(manifests.size(), equalTo(1));
+        Manifest manifest = manifests.get(0);
+        assertThat(manifest.contentAddressed, equalTo(true));
+        assertThat(manifest.files.stream().map(f -> f.fileName + "=" + f.blobName).collect(Collectors.toList()),
+                equalTo(Arrays.asList(
+                        "a/tool.tgz=" + BLOB_PREFIX + toolSha1 + "/tool.tgz",
+                        "dir/copy.txt=" + BLOB_PREFIX + newSha1 + "/new.txt",
+                        "new.txt=" + BLOB_PREFIX + newSha1 + "/new.txt")));
+        verify(executor.console).printLine("Reused 2 file(s) already stored in the bucket.");
+    }
+
+    @Test
+    public void secondPublishToSameRevisionShouldKeepFilesOfFirstInManifest() throws Exception {
+        Path workDir = temporaryFolder.getRoot().toPath();
+        Files.write(workDir.resolve("first.txt"), "first".getBytes(StandardCharsets.UTF_8));
+        Files.write(workDir.resolve("second.txt"), "second".getBytes(StandardCharsets.UTF_8));
+        when(storage.authorize()).thenReturn(true);
+        when(scanner.getIncludedFiles()).thenReturn(Collections.singletonList("first.txt"))
+                .thenReturn(Collections.singletonList("second.txt"));
+        List<String> manifests = new ArrayList<>();
+        doAnswer(invocation -> {
+            Path manifest = ((Path) invocation.getArguments()[0]).resolve(MANIFEST_FILE_NAME);
+            manifests.add(new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8));
+            return null;
+        }).when(storage).upload(any(Path.class), eq(Paths.get(MANIFEST_FILE_NAME)), eq("prefix"));
+        doAnswer(invocation -> {
+            if (manifests.isEmpty()) {
+                return false;
+            }
+            ((DownloadConsumer) invocation.getArguments()[2]).accept(new ByteArrayInputStream(
+                    manifests.get(manifests.size() - 1).getBytes(StandardCharsets.UTF_8)));
+            return true;
+        }).when(storage).downloadStream(eq(MANIFEST_FILE_NAME), eq("prefix/"), any(DownloadConsumer.class));
+        TaskConfiguration configuration = new TaskConfiguration();
+        configuration.setDestinationPrefix("prefix");
+        configuration.setSourceDestinations("[{\"source\": \"*.txt\", \"destination\": \"\"}]");
+        configuration.setWriteManifest("true");
+        configuration.setSinglePassUpload("true");
+        TaskContext context = getDefaultTaskContext();
+        context.workingDirectory = workDir.toString();
+
+        assertThat(executor.execute(configuration, context).success, equalTo(true));
+        assertThat(executor.execute(configuration, context).success, equalTo(true));
+
+        Manifest manifest = GsonService.fromJson(manifests.get(1), Manifest.class);
+        assertThat(manifest.files.stream().map(f -> f.fileName + "=" + f.contentSha1).collect(Collectors.toList()),
+                equalTo(Arrays.asList(
+                        "first.txt=" + new Sha1FileHash().getHashValue(workDir.resolve("first.txt")),
+                        "second.txt=" + new Sha1FileHash().getHashValue(workDir.resolve("second.txt")))));
+    }
+
+    private FileName remoteFile(String name, Long contentLength, String contentSha1) {
+        FileName fileName = new FileName();
+        fileName.fileName = name;
+        fileName.contentLength = contentLength;
+        fileName.contentSha1 = contentSha1;
+        return fileName;
+    }
+
     private Path unixPathStringToPath(String unixPath) {
         return Paths.get("", unixPath.split("/"));
     }
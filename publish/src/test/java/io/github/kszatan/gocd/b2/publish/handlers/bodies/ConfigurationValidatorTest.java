@@ -20,6 +20,7 @@ import static org.junit.Assert.*;
 public class ConfigurationValidatorTest {
     private String bucketName;
     private String sourceDestinations;
+    private String partUploadThreads;
     private Boolean valid;
 
     @Parameterized.Parameters
@@ -27,23 +28,30 @@ public class ConfigurationValidatorTest {
         final String validSD = "[{\"source\": \"asdf\", \"destination\": \"fdsa\"}]";
         final String emptySource = "[{\"source\": \"\", \"destination\": \"fdsa\"}]";
         return Arrays.asList(new Object[][]{
-                {"short", validSD, false},
-                {"123456789012345678901234567890123456789012345678901", validSD, false},
-                {"12345678901234567890123456789012345678901234567890", validSD, true},
-                {"b2-bucket", validSD, false},
-                {"asdf-b2-asdf", validSD, true},
-                {"ADSDF2342fda-", validSD, true},
-                {"asdf_fdsa", validSD, false},
-                {"ADSDF2342fda-", "", false},
-                {"ADSDF2342fda-", "[]", false},
-                {"ADSDF2342fda-", emptySource, false},
-                {"ADSDF2342fda-", "//", false}
+                {"short", validSD, "", false},
+                {"123456789012345678901234567890123456789012345678901", validSD, "", false},
+                {"12345678901234567890123456789012345678901234567890", validSD, "", true},
+                {"b2-bucket", validSD, "", false},
+                {"asdf-b2-asdf", validSD, "", true},
+                {"ADSDF2342fda-", validSD, "", true},
+                {"asdf_fdsa", validSD, "", false},
+                {"ADSDF2342fda-", "", "", false},
+                {"ADSDF2342fda-", "[]", "", false},
+                {"ADSDF2342fda-", emptySource, "", false},
+                {"ADSDF2342fda-", "//", "", false},
+                {"ADSDF2342fda-", validSD, "1", true},
+                {"ADSDF2342fda-", validSD, "16", true},
+                {"ADSDF2342fda-", validSD, "0", false},
+                {"ADSDF2342fda-", validSD, "17", false},
+                {"ADSDF2342fda-", validSD, "four", false}
         });
     }
 
-    public ConfigurationValidatorTest(String bucketName, String sourceDestinations, Boolean valid) {
+    public ConfigurationValidatorTest(String bucketName, String sourceDestinations, String partUploadThreads,
+                                      Boolean valid) {
         this.bucketName = bucketName;
         this.sourceDestinations = sourceDestinations;
+        this.partUploadThreads = partUploadThreads;
         this.valid = valid;
     }
 
@@ -53,6 +61,7 @@ public class ConfigurationValidatorTest {
         TaskConfiguration configuration = new TaskConfiguration();
         configuration.setBucketName(bucketName);
         configuration.setSourceDestinations(sourceDestinations);
+        configuration.setPartUploadThreads(partUploadThreads);
         assertThat(validator.validate(configuration).errors.isEmpty(), is(valid));
     }
 }
\ No newline at end of file
@@ -8,4 +8,10 @@ package io.github.kszatan.gocd.b2.utils;
 
 public class Constants {
     public static final String GO_ARTIFACTS_B2_BUCKET = "GO_ARTIFACTS_B2_BUCKET";
+    // Suffix of gzipped tar archives the publish plugin packs small files into.
+    public static final String BUNDLE_SUFFIX = ".b2bundle.tar.gz";
+    // Name of the manifest written next to the files of a published revision.
+    public static final String MANIFEST_FILE_NAME = ".gocd-b2-manifest.json";
+    // Bucket-wide prefix of content-addressed blobs, each stored as <sha1>/<original file name>.
+    public static final String BLOB_PREFIX = ".gocd-b2-blobs/";
 }
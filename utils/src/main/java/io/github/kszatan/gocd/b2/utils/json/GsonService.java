@@ -8,53 +8,82 @@ package io.github.kszatan.gocd.b2.utils.json;
 
 import com.google.gson.*;
 
+import java.io.Reader;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
 
 public class GsonService {
-    private static String DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+    private static final String DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+
+    // Gson instances are immutable and thread-safe, and they cache type adapters, so one is shared by everybody.
+    private static final Gson gson = new GsonBuilder()
+            .setDateFormat(DATE_TIME_FORMAT)
+            .create();
 
     public static Gson getGson() {
-        return new GsonBuilder()
-                .setDateFormat(DATE_TIME_FORMAT)
-                .create();
+        return gson;
     }
 
-    public static Collection<String> validate(String json, Collection<String> requiredFields) throws InvalidJson {
+    public static JsonObject parse(String json) throws InvalidJson {
         if (json == null) {
             throw new InvalidJson("Null JSON object");
         }
         try {
-            ArrayList<String> missing = new ArrayList<>();
-            JsonParser parser = new JsonParser();
-            JsonObject root = parser.parse(json).getAsJsonObject();
-            for (String field : requiredFields) {
-                if (!root.has(field)) {
-                    missing.add(field);
-                }
-            }
-            return missing;
-        } catch (JsonSyntaxException e) {
+            return new JsonParser().parse(json).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
             throw new InvalidJson("Malformed JSON: " + json);
         }
     }
 
+    public static Collection<String> validate(String json, Collection<String> requiredFields) throws InvalidJson {
+        return validate(parse(json), requiredFields);
+    }
+
+    public static Collection<String> validate(JsonObject root, Collection<String> requiredFields) throws InvalidJson {
+        if (root == null) {
+            throw new InvalidJson("Null JSON object");
+        }
+        ArrayList<String> missing = new ArrayList<>();
+        for (String field : requiredFields) {
+            if (!root.has(field)) {
+                missing.add(field);
+            }
+        }
+        return missing;
+    }
+
     public static String getField(String json, String fieldName) {
         JsonParser parser = new JsonParser();
         JsonObject root = parser.parse(json).getAsJsonObject();
         return root.get(fieldName).toString();
     }
 
+    public static JsonObject getObject(JsonObject root, String fieldName) throws InvalidJson {
+        JsonElement field = root.get(fieldName);
+        if (field == null || !field.isJsonObject()) {
+            throw new InvalidJson("Malformed JSON: " + fieldName + " is not an object");
+        }
+        return field.getAsJsonObject();
+    }
+
     public static String toJson(Object object) {
-        return getGson().toJson(object);
+        return gson.toJson(object);
     }
 
     public static <T> T fromJson(String json, Class<T> type) {
-        return getGson().fromJson(json, type);
+        return gson.fromJson(json, type);
     }
 
     public static <T> T fromJson(String json, Type type) {
-        return getGson().fromJson(json, type);
+        return gson.fromJson(json, type);
+    }
+
+    public static <T> T fromJson(Reader reader, Class<T> type) {
+        return gson.fromJson(reader, type);
+    }
+
+    public static <T> T fromJson(JsonElement json, Class<T> type) {
+        return gson.fromJson(json, type);
     }
 }
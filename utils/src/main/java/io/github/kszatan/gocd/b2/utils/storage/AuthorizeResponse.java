@@ -6,6 +6,15 @@
 
 package io.github.kszatan.gocd.b2.utils.storage;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.github.kszatan.gocd.b2.utils.json.NullableValues;
+
+import java.io.IOException;
+
+@JsonAdapter(AuthorizeResponse.Adapter.class)
 public class AuthorizeResponse {
     public Integer absoluteMinimumPartSize;
     public String accountId;
@@ -13,4 +22,57 @@ public class AuthorizeResponse {
     public String authorizationToken;
     public String downloadUrl;
     public Integer recommendedPartSize;
+
+    static class Adapter extends TypeAdapter<AuthorizeResponse> {
+        @Override
+        public void write(JsonWriter out, AuthorizeResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("absoluteMinimumPartSize").value(value.absoluteMinimumPartSize);
+            out.name("accountId").value(value.accountId);
+            out.name("apiUrl").value(value.apiUrl);
+            out.name("authorizationToken").value(value.authorizationToken);
+            out.name("downloadUrl").value(value.downloadUrl);
+            out.name("recommendedPartSize").value(value.recommendedPartSize);
+            out.endObject();
+        }
+
+        @Override
+        public AuthorizeResponse read(JsonReader in) throws IOException {
+            if (NullableValues.skipNull(in)) {
+                return null;
+            }
+            AuthorizeResponse value = new AuthorizeResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "absoluteMinimumPartSize":
+                        value.absoluteMinimumPartSize = NullableValues.nextInteger(in);
+                        break;
+                    case "accountId":
+                        value.accountId = NullableValues.nextString(in);
+                        break;
+                    case "apiUrl":
+                        value.apiUrl = NullableValues.nextString(in);
+                        break;
+                    case "authorizationToken":
+                        value.authorizationToken = NullableValues.nextString(in);
+                        break;
+                    case "downloadUrl":
+                        value.downloadUrl = NullableValues.nextString(in);
+                        break;
+                    case "recommendedPartSize":
+                        value.recommendedPartSize = NullableValues.nextInteger(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
 }
@@ -7,24 +7,33 @@
 package io.github.kszatan.gocd.b2.utils.storage;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import io.github.kszatan.gocd.b2.utils.json.GsonService;
 import io.github.kszatan.gocd.b2.utils.storage.api.*;
 import org.apache.commons.io.FilenameUtils;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 public class BackblazeStorage implements Storage {
     private static final Integer MAX_RETRY_ATTEMPTS = 5;
+    // Shared by all instances, so that materials polling the same bucket and prefix with the same credentials at once
+    // make a single call.
+    private static final SingleFlight<List<String>, Listing> listings = new SingleFlight<>(Listing::copy);
 
     private Logger logger = Logger.getLoggerFor(BackblazeStorage.class);
-    private String errorMessage = "";
+    // Per thread, like the wrapper's last error, so that parallel downloads each report their own failure.
+    private final ThreadLocal<String> errorMessage = ThreadLocal.withInitial(() -> "");
     private String bucketName;
     private String bucketId;
     private String accountId;
@@ -32,8 +41,14 @@ public class BackblazeStorage implements Storage {
     private BackblazeApiWrapper backblazeApiWrapper;
     private CredentialsManager credentialsManager;
     private AuthorizeResponse authorizeResponse;
-    private GetUploadUrlResponse getUploadUrlResponse;
-    private List<ProgressObserver> progressObservers = new ArrayList<>();
+    private volatile ThreadLocal<GetUploadUrlResponse> getUploadUrlResponse = new ThreadLocal<>();
+    private List<ProgressObserver> progressObservers = new CopyOnWriteArrayList<>();
+    private Integer partUploadThreads = 1;
+    private Integer partsHashedAhead = 0;
+    private Long segmentedDownloadThreshold = 0L;
+    private Integer downloadSegments = 1;
+    private Boolean resumableUpload = false;
+    private FileHash fileHash = new Sha1FileHash();
 
     public BackblazeStorage() throws IOException {
         this(null, new BackblazeApiWrapper(), new DummyCredentialsManager());
@@ -62,7 +77,7 @@ public class BackblazeStorage implements Storage {
         this.bucketName = bucketName;
         this.bucketId = null;
         this.authorizeResponse = null;
-        this.getUploadUrlResponse = null;
+        this.getUploadUrlResponse = new ThreadLocal<>();
         notify("Changing bucket name to '" + bucketName + "'");
     }
 
@@ -77,9 +92,36 @@ public class BackblazeStorage implements Storage {
         progressObservers.add(observer);
     }
 
+    @Override
+    public void setPartUploadThreads(Integer threads) {
+        this.partUploadThreads = (threads == null || threads < 1) ? 1 : threads;
+    }
+
+    @Override
+    public void setPartsHashedAhead(Integer parts) {
+        this.partsHashedAhead = (parts == null || parts < 0) ? 0 : parts;
+    }
+
+    @Override
+    public void setSegmentedDownload(Long threshold, Integer segments) {
+        this.segmentedDownloadThreshold = threshold == null ? 0L : threshold;
+        this.downloadSegments = (segments == null || segments < 1) ? 1 : segments;
+    }
+
+    @Override
+    public void setSinglePassUpload(Boolean singlePass) {
+        backblazeApiWrapper.setUploadHashMode(Boolean.TRUE.equals(singlePass)
+                ? UploadHashMode.AT_END : UploadHashMode.BEFORE_UPLOAD);
+    }
+
+    @Override
+    public void setResumableUpload(Boolean resumable) {
+        this.resumableUpload = Boolean.TRUE.equals(resumable);
+    }
+
     @Override
     public String getLastErrorMessage() {
-        return errorMessage;
+        return errorMessage.get();
     }
 
     @Override
@@ -99,7 +141,7 @@ public class BackblazeStorage implements Storage {
                     b -> credentialsManager.storeBucketId(accountId, applicationKey, b.name, b.id));
             Optional<Bucket> maybeBucket = getBucketByName(listBucketsResponse, bucketName);
             if (!maybeBucket.isPresent()) {
-                errorMessage = "Bucket '" + bucketName + "' not found";
+                errorMessage.set("Bucket '" + bucketName + "' not found");
                 return false;
             }
         } catch (StorageException e) {
@@ -111,7 +153,7 @@ public class BackblazeStorage implements Storage {
     }
 
     @Override
-    public Boolean authorize() throws StorageException {
+    public synchronized Boolean authorize() throws StorageException {
         try {
             if (credentialsManager.getAuthorizeResponse(accountId, applicationKey).isPresent()) {
                 return true;
@@ -157,7 +199,7 @@ public class BackblazeStorage implements Storage {
     private Optional<Bucket> getBucket(ListBucketsResponse listBucketsResponse) {
         Optional<Bucket> maybeBucket = getBucketByName(listBucketsResponse, bucketName);
         if (!maybeBucket.isPresent()) {
-            errorMessage = "Bucket '" + bucketName + "' doesn't exist";
+            errorMessage.set("Bucket '" + bucketName + "' doesn't exist");
             return Optional.empty();
         }
         return maybeBucket;
@@ -174,6 +216,13 @@ public class BackblazeStorage implements Storage {
     @Override
     public void upload(Path workDir, Path relativeFilePath, String destination)
             throws StorageException {
+        upload(workDir, relativeFilePath, destination, null);
+    }
+
+    // contentSha1 is the SHA-1 of the whole file if the caller already knows it, null otherwise.
+    @Override
+    public void upload(Path workDir, Path relativeFilePath, String destination, String contentSha1)
+            throws StorageException {
         AuthorizeResponse authorizeResponse =
                 credentialsManager.getAuthorizeResponse(accountId, applicationKey).orElse(this.authorizeResponse);
         if (authorizeResponse == null) {
@@ -183,12 +232,16 @@ public class BackblazeStorage implements Storage {
             try {
                 long fileSize = Files.size(workDir.resolve(relativeFilePath));
                 if (fileSize > authorizeResponse.recommendedPartSize) {
-                    uploadLargeFile(workDir, relativeFilePath, destination, authorizeResponse);
+                    uploadLargeFile(workDir, relativeFilePath, destination, contentSha1, authorizeResponse);
                 } else {
-                    uploadSmallFile(workDir, relativeFilePath, destination, authorizeResponse);
+                    uploadSmallFile(workDir, relativeFilePath, destination, contentSha1, authorizeResponse);
                 }
             } catch (LargeFileUploadException e) {
-                cancelLargeFileUpload(e.getFileId(), authorizeResponse);
+                if (resumableUpload) {
+                    notify("Leaving unfinished large file " + e.getFileId() + " for the next upload to resume.");
+                } else {
+                    cancelLargeFileUpload(e.getFileId(), authorizeResponse);
+                }
                 throw new StorageException(e.getCause());
             }
         } catch (IOException e) {
@@ -198,20 +251,22 @@ public class BackblazeStorage implements Storage {
         notify("Successfully uploaded " + relativeFilePath + " to " + destination + ".");
     }
 
-    private void uploadSmallFile(Path workDir, Path relativeFilePath, String destination, AuthorizeResponse authorizeResponse)
-            throws StorageException {
+    private void uploadSmallFile(Path workDir, Path relativeFilePath, String destination, String contentSha1,
+                                 AuthorizeResponse authorizeResponse) throws StorageException {
         String bucketId = credentialsManager.getBucketId(accountId, applicationKey, bucketName).orElse(this.bucketId);
         if (bucketId == null) {
             bucketId = fetchBucketId(authorizeResponse);
         }
-        if (getUploadUrlResponse == null) {
-            getUploadUrlResponse = getUploadUrl(authorizeResponse, bucketId).orElseThrow(
+        if (getUploadUrlResponse.get() == null) {
+            getUploadUrlResponse.set(getUploadUrl(authorizeResponse, bucketId).orElseThrow(
                     () -> new StorageException("Get upload URL operation failed")
-            );
+            ));
         }
         Upload upload = new Upload(backblazeApiWrapper, bucketId, workDir, relativeFilePath, destination,
-                authorizeResponse, getUploadUrlResponse);
-        if (!attempt(MAX_RETRY_ATTEMPTS, upload)) {
+                authorizeResponse, getUploadUrlResponse.get(), contentSha1);
+        boolean uploaded = attempt(MAX_RETRY_ATTEMPTS, upload);
+        getUploadUrlResponse.set(upload.getUploadUrlResponse());
+        if (!uploaded) {
             throw new StorageException("Upload operation failed");
         }
     }
@@ -224,12 +279,14 @@ public class BackblazeStorage implements Storage {
         return getUploadUrl.getResponse();
     }
 
-    private Optional<StartLargeFileResponse> startLargeFile(String fileName, AuthorizeResponse authorizeResponse) throws StorageException {
+    private Optional<StartLargeFileResponse> startLargeFile(String fileName, String largeFileSha1,
+                                                            AuthorizeResponse authorizeResponse) throws StorageException {
         String bucketId = credentialsManager.getBucketId(accountId, applicationKey, bucketName).orElse(this.bucketId);
         if (bucketId == null) {
             bucketId = fetchBucketId(authorizeResponse);
         }
-        StartLargeFile startLargeFile = new StartLargeFile(backblazeApiWrapper, authorizeResponse, fileName, bucketId);
+        StartLargeFile startLargeFile = new StartLargeFile(backblazeApiWrapper, authorizeResponse, fileName, bucketId,
+                largeFileSha1);
         if (!attempt(MAX_RETRY_ATTEMPTS, startLargeFile)) {
             return Optional.empty();
         }
@@ -253,27 +310,30 @@ public class BackblazeStorage implements Storage {
         return finishLargeFile.getResponse();
     }
 
-    private Optional<UploadPartResponse> uploadPart(GetUploadPartUrlResponse getUploadPartUrlResponse, int partLength,
-                                                    byte[] buf, int partNumber, AuthorizeResponse authorizeResponse) throws StorageException {
-        UploadPart uploadPart = new UploadPart(backblazeApiWrapper, buf, partLength, partNumber,
-                authorizeResponse, getUploadPartUrlResponse);
-        if (!attempt(MAX_RETRY_ATTEMPTS, uploadPart)) {
-            return Optional.empty();
-        }
-        return uploadPart.getResponse();
-    }
-
-    private void uploadLargeFile(Path workDir, Path relativeFilePath, String destination, AuthorizeResponse authorizeResponse)
-            throws StorageException, LargeFileUploadException {
+    private void uploadLargeFile(Path workDir, Path relativeFilePath, String destination, String largeFileSha1,
+                                 AuthorizeResponse authorizeResponse)
+            throws StorageException, IOException, LargeFileUploadException {
         final String backblazeFileName = FilenameUtils.normalize(Paths.get(destination).resolve(relativeFilePath).toString(), true);
-        final String fileId = startLargeFile(backblazeFileName, authorizeResponse).orElseThrow(
-                () -> new StorageException("Failed to start large file upload")
-        ).fileId;
+        Map<Integer, UploadPartResponse> storedParts = new HashMap<>();
+        String unfinishedFileId = null;
+        if (resumableUpload) {
+            unfinishedFileId = findUnfinishedLargeFile(backblazeFileName, largeFileSha1, authorizeResponse)
+                    .orElse(null);
+            if (unfinishedFileId != null) {
+                storedParts = listStoredParts(unfinishedFileId, authorizeResponse);
+                long partCount = partCount(Files.size(workDir.resolve(relativeFilePath)), authorizeResponse);
+                if (storedParts.keySet().stream().anyMatch(partNumber -> partNumber > partCount)) {
+                    unfinishedFileId = null;
+                    storedParts.clear();
+                }
+            }
+        }
+        final String fileId = unfinishedFileId != null ? unfinishedFileId
+                : startLargeFile(backblazeFileName, largeFileSha1, authorizeResponse).orElseThrow(
+                        () -> new StorageException("Failed to start large file upload")
+                ).fileId;
         try {
-            GetUploadPartUrlResponse getUploadPartUrlResponse = getUploadPartUrl(fileId, authorizeResponse).orElseThrow(
-                    () -> new StorageException("Failed to get upload part URL")
-            );
-            ArrayList<String> partSha1Array = doUpload(workDir, relativeFilePath, authorizeResponse, getUploadPartUrlResponse);
+            List<String> partSha1Array = doUpload(workDir, relativeFilePath, fileId, authorizeResponse, storedParts);
             finishLargeFile(fileId, partSha1Array, authorizeResponse).orElseThrow(
                     () -> new StorageException("Failed to finish large file")
             );
@@ -282,36 +342,171 @@ public class BackblazeStorage implements Storage {
         }
     }
 
-    private ArrayList<String> doUpload(Path workDir, Path relativeFilePath, AuthorizeResponse authorizeResponse,
-                                       GetUploadPartUrlResponse getUploadPartUrlResponse) throws StorageException, IOException {
-        File file = new File(workDir.resolve(relativeFilePath).toString());
-        final long fileSize = file.length();
-        long totalBytesSent = 0;
-        long partLength = authorizeResponse.recommendedPartSize;
-        byte[] buf = new byte[(int)partLength];
-        ArrayList<String> partSha1Array = new ArrayList<>();
-        int partNumber = 1;
-        while (totalBytesSent < fileSize) {
-            if ((fileSize - totalBytesSent) < authorizeResponse.recommendedPartSize) {
-                partLength = (fileSize - totalBytesSent);
+    // Returns the id of the latest unfinished large file with the given name that was started for the same content,
+    // as far as the recorded SHA-1 tells. Its parts are still checked against the file before they're reused.
+    private Optional<String> findUnfinishedLargeFile(String fileName, String largeFileSha1,
+                                                     AuthorizeResponse authorizeResponse) throws StorageException {
+        String bucketId = credentialsManager.getBucketId(accountId, applicationKey, bucketName).orElse(this.bucketId);
+        if (bucketId == null) {
+            bucketId = fetchBucketId(authorizeResponse);
+        }
+        FileName latest = null;
+        String startFileId = null;
+        do {
+            ListUnfinishedLargeFiles listUnfinishedLargeFiles = new ListUnfinishedLargeFiles(backblazeApiWrapper,
+                    authorizeResponse, bucketId, fileName, startFileId);
+            if (!attempt(MAX_RETRY_ATTEMPTS, listUnfinishedLargeFiles)) {
+                return Optional.empty();
+            }
+            ListUnfinishedLargeFilesResponse response = listUnfinishedLargeFiles.getResponse().get();
+            for (FileName file : response.files) {
+                String sha1 = file.fileInfo == null ? null : file.fileInfo.largeFileSha1;
+                if (file.fileName.equals(fileName) && Objects.equals(sha1, largeFileSha1)
+                        && (latest == null || file.uploadTimestamp > latest.uploadTimestamp)) {
+                    latest = file;
+                }
+            }
+            startFileId = response.nextFileId;
+        } while (startFileId != null);
+        return Optional.ofNullable(latest).map(file -> file.fileId);
+    }
+
+    private Map<Integer, UploadPartResponse> listStoredParts(String fileId, AuthorizeResponse authorizeResponse)
+            throws StorageException {
+        Map<Integer, UploadPartResponse> storedParts = new HashMap<>();
+        Integer startPartNumber = null;
+        do {
+            ListParts listParts = new ListParts(backblazeApiWrapper, authorizeResponse, fileId, startPartNumber);
+            if (!attempt(MAX_RETRY_ATTEMPTS, listParts)) {
+                throw new StorageException("Failed to list parts of " + fileId);
+            }
+            ListPartsResponse response = listParts.getResponse().get();
+            response.parts.forEach(part -> storedParts.put(part.partNumber, part));
+            startPartNumber = response.nextPartNumber;
+        } while (startPartNumber != null);
+        return storedParts;
+    }
+
+    private static long partCount(long fileSize, AuthorizeResponse authorizeResponse) {
+        final long partSize = authorizeResponse.recommendedPartSize;
+        return (fileSize + partSize - 1) / partSize;
+    }
+
+    private List<String> doUpload(Path workDir, Path relativeFilePath, String fileId, AuthorizeResponse authorizeResponse,
+                                  Map<Integer, UploadPartResponse> storedParts) throws StorageException, IOException {
+        try (FileChannel fileChannel = FileChannel.open(workDir.resolve(relativeFilePath), StandardOpenOption.READ)) {
+            final long fileSize = fileChannel.size();
+            final long partSize = authorizeResponse.recommendedPartSize;
+            final PartQueue parts = new PartQueue((int) partCount(fileSize, authorizeResponse));
+            int reused = reuseStoredParts(fileChannel, fileSize, partSize, storedParts, parts);
+            if (reused > 0) {
+                notify("Resuming upload of " + relativeFilePath + ": " + reused + " of " + parts.sha1Array.length
+                        + " parts already stored.");
+                if (reused == parts.sha1Array.length) {
+                    return Arrays.asList(parts.sha1Array);
+                }
+            }
+            if (partsHashedAhead > 0) {
+                parts.hashes = new PartHashPipeline(fileHash, fileChannel, fileSize, partSize, parts.pending(),
+                        partsHashedAhead);
+            }
+            try {
+                return uploadAllParts(fileChannel, fileSize, relativeFilePath, fileId, authorizeResponse, parts);
+            } finally {
+                if (parts.hashes != null) {
+                    parts.hashes.close();
+                }
             }
-            readFilePart(file, totalBytesSent, (int) partLength, buf);
-            String partSha1 = uploadPart(getUploadPartUrlResponse, (int) partLength, buf, partNumber, authorizeResponse).orElseThrow(
-                    () -> new StorageException("Failed to get upload part")
-            ).contentSha1;
-            notify("Successfully uploaded part " + partNumber + " of " + relativeFilePath + ".");
-            partSha1Array.add(partSha1);
-            totalBytesSent = totalBytesSent + partLength;
-            partNumber++;
         }
-        return partSha1Array;
     }
 
-    private void readFilePart(File file, long totalBytesSent, int partLength, byte[] buf) throws IOException {
-        FileInputStream fileInputStream = new FileInputStream(file);
-        fileInputStream.skip(totalBytesSent);
-        fileInputStream.read(buf, 0, partLength);
-        fileInputStream.close();
+    // Stored parts are only taken over when their length and SHA-1 match the file as it is now, the rest is uploaded
+    // again under the same part numbers.
+    private int reuseStoredParts(FileChannel fileChannel, long fileSize, long partSize,
+                                 Map<Integer, UploadPartResponse> storedParts, PartQueue parts)
+            throws StorageException, IOException {
+        int reused = 0;
+        for (UploadPartResponse part : storedParts.values()) {
+            int index = part.partNumber - 1;
+            long offset = index * partSize;
+            long partLength = Math.min(partSize, fileSize - offset);
+            if (part.contentLength == null || part.contentLength != partLength) {
+                continue;
+            }
+            try {
+                if (fileHash.getHashValue(fileChannel, offset, partLength).equalsIgnoreCase(part.contentSha1)) {
+                    parts.sha1Array[index] = part.contentSha1;
+                    reused++;
+                }
+            } catch (NoSuchAlgorithmException e) {
+                throw new StorageException("Failed to hash part " + part.partNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return reused;
+    }
+
+    private List<String> uploadAllParts(FileChannel fileChannel, long fileSize, Path relativeFilePath, String fileId,
+                                        AuthorizeResponse authorizeResponse, PartQueue parts)
+            throws StorageException, IOException {
+        int workers = Math.min(partUploadThreads, parts.sha1Array.length);
+        if (workers <= 1) {
+            uploadParts(fileChannel, fileSize, relativeFilePath, fileId, authorizeResponse, parts);
+            return Arrays.asList(parts.sha1Array);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    uploadParts(fileChannel, fileSize, relativeFilePath, fileId, authorizeResponse, parts);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StorageException) {
+                throw (StorageException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new StorageException("Part upload failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Part upload interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return Arrays.asList(parts.sha1Array);
+    }
+
+    private void uploadParts(FileChannel fileChannel, long fileSize, Path relativeFilePath, String fileId,
+                             AuthorizeResponse authorizeResponse, PartQueue parts) throws StorageException {
+        try {
+            GetUploadPartUrlResponse getUploadPartUrlResponse = getUploadPartUrl(fileId, authorizeResponse).orElseThrow(
+                    () -> new StorageException("Failed to get upload part URL")
+            );
+            final long partSize = authorizeResponse.recommendedPartSize;
+            int index;
+            while ((index = parts.next()) >= 0) {
+                long offset = index * partSize;
+                int partLength = (int) Math.min(partSize, fileSize - offset);
+                String contentSha1 = parts.hashes == null ? null : parts.hashes.get(index);
+                UploadPart uploadPart = new UploadPart(backblazeApiWrapper, fileChannel, offset, partLength, index + 1,
+                        authorizeResponse, getUploadPartUrlResponse, contentSha1);
+                if (!attempt(MAX_RETRY_ATTEMPTS, uploadPart)) {
+                    throw new StorageException("Failed to get upload part");
+                }
+                getUploadPartUrlResponse = uploadPart.getUploadPartUrlResponse();
+                parts.sha1Array[index] = uploadPart.getResponse().get().contentSha1;
+                notify("Successfully uploaded part " + (index + 1) + " of " + relativeFilePath + ".");
+            }
+        } catch (StorageException | RuntimeException e) {
+            parts.failed = true;
+            throw e;
+        }
     }
 
     private Optional<CancelLargeFileResponse> cancelLargeFileUpload(String fileId, AuthorizeResponse authorizeResponse) throws StorageException {
@@ -336,11 +531,15 @@ public class BackblazeStorage implements Storage {
                 bucketId = fetchBucketId(authorizeResponse);
             }
             ListFileNames listFileNames = new ListFileNames(backblazeApiWrapper, authorizeResponse, bucketId, startFileName, prefix, delimiter);
-            if (!attempt(MAX_RETRY_ATTEMPTS, listFileNames)) {
-                response = Optional.empty();
-            } else {
-                response = listFileNames.getResponse();
+            Listing listing = listings.run(
+                    Arrays.asList(accountId, applicationKey, bucketId, prefix, delimiter, startFileName),
+                    () -> attempt(MAX_RETRY_ATTEMPTS, listFileNames)
+                            ? new Listing(listFileNames.getResponse(), null)
+                            : new Listing(Optional.empty(), errorMessage.get()));
+            if (listing.errorMessage != null) {
+                errorMessage.set(listing.errorMessage);
             }
+            response = listing.response;
         } catch (StorageException e) {
             logger.info("listFiles error: " + e.getMessage());
             throw new StorageException("Failed to list files: " + e.getMessage(), e.getCause());
@@ -348,6 +547,28 @@ public class BackblazeStorage implements Storage {
         return response;
     }
 
+    @Override
+    public Boolean downloadStream(String fileName, String fileNamePrefix, DownloadConsumer consumer)
+            throws StorageException {
+        AuthorizeResponse authorizeResponse =
+                credentialsManager.getAuthorizeResponse(accountId, applicationKey).orElse(this.authorizeResponse);
+        if (authorizeResponse == null) {
+            throw new StorageException("Authorize not called");
+        }
+        try {
+            DownloadStream download = new DownloadStream(backblazeApiWrapper, bucketName, fileName, fileNamePrefix,
+                    authorizeResponse, consumer);
+            if (!attempt(MAX_RETRY_ATTEMPTS, download)) {
+                return false;
+            }
+        } catch (StorageException  e) {
+            logger.info("download error: " + e.getMessage());
+            throw new StorageException("Failed to download " + fileName + ": " + e.getMessage(), e.getCause());
+        }
+        notify("Successfully downloaded " + fileName + ".");
+        return true;
+    }
+
     @Override
     public Boolean download(String fileName, Path destination, String fileNamePrefix) throws StorageException {
         AuthorizeResponse authorizeResponse =
@@ -368,6 +589,123 @@ public class BackblazeStorage implements Storage {
         return true;
     }
 
+    @Override
+    public Boolean download(String fileName, Long contentLength, Path destination, String fileNamePrefix)
+            throws StorageException {
+        if (contentLength == null || segmentedDownloadThreshold <= 0 || downloadSegments < 2
+                || contentLength < segmentedDownloadThreshold) {
+            return download(fileName, destination, fileNamePrefix);
+        }
+        AuthorizeResponse authorizeResponse =
+                credentialsManager.getAuthorizeResponse(accountId, applicationKey).orElse(this.authorizeResponse);
+        if (authorizeResponse == null) {
+            throw new StorageException("Authorize not called");
+        }
+        try {
+            if (!downloadSegments(fileName, contentLength, destination, fileNamePrefix, authorizeResponse)) {
+                return false;
+            }
+        } catch (StorageException e) {
+            logger.info("download error: " + e.getMessage());
+            throw new StorageException("Failed to download " + fileName + ": " + e.getMessage(), e.getCause());
+        }
+        notify("Successfully downloaded " + fileName + " to " + destination + " in " + downloadSegments + " segments.");
+        return true;
+    }
+
+    private Boolean downloadSegments(String fileName, long contentLength, Path destination, String fileNamePrefix,
+                                     AuthorizeResponse authorizeResponse) throws StorageException {
+        final Path filePath = destination.resolve(Paths.get("", fileName.split("/")));
+        final long segmentSize = (contentLength + downloadSegments - 1) / downloadSegments;
+        List<DownloadRange> ranges = new ArrayList<>();
+        boolean success = false;
+        try {
+            createDirectories(filePath.getParent());
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.allocate(1), contentLength - 1);
+                for (long firstByte = 0; firstByte < contentLength; firstByte += segmentSize) {
+                    long lastByte = Math.min(firstByte + segmentSize, contentLength) - 1;
+                    ranges.add(new DownloadRange(backblazeApiWrapper, bucketName, fileName, fileNamePrefix,
+                            firstByte, lastByte, channel, authorizeResponse));
+                }
+                if (!downloadRanges(ranges)) {
+                    return false;
+                }
+            }
+            verifySha1(fileName, filePath, ranges.get(0).getResponse().get());
+            success = true;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new StorageException("Exception while downloading file: " + e.getMessage(), e);
+        } finally {
+            if (!success) {
+                try {
+                    Files.deleteIfExists(filePath);
+                } catch (IOException e) {
+                    logger.info("Failed to remove incomplete download " + filePath + ": " + e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    private Boolean downloadRanges(List<DownloadRange> ranges) throws StorageException {
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size());
+        try {
+            // Each segment's error message, null for segments that were downloaded.
+            List<Future<String>> futures = new ArrayList<>();
+            for (DownloadRange range : ranges) {
+                futures.add(executor.submit(() -> attempt(MAX_RETRY_ATTEMPTS, range) ? null : errorMessage.get()));
+            }
+            Boolean success = true;
+            for (Future<String> future : futures) {
+                String failure = future.get();
+                if (failure != null) {
+                    errorMessage.set(failure);
+                    success = false;
+                }
+            }
+            return success;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StorageException) {
+                throw (StorageException) e.getCause();
+            }
+            throw new StorageException("Segment download failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Segment download interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void verifySha1(String fileName, Path filePath, DownloadFileResponse response)
+            throws StorageException, IOException, NoSuchAlgorithmException {
+        String expected = response.contentSha1;
+        if (expected == null || expected.equals("none")) {
+            expected = response.largeFileSha1;
+        }
+        if (expected == null) {
+            logger.info("No SHA-1 available for " + fileName + ", skipping verification");
+            return;
+        }
+        expected = expected.replaceFirst("^unverified:", "");
+        String actual = fileHash.getHashValue(filePath);
+        if (!actual.equalsIgnoreCase(expected)) {
+            throw new StorageException("SHA-1 mismatch for " + fileName + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void createDirectories(Path path) throws IOException {
+        try {
+            Files.createDirectories(path);
+        } catch (FileAlreadyExistsException e) {
+            if (!Files.isDirectory(path)) {
+                throw e;
+            }
+        }
+    }
+
     private Boolean attempt(final Integer times, final B2ApiCall action) throws StorageException {
         int attempt;
         for (attempt = 0; attempt < times; attempt++) {
@@ -379,19 +717,23 @@ public class BackblazeStorage implements Storage {
             try {
                 action.handleErrors(errorResponse);
             } catch (UnauthorizedCallException e) {
-                credentialsManager.forgetCredentials(accountId, applicationKey);
-                authorize();
+                reauthorize();
             }
             notify("Failed to " + action.getName() + ": (" + errorResponse.status + ") " + errorResponse.message);
             notify("Retrying...");
         }
         Boolean success = attempt < times;
         if (!success) {
-            errorMessage = "Failed to " + action.getName() + ": maximum number of retry attempts reached";
+            errorMessage.set("Failed to " + action.getName() + ": maximum number of retry attempts reached");
         }
         return success;
     }
 
+    private synchronized void reauthorize() throws StorageException {
+        credentialsManager.forgetCredentials(accountId, applicationKey);
+        authorize();
+    }
+
     private Optional<Bucket> getBucketByName(ListBucketsResponse listBucketsResponse, String bucketName) {
         return listBucketsResponse.buckets.stream().filter(b -> b.name.equals(bucketName)).findFirst();
     }
@@ -399,4 +741,48 @@ public class BackblazeStorage implements Storage {
     private void notify(String notification) {
         progressObservers.stream().forEach(o -> o.notify(notification));
     }
+
+    // A listing together with the error that made it fail, which followers of a shared call report as their own.
+    private static class Listing {
+        final Optional<ListFileNamesResponse> response;
+        final String errorMessage;
+
+        Listing(Optional<ListFileNamesResponse> response, String errorMessage) {
+            this.response = response;
+            this.errorMessage = errorMessage;
+        }
+
+        Listing copy() {
+            return new Listing(response.map(r -> GsonService.fromJson(GsonService.toJson(r),
+                    ListFileNamesResponse.class)), errorMessage);
+        }
+    }
+
+    private static class PartQueue {
+        final String[] sha1Array;
+        final AtomicInteger nextIndex = new AtomicInteger();
+        PartHashPipeline hashes;
+        volatile boolean failed = false;
+
+        PartQueue(int partCount) {
+            this.sha1Array = new String[partCount];
+        }
+
+        // Parts that still have to be uploaded, in the order next() hands them out.
+        int[] pending() {
+            return IntStream.range(0, sha1Array.length).filter(index -> sha1Array[index] == null).toArray();
+        }
+
+        // Skips parts that were already stored by an earlier, unfinished upload.
+        int next() {
+            if (failed) {
+                return -1;
+            }
+            int index;
+            do {
+                index = nextIndex.getAndIncrement();
+            } while (index < sha1Array.length && sha1Array[index] != null);
+            return index < sha1Array.length ? index : -1;
+        }
+    }
 }
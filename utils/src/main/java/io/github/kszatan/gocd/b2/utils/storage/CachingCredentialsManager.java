@@ -6,61 +6,159 @@
 
 package io.github.kszatan.gocd.b2.utils.storage;
 
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
+// Keeps authorization and bucket ids of the most recently used credentials; the least recently used ones are dropped
+// once there are more than maxEntries of them. B2 tokens are valid for 24 hours, so a response is dropped when it's
+// that old, before B2 starts rejecting it. Given an authorizer, a response asked for in the last hour of its life is
+// replaced in the background, so that busy credentials never have to authorize while a request waits.
 public class CachingCredentialsManager implements CredentialsManager {
-    private Map<List<String>, AuthorizeResponse> authorizeResponseCache;
-    private Map<List<String>, Map<String, String>> bucketIdCache;
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long TOKEN_LIFETIME_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long REFRESH_AHEAD_MILLIS = 60 * 60 * 1000L;
+
+    @FunctionalInterface
+    public interface Authorizer {
+        Optional<AuthorizeResponse> authorize(String accountId, String applicationKey) throws IOException;
+    }
+
+    private final Logger logger = Logger.getLoggerFor(CachingCredentialsManager.class);
+    private final Map<List<String>, CredentialsEntry> entries;
+    private final Authorizer authorizer;
+    private final Executor executor;
+    private final long lifetimeMillis;
+    private final LongSupplier clock;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class CredentialsEntry {
+        volatile AuthorizeResponse authorizeResponse;
+        volatile long authorizedAt;
+        volatile boolean refreshing;
+        final Map<String, String> bucketIds = new ConcurrentHashMap<>();
+    }
 
     public CachingCredentialsManager() {
-        authorizeResponseCache = new HashMap<>();
-        bucketIdCache = new HashMap<>();
+        this(null);
+    }
+
+    public CachingCredentialsManager(Authorizer authorizer) {
+        this(authorizer, DEFAULT_MAX_ENTRIES, TOKEN_LIFETIME_MILLIS, authorizer == null ? null : newExecutor(),
+                System::currentTimeMillis);
+    }
+
+    public CachingCredentialsManager(Authorizer authorizer, int maxEntries, long lifetimeMillis, Executor executor,
+                                     LongSupplier clock) {
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<List<String>, CredentialsEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, CredentialsEntry> eldest) {
+                return size() > maxEntries;
+            }
+        });
+        this.authorizer = authorizer;
+        this.executor = executor;
+        this.lifetimeMillis = lifetimeMillis;
+        this.clock = clock;
     }
 
     @Override
     public void storeAuthorizeResponse(String accountId, String applicationKey, AuthorizeResponse authorizeResponse) {
-        authorizeResponseCache.put(Arrays.asList(accountId, applicationKey), authorizeResponse);
+        CredentialsEntry entry = entry(Arrays.asList(accountId, applicationKey));
+        entry.authorizeResponse = authorizeResponse;
+        entry.authorizedAt = clock.getAsLong();
     }
 
     @Override
     public Optional<AuthorizeResponse> getAuthorizeResponse(String accountId, String applicationKey) {
         List<String> key = Arrays.asList(accountId, applicationKey);
-        if (authorizeResponseCache.containsKey(key)) {
-            return Optional.of(authorizeResponseCache.get(key));
+        CredentialsEntry entry = entries.get(key);
+        AuthorizeResponse authorizeResponse = entry == null ? null : entry.authorizeResponse;
+        if (authorizeResponse == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        long age = clock.getAsLong() - entry.authorizedAt;
+        if (age >= lifetimeMillis) {
+            entries.remove(key, entry);
+            misses.incrementAndGet();
+            return Optional.empty();
         }
-        return Optional.empty();
+        if (age >= lifetimeMillis - REFRESH_AHEAD_MILLIS) {
+            refresh(key, entry);
+        }
+        hits.incrementAndGet();
+        return Optional.of(authorizeResponse);
     }
 
     @Override
     public void storeBucketId(String accountId, String applicationKey, String bucketName, String bucketId) {
-        List<String> key = Arrays.asList(accountId, applicationKey);
-        Map<String, String> nameAndId;
-        if (bucketIdCache.containsKey(key)) {
-            nameAndId = bucketIdCache.get(key);
-        } else {
-            nameAndId = new HashMap<>();
-        }
-        nameAndId.put(bucketName, bucketId);
-        bucketIdCache.put(key, nameAndId);
+        entry(Arrays.asList(accountId, applicationKey)).bucketIds.put(bucketName, bucketId);
     }
 
     @Override
     public Optional<String> getBucketId(String accountId, String applicationKey, String bucketName) {
-        List<String> key = Arrays.asList(accountId, applicationKey);
-        if (!bucketIdCache.containsKey(key)) {
-            return Optional.empty();
-        }
-        Map<String, String> nameAndId = bucketIdCache.get(key);
-        if (!nameAndId.containsKey(bucketName)) {
-            return Optional.empty();
-        }
-        return Optional.of(nameAndId.get(bucketName));
+        CredentialsEntry entry = entries.get(Arrays.asList(accountId, applicationKey));
+        String bucketId = entry == null ? null : entry.bucketIds.get(bucketName);
+        (bucketId == null ? misses : hits).incrementAndGet();
+        return Optional.ofNullable(bucketId);
     }
 
     @Override
     public void forgetCredentials(String accountId, String applicationKey) {
-        List<String> key = Arrays.asList(accountId, applicationKey);
-        authorizeResponseCache.remove(key);
-        bucketIdCache.remove(key);
+        entries.remove(Arrays.asList(accountId, applicationKey));
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private CredentialsEntry entry(List<String> key) {
+        return entries.computeIfAbsent(key, k -> new CredentialsEntry());
+    }
+
+    // Only one refresh per entry at a time; a failed one is retried on a later hit until the response expires.
+    private void refresh(List<String> key, CredentialsEntry entry) {
+        if (authorizer == null || executor == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.refreshing) {
+                return;
+            }
+            entry.refreshing = true;
+        }
+        executor.execute(() -> {
+            try {
+                Optional<AuthorizeResponse> authorizeResponse = authorizer.authorize(key.get(0), key.get(1));
+                if (authorizeResponse.isPresent()) {
+                    entry.authorizeResponse = authorizeResponse.get();
+                    entry.authorizedAt = clock.getAsLong();
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Background authorization refresh failed: " + e.getMessage());
+            } finally {
+                entry.refreshing = false;
+            }
+        });
+    }
+
+    private static Executor newExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "b2-credentials-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 }
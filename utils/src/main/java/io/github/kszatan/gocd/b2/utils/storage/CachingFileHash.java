@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// Remembers SHA-1 of whole files in an append-only index keyed by absolute path, size and modification time, so
+// files that haven't changed since they were last hashed aren't read again. Parts of files are always hashed by the
+// decorated FileHash.
+public class CachingFileHash implements FileHash {
+    // A file modified within this window of being hashed could change again without its timestamp moving.
+    static final long RACY_WINDOW_MS = 2000;
+    private static final int COMPACTION_SLACK = 1024;
+    private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+    // FileLock is held per JVM, so threads and instances sharing an index have to take turns before locking.
+    private static final Object indexMonitor = new Object();
+
+    private final FileHash fileHash;
+    private final Path indexPath;
+    private final Path lockPath;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+    private Logger logger = Logger.getLoggerFor(CachingFileHash.class);
+
+    static class Entry {
+        final long size;
+        final long lastModified;
+        final String hash;
+
+        Entry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    public CachingFileHash(FileHash fileHash, Path indexPath) {
+        this.fileHash = fileHash;
+        this.indexPath = indexPath.toAbsolutePath();
+        this.lockPath = Paths.get(this.indexPath + ".lock");
+    }
+
+    @Override
+    public String getHashValue(Path filePath) throws IOException, NoSuchAlgorithmException {
+        Path absolutePath = filePath.toAbsolutePath().normalize();
+        String key = absolutePath.toString();
+        BasicFileAttributes before = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+        load();
+        Entry entry = entries.get(key);
+        if (entry != null && matches(entry, before)) {
+            return entry.hash;
+        }
+        long start = System.currentTimeMillis();
+        String hash = fileHash.getHashValue(absolutePath);
+        BasicFileAttributes after = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+        if (before.size() == after.size() && before.lastModifiedTime().equals(after.lastModifiedTime())
+                && after.lastModifiedTime().toMillis() < start - RACY_WINDOW_MS && key.indexOf('\n') < 0
+                && key.indexOf('\r') < 0) {
+            entry = new Entry(after.size(), after.lastModifiedTime().toMillis(), hash);
+            entries.put(key, entry);
+            append(key, entry);
+        }
+        return hash;
+    }
+
+    @Override
+    public String getHashValue(byte[] buffer, int length) throws IOException, NoSuchAlgorithmException {
+        return fileHash.getHashValue(buffer, length);
+    }
+
+    @Override
+    public String getHashValue(FileChannel channel, long position, long length)
+            throws IOException, NoSuchAlgorithmException {
+        return fileHash.getHashValue(channel, position, length);
+    }
+
+    private static boolean matches(Entry entry, BasicFileAttributes attributes) {
+        return entry.size == attributes.size() && entry.lastModified == attributes.lastModifiedTime().toMillis();
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (indexMonitor) {
+            if (loaded) {
+                return;
+            }
+            try {
+                int lines = read();
+                if (lines > 2 * entries.size() + COMPACTION_SLACK) {
+                    compact();
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to read hash index " + indexPath + ": " + e.getMessage());
+            }
+            loaded = true;
+        }
+    }
+
+    // Returns the number of lines in the index. Lines cut short by a crash don't parse and are ignored; later
+    // lines override earlier ones.
+    private int read() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return 0;
+        }
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                lines++;
+                String[] fields = line.split("\t", 4);
+                if (fields.length != 4 || !SHA1.matcher(fields[0]).matches()) {
+                    continue;
+                }
+                try {
+                    entries.put(fields[3], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0]));
+                } catch (NumberFormatException e) {
+                    // skip corrupted line
+                }
+            }
+        }
+        return lines;
+    }
+
+    private void append(String key, Entry entry) {
+        String line = entry.hash + "\t" + entry.size + "\t" + entry.lastModified + "\t" + key + "\n";
+        synchronized (indexMonitor) {
+            try (FileChannel lockChannel = openLock()) {
+                FileLock lock = lockChannel.lock();
+                try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    long size = index.size();
+                    if (size > 0 && !endsWithNewLine(index, size)) {
+                        line = "\n" + line;
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+                    long position = size;
+                    while (buffer.hasRemaining()) {
+                        position += index.write(buffer, position);
+                    }
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to update hash index " + indexPath + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Rewrites the index without superseded lines and files that no longer exist. The new index is moved into
+    // place atomically, so a crash leaves either the old or the new one.
+    private void compact() throws IOException {
+        try (FileChannel lockChannel = openLock()) {
+            FileLock lock = lockChannel.lock();
+            try {
+                read();
+                entries.keySet().removeIf(path -> !Files.exists(Paths.get(path)));
+                Path temp = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(), ".tmp");
+                try {
+                    try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                            Entry entry = e.getValue();
+                            writer.write(entry.hash + "\t" + entry.size + "\t" + entry.lastModified + "\t"
+                                    + e.getKey() + "\n");
+                        }
+                    }
+                    Files.move(temp, indexPath, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private FileChannel openLock() throws IOException {
+        Files.createDirectories(lockPath.getParent());
+        return FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private static boolean endsWithNewLine(FileChannel channel, long size) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+        return last.get(0) == '\n';
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Receives the content of a downloaded file as it arrives. May be called again for the same file if the download is
+// retried, so it has to be able to start over.
+@FunctionalInterface
+public interface DownloadConsumer {
+    void accept(InputStream content) throws IOException;
+}
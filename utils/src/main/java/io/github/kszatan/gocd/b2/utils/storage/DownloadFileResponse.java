@@ -10,4 +10,5 @@ public class DownloadFileResponse {
     public String fileId;
     public String fileName;
     public String contentSha1;
+    public String largeFileSha1;
 }
@@ -7,10 +7,12 @@
 package io.github.kszatan.gocd.b2.utils.storage;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 
 public interface FileHash {
     String getHashValue(Path filePath) throws IOException, NoSuchAlgorithmException;
     String getHashValue(byte[] buffer, int length) throws IOException, NoSuchAlgorithmException;
+    String getHashValue(FileChannel channel, long position, long length) throws IOException, NoSuchAlgorithmException;
 }
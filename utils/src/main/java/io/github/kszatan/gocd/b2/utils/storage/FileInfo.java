@@ -11,4 +11,7 @@ import com.google.gson.annotations.SerializedName;
 public class FileInfo {
     @SerializedName("src_last_modified_millis")
     public String srcLastModifiedMillis;
+
+    @SerializedName("large_file_sha1")
+    public String largeFileSha1;
 }
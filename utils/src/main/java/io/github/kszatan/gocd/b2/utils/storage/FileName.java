@@ -6,14 +6,115 @@
 
 package io.github.kszatan.gocd.b2.utils.storage;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.github.kszatan.gocd.b2.utils.json.NullableValues;
+
+import java.io.IOException;
+
+@JsonAdapter(FileName.Adapter.class)
 public class FileName {
     public String fileId;
     public String fileName;
     public String action;
-    public Integer contentLength;
-    public Integer size;
+    public Long contentLength;
+    public Long size;
     public Long uploadTimestamp;
     public String contentType;
     public String contentSha1;
     public FileInfo fileInfo;
+
+    static class Adapter extends TypeAdapter<FileName> {
+        @Override
+        public void write(JsonWriter out, FileName value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("fileId").value(value.fileId);
+            out.name("fileName").value(value.fileName);
+            out.name("action").value(value.action);
+            out.name("contentLength").value(value.contentLength);
+            out.name("size").value(value.size);
+            out.name("uploadTimestamp").value(value.uploadTimestamp);
+            out.name("contentType").value(value.contentType);
+            out.name("contentSha1").value(value.contentSha1);
+            if (value.fileInfo != null) {
+                out.name("fileInfo").beginObject();
+                out.name("src_last_modified_millis").value(value.fileInfo.srcLastModifiedMillis);
+                out.name("large_file_sha1").value(value.fileInfo.largeFileSha1);
+                out.endObject();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public FileName read(JsonReader in) throws IOException {
+            if (NullableValues.skipNull(in)) {
+                return null;
+            }
+            FileName value = new FileName();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "fileId":
+                        value.fileId = NullableValues.nextString(in);
+                        break;
+                    case "fileName":
+                        value.fileName = NullableValues.nextString(in);
+                        break;
+                    case "action":
+                        value.action = NullableValues.nextString(in);
+                        break;
+                    case "contentLength":
+                        value.contentLength = NullableValues.nextLong(in);
+                        break;
+                    case "size":
+                        value.size = NullableValues.nextLong(in);
+                        break;
+                    case "uploadTimestamp":
+                        value.uploadTimestamp = NullableValues.nextLong(in);
+                        break;
+                    case "contentType":
+                        value.contentType = NullableValues.nextString(in);
+                        break;
+                    case "contentSha1":
+                        value.contentSha1 = NullableValues.nextString(in);
+                        break;
+                    case "fileInfo":
+                        value.fileInfo = readFileInfo(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+
+        private static FileInfo readFileInfo(JsonReader in) throws IOException {
+            if (NullableValues.skipNull(in)) {
+                return null;
+            }
+            FileInfo fileInfo = new FileInfo();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "src_last_modified_millis":
+                        fileInfo.srcLastModifiedMillis = NullableValues.nextString(in);
+                        break;
+                    case "large_file_sha1":
+                        fileInfo.largeFileSha1 = NullableValues.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return fileInfo;
+        }
+    }
 }
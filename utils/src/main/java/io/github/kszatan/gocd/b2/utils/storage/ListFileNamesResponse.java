@@ -6,13 +6,74 @@
 
 package io.github.kszatan.gocd.b2.utils.storage;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.github.kszatan.gocd.b2.utils.json.NullableValues;
+
+import java.io.IOException;
 
 import java.util.ArrayList;
 import java.util.List;
 
+@JsonAdapter(ListFileNamesResponse.Adapter.class)
 public class ListFileNamesResponse {
     @SerializedName("files")
     public List<FileName> fileNames = new ArrayList<>();
     public String nextFileName;
+
+    static class Adapter extends TypeAdapter<ListFileNamesResponse> {
+        private final FileName.Adapter fileNameAdapter = new FileName.Adapter();
+
+        @Override
+        public void write(JsonWriter out, ListFileNamesResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (value.fileNames != null) {
+                out.name("files").beginArray();
+                for (FileName fileName : value.fileNames) {
+                    fileNameAdapter.write(out, fileName);
+                }
+                out.endArray();
+            }
+            out.name("nextFileName").value(value.nextFileName);
+            out.endObject();
+        }
+
+        @Override
+        public ListFileNamesResponse read(JsonReader in) throws IOException {
+            if (NullableValues.skipNull(in)) {
+                return null;
+            }
+            ListFileNamesResponse value = new ListFileNamesResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "files":
+                        if (NullableValues.skipNull(in)) {
+                            value.fileNames = null;
+                            break;
+                        }
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            value.fileNames.add(fileNameAdapter.read(in));
+                        }
+                        in.endArray();
+                        break;
+                    case "nextFileName":
+                        value.nextFileName = NullableValues.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Lists files of a published revision. In the content-addressed layout the revision holds only the manifest and
+// every file is stored once under its SHA-1 as blobName.
+public class Manifest {
+    public Integer version = 1;
+    public Boolean contentAddressed = false;
+    public Long uploadTimestamp;
+    public List<Entry> files = new ArrayList<>();
+
+    public static class Entry {
+        public String fileName;
+        public Long contentLength;
+        public String contentSha1;
+        public String blobName;
+
+        public Entry() {
+        }
+
+        public Entry(String fileName, Long contentLength, String contentSha1, String blobName) {
+            this.fileName = fileName;
+            this.contentLength = contentLength;
+            this.contentSha1 = contentSha1;
+            this.blobName = blobName;
+        }
+    }
+}
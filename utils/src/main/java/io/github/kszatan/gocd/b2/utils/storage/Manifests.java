@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import com.google.gson.JsonParseException;
+import io.github.kszatan.gocd.b2.utils.json.GsonService;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static io.github.kszatan.gocd.b2.utils.Constants.MANIFEST_FILE_NAME;
+
+public class Manifests {
+    // Reads the manifest of the revision stored under prefix. Revisions published before manifests were introduced
+    // don't have one, and neither do ones whose manifest can't be read, so callers fall back to listing files.
+    // Unauthorized calls are still reported, so that the caller can authorize again.
+    public static Optional<Manifest> read(Storage storage, String prefix) throws UnauthorizedCallException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try {
+            if (!storage.downloadStream(MANIFEST_FILE_NAME, prefix, content -> {
+                json.reset();
+                IOUtils.copy(content, json);
+            })) {
+                return Optional.empty();
+            }
+            return Optional.ofNullable(GsonService.fromJson(new String(json.toByteArray(), StandardCharsets.UTF_8),
+                    Manifest.class)).filter(manifest -> manifest.files != null);
+        } catch (UnauthorizedCallException e) {
+            throw e;
+        } catch (StorageException | JsonParseException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Hashes parts of a large file on separate threads ahead of their upload, so that reading and hashing the next parts
+// overlaps with sending the current ones. Parts are hashed straight from the file channel and at most `ahead` parts
+// past the last one taken are in flight, which bounds the work done and keeps them in the page cache for the upload.
+// Only the given parts are hashed, so parts already stored by an earlier upload aren't read again.
+class PartHashPipeline implements AutoCloseable {
+    private final FileHash fileHash;
+    private final FileChannel fileChannel;
+    private final long fileSize;
+    private final long partSize;
+    private final int ahead;
+    private final ExecutorService executor;
+    private final List<Future<String>> hashes;
+    private final int[] parts;
+
+    // Part indexes have to be in ascending order.
+    PartHashPipeline(FileHash fileHash, FileChannel fileChannel, long fileSize, long partSize, int[] parts,
+                     int ahead) {
+        this.fileHash = fileHash;
+        this.fileChannel = fileChannel;
+        this.fileSize = fileSize;
+        this.partSize = partSize;
+        this.parts = parts;
+        this.ahead = ahead;
+        this.hashes = new ArrayList<>(parts.length);
+        this.executor = Executors.newFixedThreadPool(Math.min(ahead, Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Parts have to be taken in ascending order, though not necessarily by the same thread.
+    String get(int index) throws StorageException {
+        int position = Arrays.binarySearch(parts, index);
+        if (position < 0) {
+            throw new IllegalArgumentException("Part " + (index + 1) + " isn't hashed by this pipeline");
+        }
+        Future<String> hash;
+        synchronized (this) {
+            int limit = Math.min(parts.length, position + 1 + ahead);
+            while (hashes.size() < limit) {
+                final long offset = parts[hashes.size()] * partSize;
+                final long length = Math.min(partSize, fileSize - offset);
+                hashes.add(executor.submit(() -> fileHash.getHashValue(fileChannel, offset, length)));
+            }
+            hash = hashes.get(position);
+        }
+        try {
+            return hash.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Part hashing interrupted", e);
+        } catch (ExecutionException e) {
+            throw new StorageException("Failed to hash part " + (index + 1) + ": " + e.getCause().getMessage(),
+                    e.getCause());
+        }
+    }
+
+    // Interrupting a thread that reads from the channel would close it, so pending parts are cancelled without
+    // interrupting running ones.
+    @Override
+    public synchronized void close() {
+        hashes.forEach(hash -> hash.cancel(false));
+        executor.shutdown();
+    }
+}
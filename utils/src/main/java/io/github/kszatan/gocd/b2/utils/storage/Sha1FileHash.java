@@ -6,42 +6,80 @@
 
 package io.github.kszatan.gocd.b2.utils.storage;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Formatter;
 
+// Digests and read buffers are kept per thread, so hashing lots of small files doesn't allocate much more than the
+// resulting strings.
 public class Sha1FileHash implements FileHash {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<>();
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
     @Override
     public String getHashValue(Path filePath) throws NoSuchAlgorithmException, IOException {
-        final MessageDigest digest = MessageDigest.getInstance("SHA-1");
-        try (InputStream fis = Files.newInputStream(filePath)) {
-            byte[] buffer = new byte[8192];
-            for (int read; (read = fis.read(buffer)) != -1; ) {
-                digest.update(buffer, 0, read);
-            }
-        }
-
-        try (Formatter formatter = new Formatter()) {
-            for (final byte b : digest.digest()) {
-                formatter.format("%02x", b);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            final MessageDigest digest = digest();
+            final ByteBuffer buffer = buffers.get();
+            for (buffer.clear(); channel.read(buffer) != -1; buffer.clear()) {
+                digest.update(buffer.array(), 0, buffer.position());
             }
-            return formatter.toString();
+            return toHex(digest.digest());
         }
     }
 
     @Override
     public String getHashValue(byte[] buffer, int length) throws NoSuchAlgorithmException {
-        final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        final MessageDigest digest = digest();
         digest.update(buffer, 0, length);
-        try (Formatter formatter = new Formatter()) {
-            for (final byte b : digest.digest()) {
-                formatter.format("%02x", b);
+        return toHex(digest.digest());
+    }
+
+    @Override
+    public String getHashValue(FileChannel channel, long position, long length) throws NoSuchAlgorithmException, IOException {
+        final MessageDigest digest = digest();
+        final ByteBuffer buffer = buffers.get();
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            if (end - position < buffer.capacity()) {
+                buffer.limit((int) (end - position));
             }
-            return formatter.toString();
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of file at position " + position);
+            }
+            digest.update(buffer.array(), 0, read);
+            position += read;
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    // digest() resets the digest, but a previous call could have failed half way through.
+    private static MessageDigest digest() throws NoSuchAlgorithmException {
+        MessageDigest digest = digests.get();
+        if (digest == null) {
+            digest = MessageDigest.getInstance("SHA-1");
+            digests.set(digest);
+        } else {
+            digest.reset();
         }
+        return digest;
     }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+// Makes a call once for all callers asking for the same key at the same time: the first one calls, the others wait
+// for its result. Results may be modified by whoever gets them, so a shared result is handed out as copies and only
+// a caller that nobody joined gets the original.
+class SingleFlight<K, V> {
+    interface Call<V> {
+        V call() throws StorageException;
+    }
+
+    private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final UnaryOperator<V> copy;
+
+    private static class Flight<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        // Guarded by the map, which registers followers and removes the flight atomically.
+        int followers = 0;
+    }
+
+    SingleFlight(UnaryOperator<V> copy) {
+        this.copy = copy;
+    }
+
+    V run(K key, Call<V> call) throws StorageException {
+        Flight<V> created = new Flight<>();
+        Flight<V> flight = flights.compute(key, (k, current) -> {
+            if (current == null) {
+                return created;
+            }
+            current.followers++;
+            return current;
+        });
+        if (flight != created) {
+            return copy.apply(await(flight));
+        }
+        V value;
+        try {
+            value = call.call();
+        } catch (StorageException | RuntimeException e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        flights.remove(key, flight);
+        flight.result.complete(value);
+        return flight.followers == 0 ? value : copy.apply(value);
+    }
+
+    private V await(Flight<V> flight) throws StorageException {
+        try {
+            return flight.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof StorageException) {
+                throw (StorageException) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+}
@@ -16,9 +16,20 @@ public interface Storage {
     void setCredentials(String accountId, String applicationKey);
     String getLastErrorMessage();
     void addProgressObserver(ProgressObserver observer);
+    void setPartUploadThreads(Integer threads);
+    void setPartsHashedAhead(Integer parts);
+    void setSegmentedDownload(Long threshold, Integer segments);
+    void setSinglePassUpload(Boolean singlePass);
+    void setResumableUpload(Boolean resumable);
     Boolean checkConnection(String accountId, String applicationKey) throws StorageException;
     Boolean authorize() throws StorageException;
     Optional<ListFileNamesResponse> listFiles(String startFileName, String prefix, String delimiter) throws StorageException;
     void upload(Path workDir, Path relativeFilePath, String destination) throws StorageException, GeneralSecurityException;
+    void upload(Path workDir, Path relativeFilePath, String destination, String contentSha1)
+            throws StorageException, GeneralSecurityException;
     Boolean download(String backblazeFileName, Path destination, String fileNamePrefix) throws StorageException;
+    Boolean download(String backblazeFileName, Long contentLength, Path destination, String fileNamePrefix)
+            throws StorageException;
+    Boolean downloadStream(String backblazeFileName, String fileNamePrefix, DownloadConsumer consumer)
+            throws StorageException;
 }
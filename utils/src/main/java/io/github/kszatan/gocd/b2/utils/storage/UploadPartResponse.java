@@ -6,9 +6,63 @@
 
 package io.github.kszatan.gocd.b2.utils.storage;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.github.kszatan.gocd.b2.utils.json.NullableValues;
+
+import java.io.IOException;
+
+@JsonAdapter(UploadPartResponse.Adapter.class)
 public class UploadPartResponse {
     public String fileId;
     public Integer contentLength;
     public String contentSha1;
     public Integer partNumber;
+
+    static class Adapter extends TypeAdapter<UploadPartResponse> {
+        @Override
+        public void write(JsonWriter out, UploadPartResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("fileId").value(value.fileId);
+            out.name("contentLength").value(value.contentLength);
+            out.name("contentSha1").value(value.contentSha1);
+            out.name("partNumber").value(value.partNumber);
+            out.endObject();
+        }
+
+        @Override
+        public UploadPartResponse read(JsonReader in) throws IOException {
+            if (NullableValues.skipNull(in)) {
+                return null;
+            }
+            UploadPartResponse value = new UploadPartResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "fileId":
+                        value.fileId = NullableValues.nextString(in);
+                        break;
+                    case "contentLength":
+                        value.contentLength = NullableValues.nextInteger(in);
+                        break;
+                    case "contentSha1":
+                        value.contentSha1 = NullableValues.nextString(in);
+                        break;
+                    case "partNumber":
+                        value.partNumber = NullableValues.nextInteger(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
 }
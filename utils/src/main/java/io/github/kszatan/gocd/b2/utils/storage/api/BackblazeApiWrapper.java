@@ -17,17 +17,19 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
-import java.util.List;
-import java.util.Optional;
-import java.util.Properties;
+import java.util.*;
 
 public class BackblazeApiWrapper {
     private static final String B2_API_URL = "https://api.backblazeb2.com";
@@ -38,24 +40,36 @@ public class BackblazeApiWrapper {
     private static final String GET_UPLOAD_URL_CMD = "/b2api/v1/b2_get_upload_url";
     private static final String LIST_BUCKETS_CMD = "/b2api/v1/b2_list_buckets";
     private static final String LIST_FILE_NAMES_CMD = "/b2api/v1/b2_list_file_names";
+    private static final String LIST_PARTS_CMD = "/b2api/v1/b2_list_parts";
+    private static final String LIST_UNFINISHED_LARGE_FILES_CMD = "/b2api/v1/b2_list_unfinished_large_files";
     private static final String START_LARGE_FILE_CMD = "/b2api/v1/b2_start_large_file";
     private static final Integer CONNECTION_TIMEOUT_MS = 60 * 1000;
     private static final Integer READ_TIMEOUT_MS = 120 * 1000;
+    private static final Integer RANGE_BUFFER_SIZE = 64 * 1024;
+    private static final Integer SHA1_HEX_LENGTH = 40;
+    private static final Integer READ_BUFFER_SIZE = 1024;
+    private static final Integer MAX_ERROR_BODY_LENGTH = 64 * 1024;
 
     public interface OutputStreamFactory {
         OutputStream create(Path path) throws IOException;
     }
 
-    private ErrorResponse lastError;
-    private URLStreamHandler urlStreamHandler;
+    private ThreadLocal<ErrorResponse> lastError = new ThreadLocal<>();
+    // Connections whose response status was read, so that releasing them can keep the socket.
+    private final Set<HttpURLConnection> responded =
+            Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+    private static final HttpTransport defaultTransport = new KeepAliveHttpTransport();
+
+    private HttpTransport transport;
     private FileHash fileHash;
     private Properties properties;
     private OutputStreamFactory osFactory;
+    private UploadHashMode uploadHashMode = UploadHashMode.BEFORE_UPLOAD;
 
     private Logger logger = Logger.getLoggerFor(BackblazeApiWrapper.class);
 
     public BackblazeApiWrapper() throws IOException {
-        this.urlStreamHandler = null;
+        this.transport = defaultTransport;
         this.fileHash = new Sha1FileHash();
         this.properties = new Properties();
         this.osFactory = path -> Files.newOutputStream(path);
@@ -64,29 +78,38 @@ public class BackblazeApiWrapper {
         in.close();
     }
 
+    public BackblazeApiWrapper(FileHash fileHash) throws IOException {
+        this();
+        this.fileHash = fileHash;
+    }
+
     // constructors for testing
-    public BackblazeApiWrapper(URLStreamHandler urlStreamHandler) {
-        this(urlStreamHandler, new Sha1FileHash());
+    public BackblazeApiWrapper(HttpTransport transport) {
+        this(transport, new Sha1FileHash());
     }
 
-    public BackblazeApiWrapper(URLStreamHandler urlStreamHandler, FileHash fileHash) {
-        this(urlStreamHandler, fileHash, path -> Files.newOutputStream(path));
+    public BackblazeApiWrapper(HttpTransport transport, FileHash fileHash) {
+        this(transport, fileHash, path -> Files.newOutputStream(path));
     }
 
-    public BackblazeApiWrapper(URLStreamHandler urlStreamHandler, OutputStreamFactory osFactory) {
-        this(urlStreamHandler, new Sha1FileHash(), osFactory);
+    public BackblazeApiWrapper(HttpTransport transport, OutputStreamFactory osFactory) {
+        this(transport, new Sha1FileHash(), osFactory);
     }
 
-    public BackblazeApiWrapper(URLStreamHandler urlStreamHandler, FileHash fileHash, OutputStreamFactory osFactory) {
-        this.urlStreamHandler = urlStreamHandler;
+    public BackblazeApiWrapper(HttpTransport transport, FileHash fileHash, OutputStreamFactory osFactory) {
+        this.transport = transport;
         this.fileHash = fileHash;
         this.osFactory = osFactory;
         properties = new Properties();
         properties.setProperty("version", "0.314");
     }
 
+    public void setUploadHashMode(UploadHashMode uploadHashMode) {
+        this.uploadHashMode = uploadHashMode;
+    }
+
     public Optional<ErrorResponse> getLastError() {
-        return Optional.ofNullable(lastError);
+        return Optional.ofNullable(lastError.get());
     }
 
     public Optional<AuthorizeResponse> authorize(String accountId, String applicationKey) throws IOException {
@@ -94,12 +117,12 @@ public class BackblazeApiWrapper {
         HttpURLConnection connection = null;
         String headerForAuthorizeAccount = "Basic " +
                 Base64.getEncoder().encodeToString((accountId + ":" + applicationKey).getBytes());
-        String jsonResponse;
+        AuthorizeResponse response;
         try {
             connection = newHttpConnection(B2_API_URL, AUTHORIZE_ACCOUNT_CMD, "GET");
             connection.setRequestProperty("Authorization", headerForAuthorizeAccount);
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
-                jsonResponse = myStreamReader(connection.getInputStream());
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), AuthorizeResponse.class);
             } else {
                 parseErrorResponse(connection);
                 return Optional.empty();
@@ -109,19 +132,28 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
             }
         }
-        return Optional.of(GsonService.fromJson(jsonResponse, AuthorizeResponse.class));
+        return Optional.of(response);
     }
 
     public Optional<UploadFileResponse> uploadFile(Path workDir, Path relativeFilePath, String destination, GetUploadUrlResponse getUploadUrlResponse)
             throws NoSuchAlgorithmException, IOException {
+        return uploadFile(workDir, relativeFilePath, destination, getUploadUrlResponse, null);
+    }
+
+    // contentSha1, when known up front, spares hashing the file again.
+    public Optional<UploadFileResponse> uploadFile(Path workDir, Path relativeFilePath, String destination,
+                                                   GetUploadUrlResponse getUploadUrlResponse, String contentSha1)
+            throws NoSuchAlgorithmException, IOException {
         logger.debug("UploadFile API call - workDir: " + workDir + ", filePath: " + relativeFilePath + ", destination: " + destination);
         Path absoluteFilePath = workDir.resolve(relativeFilePath);
-        String content_sha1 = fileHash.getHashValue(absoluteFilePath);
+        final boolean hashAtEnd = contentSha1 == null && uploadHashMode == UploadHashMode.AT_END;
+        String content_sha1 = hashAtEnd ? "hex_digits_at_end"
+                : contentSha1 != null ? contentSha1 : fileHash.getHashValue(absoluteFilePath);
         HttpURLConnection connection = null;
-        String jsonResponse;
+        UploadFileResponse response;
         destination = destination == null ? "" : destination;
         String fileNameWithUnixSeparator = FilenameUtils.normalize(Paths.get(destination).resolve(relativeFilePath).toString(), true);
         try {
@@ -134,10 +166,17 @@ public class BackblazeApiWrapper {
             connection.setRequestProperty("X-Bz-Info-src_last_modified_millis",
                     String.valueOf(attrs.lastModifiedTime().toMillis()));
             connection.setDoOutput(true);
-            DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
-            Files.copy(absoluteFilePath, writer);
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
-                jsonResponse = myStreamReader(connection.getInputStream());
+            if (hashAtEnd) {
+                connection.setFixedLengthStreamingMode(attrs.size() + SHA1_HEX_LENGTH);
+                try (OutputStream os = connection.getOutputStream()) {
+                    copyWithSha1Trailer(absoluteFilePath, os);
+                }
+            } else {
+                DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
+                Files.copy(absoluteFilePath, writer);
+            }
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), UploadFileResponse.class);
             } else {
                 parseErrorResponse(connection);
                 return Optional.empty();
@@ -147,30 +186,50 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
             }
         }
-        return Optional.of(GsonService.fromJson(jsonResponse, UploadFileResponse.class));
+        return Optional.of(response);
     }
 
-    public Optional<UploadPartResponse> uploadPart(byte[] filePart, Integer partLength, Integer partNumber, GetUploadPartUrlResponse getUploadPartUrlResponse)
+    private void copyWithSha1Trailer(Path filePath, OutputStream os) throws IOException, NoSuchAlgorithmException {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        byte[] buffer = new byte[8192];
+        try (InputStream is = Files.newInputStream(filePath)) {
+            for (int read; (read = is.read(buffer)) != -1; ) {
+                digest.update(buffer, 0, read);
+                os.write(buffer, 0, read);
+            }
+        }
+        os.write(Sha1FileHash.toHex(digest.digest()).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public Optional<UploadPartResponse> uploadPart(FileChannel fileChannel, Long offset, Integer partLength, Integer partNumber,
+                                                   GetUploadPartUrlResponse getUploadPartUrlResponse)
+            throws NoSuchAlgorithmException, IOException {
+        return uploadPart(fileChannel, offset, partLength, partNumber, getUploadPartUrlResponse, null);
+    }
+
+    // contentSha1 may be computed ahead by the caller; the part is hashed here if it's null.
+    public Optional<UploadPartResponse> uploadPart(FileChannel fileChannel, Long offset, Integer partLength, Integer partNumber,
+                                                   GetUploadPartUrlResponse getUploadPartUrlResponse, String contentSha1)
             throws NoSuchAlgorithmException, IOException {
-        logger.debug("UploadPart API call - partLength: " + partLength + ", partNumber: " + partNumber);
-        String content_sha1 = fileHash.getHashValue(filePart, partLength);
+        logger.debug("UploadPart API call - offset: " + offset + ", partLength: " + partLength + ", partNumber: " + partNumber);
+        String content_sha1 = contentSha1 != null ? contentSha1 : fileHash.getHashValue(fileChannel, offset, partLength);
         HttpURLConnection connection = null;
-        String jsonResponse;
+        UploadPartResponse response;
         try {
             connection = newHttpConnection(getUploadPartUrlResponse.uploadUrl, "", "POST");
             connection.setRequestProperty("Authorization", getUploadPartUrlResponse.authorizationToken);
-            connection.setRequestProperty("Content-Length", String.valueOf(partLength));
             connection.setRequestProperty("X-Bz-Part-Number", String.valueOf(partNumber));
             connection.setRequestProperty("X-Bz-Content-Sha1", content_sha1);
+            connection.setFixedLengthStreamingMode(partLength);
             connection.setDoOutput(true);
-            DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
-            writer.write(filePart, 0, partLength);
-            writer.close();
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
-                jsonResponse = myStreamReader(connection.getInputStream());
+            try (OutputStream os = connection.getOutputStream()) {
+                transferPart(fileChannel, offset, partLength, os);
+            }
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), UploadPartResponse.class);
             } else {
                 parseErrorResponse(connection);
                 return Optional.empty();
@@ -180,16 +239,74 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
+            }
+        }
+        return Optional.of(response);
+    }
+
+    private void transferPart(FileChannel fileChannel, long offset, long length, OutputStream os) throws IOException {
+        WritableByteChannel target = Channels.newChannel(os);
+        long end = offset + length;
+        while (offset < end) {
+            long transferred = fileChannel.transferTo(offset, end - offset, target);
+            if (transferred <= 0) {
+                throw new EOFException("Unexpected end of file at position " + offset);
             }
+            offset += transferred;
         }
-        return Optional.of(GsonService.fromJson(jsonResponse, UploadPartResponse.class));
     }
 
     public Optional<DownloadFileResponse> downloadFileByName(String bucketName, String fileName, Path destination,
                                                              String fileNamePrefix, AuthorizeResponse authorizeResponse) throws IOException {
         logger.debug("DownloadFile API call - bucketName: " + bucketName + ", fileName: " + fileName + ", fileNamePrefix: "
                 + fileNamePrefix + ", destination: " + destination);
+        Path relativeFilePath = destination.resolve(fileNameToFilePath(fileName));
+        return streamFileByName(bucketName, fileName, fileNamePrefix, authorizeResponse, is -> {
+            try (OutputStream os = osFactory.create(relativeFilePath)) {
+                IOUtils.copy(is, os);
+            }
+        });
+    }
+
+    public Optional<DownloadFileResponse> streamFileByName(String bucketName, String fileName, String fileNamePrefix,
+                                                           AuthorizeResponse authorizeResponse, DownloadConsumer consumer)
+            throws IOException {
+        HttpURLConnection connection = null;
+        DownloadFileResponse response = new DownloadFileResponse();
+        final String backblazeFileName = fileNamePrefix + fileName;
+        final String downloadUrl = authorizeResponse.downloadUrl + "/file/" + bucketName + "/" + backblazeFileName;
+        try {
+            connection = newHttpConnection(downloadUrl, "", "GET");
+            connection.setRequestProperty("Authorization", authorizeResponse.authorizationToken);
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response.fileId = connection.getHeaderField("X-Bz-File-Id");
+                response.fileName = connection.getHeaderField("X-Bz-File-Name");
+                response.contentSha1 = connection.getHeaderField("X-Bz-Content-Sha1");
+                response.largeFileSha1 = connection.getHeaderField("X-Bz-Info-large_file_sha1");
+                try (InputStream is = connection.getInputStream()) {
+                    consumer.accept(is);
+                }
+            } else {
+                parseErrorResponse(connection);
+                return Optional.empty();
+            }
+        } catch (SocketTimeoutException e) {
+            setRequestTimeoutError(e);
+            return Optional.empty();
+        } finally {
+            if (connection != null) {
+                release(connection);
+            }
+        }
+        return Optional.of(response);
+    }
+
+    public Optional<DownloadFileResponse> downloadFileRangeByName(String bucketName, String fileName, String fileNamePrefix,
+                                                                  long firstByte, long lastByte, FileChannel channel,
+                                                                  AuthorizeResponse authorizeResponse) throws IOException {
+        logger.debug("DownloadFile API call - bucketName: " + bucketName + ", fileName: " + fileName + ", fileNamePrefix: "
+                + fileNamePrefix + ", range: " + firstByte + "-" + lastByte);
         HttpURLConnection connection = null;
         DownloadFileResponse response = new DownloadFileResponse();
         final String backblazeFileName = fileNamePrefix + fileName;
@@ -197,15 +314,30 @@ public class BackblazeApiWrapper {
         try {
             connection = newHttpConnection(downloadUrl, "", "GET");
             connection.setRequestProperty("Authorization", authorizeResponse.authorizationToken);
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
+            connection.setRequestProperty("Range", "bytes=" + firstByte + "-" + lastByte);
+            int responseCode = responseCode(connection);
+            if (responseCode == HttpStatus.SC_OK) {
+                // Whatever ignored the range sends the whole file, which is dropped with the connection unread.
+                responded.remove(connection);
+                throw new IOException("Range request for " + backblazeFileName + " was answered with the whole file");
+            }
+            if (responseCode == HttpStatus.SC_PARTIAL_CONTENT) {
                 response.fileId = connection.getHeaderField("X-Bz-File-Id");
                 response.fileName = connection.getHeaderField("X-Bz-File-Name");
                 response.contentSha1 = connection.getHeaderField("X-Bz-Content-Sha1");
-                Path relativeFilePath = destination.resolve(fileNameToFilePath(fileName));
-                try (InputStream is = connection.getInputStream();
-                     OutputStream os = osFactory.create(relativeFilePath)
-                ) {
-                    IOUtils.copy(is, os);
+                response.largeFileSha1 = connection.getHeaderField("X-Bz-Info-large_file_sha1");
+                long position = firstByte;
+                try (ReadableByteChannel in = Channels.newChannel(connection.getInputStream())) {
+                    ByteBuffer buffer = ByteBuffer.allocate(RANGE_BUFFER_SIZE);
+                    while (in.read(buffer) != -1 || buffer.position() > 0) {
+                        buffer.flip();
+                        position += channel.write(buffer, position);
+                        buffer.compact();
+                    }
+                }
+                if (position != lastByte + 1) {
+                    throw new IOException("Incomplete range " + firstByte + "-" + lastByte + " of " + backblazeFileName
+                            + ": received " + (position - firstByte) + " bytes");
                 }
             } else {
                 parseErrorResponse(connection);
@@ -216,7 +348,7 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
             }
         }
         return Optional.of(response);
@@ -233,7 +365,7 @@ public class BackblazeApiWrapper {
         String accountAuthorizationToken = authorizeResponse.authorizationToken;
         HttpURLConnection connection = null;
         String postParams = "{\"accountId\":\"" + accountId + "\", \"bucketTypes\": [\"allPrivate\",\"allPublic\"]}";
-        String jsonResponse;
+        ListBucketsResponse response;
         byte postData[] = postParams.getBytes(StandardCharsets.UTF_8);
         try {
             connection = newHttpConnection(apiUrl, LIST_BUCKETS_CMD, "POST");
@@ -244,8 +376,8 @@ public class BackblazeApiWrapper {
             connection.setDoOutput(true);
             DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
             writer.write(postData);
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
-                jsonResponse = myStreamReader(connection.getInputStream());
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), ListBucketsResponse.class);
             } else {
                 parseErrorResponse(connection);
                 return Optional.empty();
@@ -255,10 +387,10 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
             }
         }
-        return Optional.of(GsonService.fromJson(jsonResponse, ListBucketsResponse.class));
+        return Optional.of(response);
     }
 
     public Optional<GetUploadUrlResponse> getUploadUrl(AuthorizeResponse authorizeResponse, String bucketId) throws IOException {
@@ -267,7 +399,7 @@ public class BackblazeApiWrapper {
         String accountAuthorizationToken = authorizeResponse.authorizationToken;
         HttpURLConnection connection = null;
         String postParams = "{\"bucketId\":\"" + bucketId + "\"}";
-        String jsonResponse;
+        GetUploadUrlResponse response;
         byte postData[] = postParams.getBytes(StandardCharsets.UTF_8);
         try {
             connection = newHttpConnection(apiUrl, GET_UPLOAD_URL_CMD, "POST");
@@ -278,8 +410,8 @@ public class BackblazeApiWrapper {
             connection.setDoOutput(true);
             DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
             writer.write(postData);
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
-                jsonResponse = myStreamReader(connection.getInputStream());
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), GetUploadUrlResponse.class);
             } else {
                 parseErrorResponse(connection);
                 return Optional.empty();
@@ -289,10 +421,10 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
             }
         }
-        return Optional.of(GsonService.fromJson(jsonResponse, GetUploadUrlResponse.class));
+        return Optional.of(response);
     }
 
     public Optional<GetUploadPartUrlResponse> getUploadPartUrl(AuthorizeResponse authorizeResponse, String fileId) throws IOException {
@@ -301,7 +433,7 @@ public class BackblazeApiWrapper {
         String accountAuthorizationToken = authorizeResponse.authorizationToken;
         HttpURLConnection connection = null;
         String postParams = "{\"fileId\":\"" + fileId + "\"}";
-        String jsonResponse;
+        GetUploadPartUrlResponse response;
         byte postData[] = postParams.getBytes(StandardCharsets.UTF_8);
         try {
             connection = newHttpConnection(apiUrl, GET_UPLOAD_PART_URL_CMD, "POST");
@@ -312,8 +444,8 @@ public class BackblazeApiWrapper {
             connection.setDoOutput(true);
             DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
             writer.write(postData);
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
-                jsonResponse = myStreamReader(connection.getInputStream());
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), GetUploadPartUrlResponse.class);
             } else {
                 parseErrorResponse(connection);
                 return Optional.empty();
@@ -323,10 +455,10 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
             }
         }
-        return Optional.of(GsonService.fromJson(jsonResponse, GetUploadPartUrlResponse.class));
+        return Optional.of(response);
     }
 
     public Optional<ListFileNamesResponse> listFileNames(AuthorizeResponse authorizeResponse, String bucketId) throws IOException {
@@ -343,7 +475,7 @@ public class BackblazeApiWrapper {
         String apiUrl = authorizeResponse.apiUrl;
         String accountAuthorizationToken = authorizeResponse.authorizationToken;
         HttpURLConnection connection = null;
-        String jsonResponse;
+        ListFileNamesResponse response;
         byte postData[] = GsonService.toJson(params).getBytes(StandardCharsets.UTF_8);
         try {
             connection = newHttpConnection(apiUrl, LIST_FILE_NAMES_CMD, "POST");
@@ -354,8 +486,8 @@ public class BackblazeApiWrapper {
             connection.setDoOutput(true);
             DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
             writer.write(postData);
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
-                jsonResponse = myStreamReader(connection.getInputStream());
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), ListFileNamesResponse.class);
             } else {
                 parseErrorResponse(connection);
                 return Optional.empty();
@@ -365,20 +497,28 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
             }
         }
-        return Optional.of(GsonService.fromJson(jsonResponse, ListFileNamesResponse.class));
+        return Optional.of(response);
     }
 
     public Optional<StartLargeFileResponse> startLargeFile(AuthorizeResponse authorizeResponse, String backblazeFileName,
                                                            String bucketId) throws IOException {
+        return startLargeFile(authorizeResponse, backblazeFileName, bucketId, null);
+    }
+
+    // largeFileSha1 is stored in file info so that the whole file can later be compared without downloading it.
+    public Optional<StartLargeFileResponse> startLargeFile(AuthorizeResponse authorizeResponse, String backblazeFileName,
+                                                           String bucketId, String largeFileSha1) throws IOException {
         logger.debug("StartLargeFile API call - bucketId: " + bucketId + ", fileName: " + backblazeFileName);
         String apiUrl = authorizeResponse.apiUrl;
         String accountAuthorizationToken = authorizeResponse.authorizationToken;
         HttpURLConnection connection = null;
-        String postParams = "{\"bucketId\":\"" + bucketId + "\", \"fileName\":\"" + backblazeFileName + "\", \"contentType\":\"b2/x-auto\"}";
-        String jsonResponse;
+        String fileInfo = largeFileSha1 == null ? "" : ", \"fileInfo\":{\"large_file_sha1\":\"" + largeFileSha1 + "\"}";
+        String postParams = "{\"bucketId\":\"" + bucketId + "\", \"fileName\":\"" + backblazeFileName + "\", \"contentType\":\"b2/x-auto\""
+                + fileInfo + "}";
+        StartLargeFileResponse response;
         byte postData[] = postParams.getBytes(StandardCharsets.UTF_8);
         try {
             connection = newHttpConnection(apiUrl, START_LARGE_FILE_CMD, "POST");
@@ -389,8 +529,8 @@ public class BackblazeApiWrapper {
             connection.setDoOutput(true);
             DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
             writer.write(postData);
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
-                jsonResponse = myStreamReader(connection.getInputStream());
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), StartLargeFileResponse.class);
             } else {
                 parseErrorResponse(connection);
                 return Optional.empty();
@@ -400,10 +540,10 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
             }
         }
-        return Optional.of(GsonService.fromJson(jsonResponse, StartLargeFileResponse.class));
+        return Optional.of(response);
     }
 
     public Optional<FinishLargeFileResponse> finishLargeFile(AuthorizeResponse authorizeResponse, String fileId,
@@ -413,7 +553,7 @@ public class BackblazeApiWrapper {
         String accountAuthorizationToken = authorizeResponse.authorizationToken;
         HttpURLConnection connection = null;
         String postParams = "{\"fileId\":\"" + fileId + "\", \"partSha1Array\":" + GsonService.toJson(partSha1Array) + "}";
-        String jsonResponse;
+        FinishLargeFileResponse response;
         byte postData[] = postParams.getBytes(StandardCharsets.UTF_8);
         try {
             connection = newHttpConnection(apiUrl, FINISH_LARGE_FILE_CMD, "POST");
@@ -424,8 +564,8 @@ public class BackblazeApiWrapper {
             connection.setDoOutput(true);
             DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
             writer.write(postData);
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
-                jsonResponse = myStreamReader(connection.getInputStream());
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), FinishLargeFileResponse.class);
             } else {
                 parseErrorResponse(connection);
                 return Optional.empty();
@@ -435,10 +575,10 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
             }
         }
-        return Optional.of(GsonService.fromJson(jsonResponse, FinishLargeFileResponse.class));
+        return Optional.of(response);
     }
 
     public Optional<CancelLargeFileResponse> cancelLargeFile(AuthorizeResponse authorizeResponse, String fileId) throws IOException {
@@ -447,7 +587,7 @@ public class BackblazeApiWrapper {
         String accountAuthorizationToken = authorizeResponse.authorizationToken;
         HttpURLConnection connection = null;
         String postParams = "{\"fileId\":\"" + fileId + "\"}";
-        String jsonResponse;
+        CancelLargeFileResponse response;
         byte postData[] = postParams.getBytes(StandardCharsets.UTF_8);
         try {
             connection = newHttpConnection(apiUrl, CANCEL_LARGE_FILE_CMD, "POST");
@@ -458,8 +598,8 @@ public class BackblazeApiWrapper {
             connection.setDoOutput(true);
             DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
             writer.write(postData);
-            if (connection.getResponseCode() == HttpStatus.SC_OK) {
-                jsonResponse = myStreamReader(connection.getInputStream());
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), CancelLargeFileResponse.class);
             } else {
                 parseErrorResponse(connection);
                 return Optional.empty();
@@ -469,27 +609,107 @@ public class BackblazeApiWrapper {
             return Optional.empty();
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                release(connection);
             }
         }
-        return Optional.of(GsonService.fromJson(jsonResponse, CancelLargeFileResponse.class));
+        return Optional.of(response);
     }
 
-    static private String myStreamReader(InputStream in) throws IOException {
-        InputStreamReader reader = new InputStreamReader(in);
-        StringBuilder sb = new StringBuilder();
-        int c = reader.read();
-        while (c != -1) {
-            sb.append((char) c);
-            c = reader.read();
+    public Optional<ListUnfinishedLargeFilesResponse> listUnfinishedLargeFiles(AuthorizeResponse authorizeResponse,
+                                                                               String bucketId, String namePrefix,
+                                                                               String startFileId) throws IOException {
+        logger.debug("ListUnfinishedLargeFiles API call - bucketId: " + bucketId + ", namePrefix: " + namePrefix
+                + ", startFileId: " + startFileId);
+        String apiUrl = authorizeResponse.apiUrl;
+        String accountAuthorizationToken = authorizeResponse.authorizationToken;
+        HttpURLConnection connection = null;
+        String postParams = "{\"bucketId\":\"" + bucketId + "\""
+                + (namePrefix == null ? "" : ", \"namePrefix\":" + GsonService.toJson(namePrefix))
+                + (startFileId == null ? "" : ", \"startFileId\":\"" + startFileId + "\"") + "}";
+        ListUnfinishedLargeFilesResponse response;
+        byte postData[] = postParams.getBytes(StandardCharsets.UTF_8);
+        try {
+            connection = newHttpConnection(apiUrl, LIST_UNFINISHED_LARGE_FILES_CMD, "POST");
+            connection.setRequestProperty("Authorization", accountAuthorizationToken);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Charset", "utf-8");
+            connection.setRequestProperty("Content-Length", Integer.toString(postData.length));
+            connection.setDoOutput(true);
+            DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
+            writer.write(postData);
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), ListUnfinishedLargeFilesResponse.class);
+            } else {
+                parseErrorResponse(connection);
+                return Optional.empty();
+            }
+        } catch (SocketTimeoutException e) {
+            setRequestTimeoutError(e);
+            return Optional.empty();
+        } finally {
+            if (connection != null) {
+                release(connection);
+            }
+        }
+        return Optional.of(response);
+    }
+
+    public Optional<ListPartsResponse> listParts(AuthorizeResponse authorizeResponse, String fileId,
+                                                 Integer startPartNumber) throws IOException {
+        logger.debug("ListParts API call - fileId: " + fileId + ", startPartNumber: " + startPartNumber);
+        String apiUrl = authorizeResponse.apiUrl;
+        String accountAuthorizationToken = authorizeResponse.authorizationToken;
+        HttpURLConnection connection = null;
+        String postParams = "{\"fileId\":\"" + fileId + "\""
+                + (startPartNumber == null ? "" : ", \"startPartNumber\":" + startPartNumber) + "}";
+        ListPartsResponse response;
+        byte postData[] = postParams.getBytes(StandardCharsets.UTF_8);
+        try {
+            connection = newHttpConnection(apiUrl, LIST_PARTS_CMD, "POST");
+            connection.setRequestProperty("Authorization", accountAuthorizationToken);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Charset", "utf-8");
+            connection.setRequestProperty("Content-Length", Integer.toString(postData.length));
+            connection.setDoOutput(true);
+            DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
+            writer.write(postData);
+            if (responseCode(connection) == HttpStatus.SC_OK) {
+                response = readJson(connection.getInputStream(), ListPartsResponse.class);
+            } else {
+                parseErrorResponse(connection);
+                return Optional.empty();
+            }
+        } catch (SocketTimeoutException e) {
+            setRequestTimeoutError(e);
+            return Optional.empty();
+        } finally {
+            if (connection != null) {
+                release(connection);
+            }
+        }
+        return Optional.of(response);
+    }
+
+    static private <T> T readJson(InputStream in, Class<T> type) throws IOException {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return GsonService.fromJson(reader, type);
+        }
+    }
+
+    static private String readErrorBody(InputStream in) throws IOException {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[READ_BUFFER_SIZE];
+            int read;
+            while (sb.length() < MAX_ERROR_BODY_LENGTH && (read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
         }
-        reader.close();
-        return sb.toString();
     }
 
     private HttpURLConnection newHttpConnection(String urlContext, String urlSpec, String requestMethod) throws IOException {
-        URL url = new URL(new URL(urlContext), urlSpec, urlStreamHandler);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        HttpURLConnection connection = transport.open(new URL(new URL(urlContext), urlSpec));
         connection.setRequestMethod(requestMethod);
         connection.setConnectTimeout(CONNECTION_TIMEOUT_MS);
         connection.setReadTimeout(READ_TIMEOUT_MS);
@@ -502,29 +722,51 @@ public class BackblazeApiWrapper {
 
     private void setRequestTimeoutError(SocketTimeoutException e) {
         logger.debug("Socket timeout: " + e.getMessage());
-        lastError = new ErrorResponse();
-        lastError.status = HttpStatus.SC_REQUEST_TIMEOUT;
-        lastError.message = e.getMessage();
-        lastError.code = "request_timeout";
+        ErrorResponse error = new ErrorResponse();
+        error.status = HttpStatus.SC_REQUEST_TIMEOUT;
+        error.message = e.getMessage();
+        error.code = "request_timeout";
+        lastError.set(error);
+    }
+
+    private int responseCode(HttpURLConnection connection) throws IOException {
+        int responseCode = connection.getResponseCode();
+        responded.add(connection);
+        return responseCode;
+    }
+
+    private void release(HttpURLConnection connection) {
+        transport.release(connection, responded.remove(connection));
     }
 
     private void parseErrorResponse(HttpURLConnection connection) throws IOException {
         String responseBody;
         try {
-            responseBody = myStreamReader(connection.getErrorStream());
+            InputStream errorStream = connection.getErrorStream();
+            if (errorStream == null) {
+                ErrorResponse error = new ErrorResponse();
+                error.status = connection.getResponseCode();
+                error.message = "Unexpected response: " + error.status + " " + connection.getResponseMessage();
+                error.code = "unknown";
+                lastError.set(error);
+                return;
+            }
+            responseBody = readErrorBody(errorStream);
             logger.debug("API Call error: " + responseBody);
-            lastError = GsonService.fromJson(responseBody, ErrorResponse.class);
+            ErrorResponse error = GsonService.fromJson(responseBody, ErrorResponse.class);
             if (connection.getResponseCode() == HttpStatus.SC_SERVICE_UNAVAILABLE) {
                 String retryAfter = connection.getHeaderField("Retry-After");
                 if (retryAfter != null) {
-                    lastError.retryAfter = Integer.parseInt(retryAfter);
+                    error.retryAfter = Integer.parseInt(retryAfter);
                 }
             }
+            lastError.set(error);
         } catch (IOException e) {
-            lastError = new ErrorResponse();
-            lastError.status = connection.getResponseCode();
-            lastError.message = "Error while reading error response body";
-            lastError.code = "unknown";
+            ErrorResponse error = new ErrorResponse();
+            error.status = connection.getResponseCode();
+            error.message = "Error while reading error response body";
+            error.code = "unknown";
+            lastError.set(error);
         }
     }
 
@@ -13,6 +13,7 @@ import io.github.kszatan.gocd.b2.utils.storage.StorageException;
 import org.apache.http.HttpStatus;
 
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -41,7 +42,14 @@ public class Download extends B2ApiCall {
         this.fileNamePrefix = filenNamePrefix;
         this.authorizeResponse = authorizeResponse;
         this.mkdirsProvider = path -> {
-            Files.createDirectories(path);
+            try {
+                Files.createDirectories(path);
+            } catch (FileAlreadyExistsException e) {
+                // another download may have created it in the meantime
+                if (!Files.isDirectory(path)) {
+                    throw e;
+                }
+            }
         };
     }
 
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage.api;
+
+import io.github.kszatan.gocd.b2.utils.storage.AuthorizeResponse;
+import io.github.kszatan.gocd.b2.utils.storage.DownloadFileResponse;
+import io.github.kszatan.gocd.b2.utils.storage.ErrorResponse;
+import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+import org.apache.http.HttpStatus;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Optional;
+
+public class DownloadRange extends B2ApiCall {
+    private final String bucketName;
+    private final String backblazeFileName;
+    private final String fileNamePrefix;
+    private final long firstByte;
+    private final long lastByte;
+    private final FileChannel channel;
+    private final AuthorizeResponse authorizeResponse;
+    private DownloadFileResponse downloadFileResponse;
+
+    public DownloadRange(BackblazeApiWrapper backblazeApiWrapper, String bucketName, String backblazeFileName,
+                         String fileNamePrefix, long firstByte, long lastByte, FileChannel channel,
+                         AuthorizeResponse authorizeResponse) {
+        super("download bytes " + firstByte + "-" + lastByte + " of " + backblazeFileName, backblazeApiWrapper);
+        this.bucketName = bucketName;
+        this.backblazeFileName = backblazeFileName;
+        this.fileNamePrefix = fileNamePrefix;
+        this.firstByte = firstByte;
+        this.lastByte = lastByte;
+        this.channel = channel;
+        this.authorizeResponse = authorizeResponse;
+    }
+
+    public Optional<DownloadFileResponse> getResponse() {
+        return Optional.ofNullable(downloadFileResponse);
+    }
+
+    @Override
+    public Boolean call() throws StorageException {
+        try {
+            downloadFileResponse = backblazeApiWrapper.downloadFileRangeByName(bucketName, backblazeFileName,
+                    fileNamePrefix, firstByte, lastByte, channel, authorizeResponse).orElse(null);
+        } catch (IOException e) {
+            throw new StorageException("Exception while downloading file range: " + e.getMessage(), e);
+        }
+        return downloadFileResponse != null;
+    }
+
+    @Override
+    public void handleErrors(ErrorResponse error) throws StorageException {
+        if (error.status == HttpStatus.SC_NOT_FOUND) {
+            throw new StorageException("Not found: " + error.message);
+        }
+        super.handleErrors(error);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage.api;
+
+import io.github.kszatan.gocd.b2.utils.storage.*;
+import org.apache.http.HttpStatus;
+
+import java.io.IOException;
+import java.util.Optional;
+
+// Download that hands the content to a consumer instead of writing it to a file.
+public class DownloadStream extends B2ApiCall {
+    private final String bucketName;
+    private final String backblazeFileName;
+    private final String fileNamePrefix;
+    private final AuthorizeResponse authorizeResponse;
+    private final DownloadConsumer consumer;
+    private DownloadFileResponse downloadFileResponse;
+
+    public DownloadStream(BackblazeApiWrapper backblazeApiWrapper, String bucketName, String backblazeFileName,
+                          String fileNamePrefix, AuthorizeResponse authorizeResponse, DownloadConsumer consumer) {
+        super("download " + backblazeFileName, backblazeApiWrapper);
+        this.bucketName = bucketName;
+        this.backblazeFileName = backblazeFileName;
+        this.fileNamePrefix = fileNamePrefix;
+        this.authorizeResponse = authorizeResponse;
+        this.consumer = consumer;
+    }
+
+    Optional<DownloadFileResponse> getResponse() {
+        return Optional.ofNullable(downloadFileResponse);
+    }
+
+    @Override
+    public Boolean call() throws StorageException {
+        try {
+            downloadFileResponse = backblazeApiWrapper.streamFileByName(
+                    bucketName, backblazeFileName, fileNamePrefix, authorizeResponse, consumer).orElse(null);
+        } catch (IOException e) {
+            throw new StorageException("Exception while downloading file: " + e.getMessage(), e);
+        }
+        return downloadFileResponse != null;
+    }
+
+    @Override
+    public void handleErrors(ErrorResponse error) throws StorageException {
+        if (error.status == HttpStatus.SC_NOT_FOUND) {
+            throw new StorageException("Not found: " + error.message);
+        }
+        super.handleErrors(error);
+    }
+}
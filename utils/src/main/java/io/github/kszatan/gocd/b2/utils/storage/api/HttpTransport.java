@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage.api;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public interface HttpTransport {
+    HttpURLConnection open(URL url) throws IOException;
+    // responded tells whether the response status was read. A connection without one may not have sent its request
+    // yet and is disconnected rather than made to send it.
+    void release(HttpURLConnection connection, boolean responded);
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+// Keeps sockets alive between calls. Instead of disconnecting, a released connection that got a response has it drained
+// and closed, which hands the socket back to the JDK keep-alive cache for the next request to the same host. Connections
+// are counted against the host they were opened for, even if they were redirected elsewhere; hosts that nobody used
+// for the idle timeout are forgotten.
+public class KeepAliveHttpTransport implements HttpTransport {
+    private static final Integer DEFAULT_MAX_CONNECTIONS_PER_HOST = 16;
+    private static final Long DEFAULT_IDLE_TIMEOUT_MS = 60 * 1000L;
+    private static final Integer DRAIN_BUFFER_SIZE = 8192;
+
+    private final Integer maxConnectionsPerHost;
+    private final Long idleTimeoutMs;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final Map<HttpURLConnection, Host> leases = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private static class Host {
+        final String key;
+        final Semaphore permits;
+        // Callers between open and release; only changed inside compute on the hosts map, like eviction.
+        int users = 0;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Host(String key, Integer maxConnections) {
+            this.key = key;
+            this.permits = new Semaphore(maxConnections, true);
+        }
+    }
+
+    public KeepAliveHttpTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    public KeepAliveHttpTransport(Integer maxConnectionsPerHost, Long idleTimeoutMs) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        evictIdleHosts();
+        Host host = hosts.compute(hostKey(url), (key, current) -> {
+            Host h = current == null ? new Host(key, maxConnectionsPerHost) : current;
+            h.users++;
+            return h;
+        });
+        try {
+            host.permits.acquire();
+        } catch (InterruptedException e) {
+            leave(host);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + url.getHost());
+        }
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            leases.put(connection, host);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            host.permits.release();
+            leave(host);
+            throw e;
+        }
+    }
+
+    @Override
+    public void release(HttpURLConnection connection, boolean responded) {
+        Host host = leases.remove(connection);
+        try {
+            if (!responded) {
+                connection.disconnect();
+                return;
+            }
+            InputStream stream = connection.getErrorStream();
+            if (stream == null) {
+                stream = connection.getInputStream();
+            }
+            drainAndClose(stream);
+        } catch (IOException | RuntimeException e) {
+            connection.disconnect();
+        } finally {
+            if (host != null) {
+                host.lastUsed = System.currentTimeMillis();
+                host.permits.release();
+                leave(host);
+            }
+        }
+    }
+
+    public Integer availableConnections(URL url) {
+        Host host = hosts.get(hostKey(url));
+        return host == null ? maxConnectionsPerHost : host.permits.availablePermits();
+    }
+
+    private void drainAndClose(InputStream stream) throws IOException {
+        try (InputStream is = stream) {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            while (is.read(buffer) != -1) {
+                // discard
+            }
+        }
+    }
+
+    private void leave(Host host) {
+        hosts.computeIfPresent(host.key, (key, current) -> {
+            if (current == host) {
+                current.users--;
+            }
+            return current;
+        });
+    }
+
+    private void evictIdleHosts() {
+        long now = System.currentTimeMillis();
+        for (String key : hosts.keySet()) {
+            hosts.computeIfPresent(key, (k, host) ->
+                    host.users == 0 && now - host.lastUsed > idleTimeoutMs ? null : host);
+        }
+    }
+
+    private static String hostKey(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage.api;
+
+import io.github.kszatan.gocd.b2.utils.storage.AuthorizeResponse;
+import io.github.kszatan.gocd.b2.utils.storage.ErrorResponse;
+import io.github.kszatan.gocd.b2.utils.storage.ListPartsResponse;
+import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+
+import java.io.IOException;
+import java.util.Optional;
+
+public class ListParts extends B2ApiCall {
+    private final AuthorizeResponse authorizeResponse;
+    private ListPartsResponse response;
+    private String fileId;
+    private Integer startPartNumber;
+
+    public ListParts(BackblazeApiWrapper backblazeApiWrapper, AuthorizeResponse authorizeResponse, String fileId,
+                     Integer startPartNumber) {
+        super("list parts", backblazeApiWrapper);
+        this.authorizeResponse = authorizeResponse;
+        this.fileId = fileId;
+        this.startPartNumber = startPartNumber;
+    }
+
+    public Optional<ListPartsResponse> getResponse() {
+        return Optional.ofNullable(response);
+    }
+
+    @Override
+    public Boolean call() throws StorageException {
+        try {
+            response = backblazeApiWrapper.listParts(authorizeResponse, fileId, startPartNumber).orElse(null);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        return response != null;
+    }
+
+    @Override
+    public void handleErrors(ErrorResponse error) throws StorageException {
+        super.handleErrors(error);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage.api;
+
+import io.github.kszatan.gocd.b2.utils.storage.AuthorizeResponse;
+import io.github.kszatan.gocd.b2.utils.storage.ErrorResponse;
+import io.github.kszatan.gocd.b2.utils.storage.ListUnfinishedLargeFilesResponse;
+import io.github.kszatan.gocd.b2.utils.storage.StorageException;
+
+import java.io.IOException;
+import java.util.Optional;
+
+public class ListUnfinishedLargeFiles extends B2ApiCall {
+    private final AuthorizeResponse authorizeResponse;
+    private ListUnfinishedLargeFilesResponse response;
+    private String bucketId;
+    private String namePrefix;
+    private String startFileId;
+
+    public ListUnfinishedLargeFiles(BackblazeApiWrapper backblazeApiWrapper, AuthorizeResponse authorizeResponse,
+                                    String bucketId, String namePrefix, String startFileId) {
+        super("list unfinished large files", backblazeApiWrapper);
+        this.authorizeResponse = authorizeResponse;
+        this.bucketId = bucketId;
+        this.namePrefix = namePrefix;
+        this.startFileId = startFileId;
+    }
+
+    public Optional<ListUnfinishedLargeFilesResponse> getResponse() {
+        return Optional.ofNullable(response);
+    }
+
+    @Override
+    public Boolean call() throws StorageException {
+        try {
+            response = backblazeApiWrapper.listUnfinishedLargeFiles(authorizeResponse, bucketId, namePrefix,
+                    startFileId).orElse(null);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        return response != null;
+    }
+
+    @Override
+    public void handleErrors(ErrorResponse error) throws StorageException {
+        super.handleErrors(error);
+    }
+}
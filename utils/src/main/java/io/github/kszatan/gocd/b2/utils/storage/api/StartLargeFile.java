@@ -19,13 +19,20 @@ public class StartLargeFile extends B2ApiCall {
     private StartLargeFileResponse response;
     private String backblazeFileName;
     private String bucketId;
+    private String largeFileSha1;
 
     public StartLargeFile(BackblazeApiWrapper backblazeApiWrapper, AuthorizeResponse authorizeResponse,
                           String backblazeFileName, String bucketId) {
+        this(backblazeApiWrapper, authorizeResponse, backblazeFileName, bucketId, null);
+    }
+
+    public StartLargeFile(BackblazeApiWrapper backblazeApiWrapper, AuthorizeResponse authorizeResponse,
+                          String backblazeFileName, String bucketId, String largeFileSha1) {
         super("start large file", backblazeApiWrapper);
         this.authorizeResponse = authorizeResponse;
         this.backblazeFileName = backblazeFileName;
         this.bucketId = bucketId;
+        this.largeFileSha1 = largeFileSha1;
     }
 
     public Optional<StartLargeFileResponse> getResponse() {
@@ -35,7 +42,10 @@ public class StartLargeFile extends B2ApiCall {
     @Override
     public Boolean call() throws StorageException {
         try {
-            response = backblazeApiWrapper.startLargeFile(authorizeResponse, backblazeFileName, bucketId).orElse(null);
+            response = (largeFileSha1 == null
+                    ? backblazeApiWrapper.startLargeFile(authorizeResponse, backblazeFileName, bucketId)
+                    : backblazeApiWrapper.startLargeFile(authorizeResponse, backblazeFileName, bucketId, largeFileSha1))
+                    .orElse(null);
         } catch (IOException e) {
             throw new StorageException(e);
         }
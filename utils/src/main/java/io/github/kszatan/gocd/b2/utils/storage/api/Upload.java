@@ -23,9 +23,17 @@ public class Upload extends B2ApiCall {
     private final AuthorizeResponse authorizeResponse;
     private GetUploadUrlResponse getUploadUrlResponse;
     private UploadFileResponse uploadFileResponse;
+    private String contentSha1;
 
     public Upload(BackblazeApiWrapper backblazeApiWrapper, String bucketId, Path workDir, Path relativeFilePath,
                   String destination, AuthorizeResponse authorizeResponse, GetUploadUrlResponse getUploadUrlResponse) {
+        this(backblazeApiWrapper, bucketId, workDir, relativeFilePath, destination, authorizeResponse,
+                getUploadUrlResponse, null);
+    }
+
+    public Upload(BackblazeApiWrapper backblazeApiWrapper, String bucketId, Path workDir, Path relativeFilePath,
+                  String destination, AuthorizeResponse authorizeResponse, GetUploadUrlResponse getUploadUrlResponse,
+                  String contentSha1) {
         super("upload " + relativeFilePath, backblazeApiWrapper);
         this.bucketId = bucketId;
         this.workDir = workDir;
@@ -33,19 +41,27 @@ public class Upload extends B2ApiCall {
         this.destination = destination;
         this.getUploadUrlResponse = getUploadUrlResponse;
         this.authorizeResponse = authorizeResponse;
+        this.contentSha1 = contentSha1;
     }
 
     Optional<UploadFileResponse> getResponse() {
         return Optional.ofNullable(uploadFileResponse);
     }
 
+    public GetUploadUrlResponse getUploadUrlResponse() {
+        return getUploadUrlResponse;
+    }
+
     @Override
     public Boolean call() throws StorageException {
         if (getUploadUrlResponse == null) {
             fetchNewUploadUrl();
         }
         try {
-            uploadFileResponse = backblazeApiWrapper.uploadFile(workDir, relativeFilePath, destination, getUploadUrlResponse)
+            uploadFileResponse = (contentSha1 == null
+                    ? backblazeApiWrapper.uploadFile(workDir, relativeFilePath, destination, getUploadUrlResponse)
+                    : backblazeApiWrapper.uploadFile(workDir, relativeFilePath, destination, getUploadUrlResponse,
+                            contentSha1))
                     .orElse(null);
         } catch(IOException | GeneralSecurityException e) {
             throw new StorageException("Exception while uploading file: " + e.getMessage(), e);
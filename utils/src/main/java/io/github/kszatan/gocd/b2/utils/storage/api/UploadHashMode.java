@@ -0,0 +1,14 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage.api;
+
+public enum UploadHashMode {
+    // hash the whole file first and send X-Bz-Content-Sha1 upfront; reads the file twice
+    BEFORE_UPLOAD,
+    // hash while streaming and append the hex digest to the body (hex_digits_at_end); reads the file once
+    AT_END
+}
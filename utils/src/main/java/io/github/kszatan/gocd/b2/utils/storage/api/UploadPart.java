@@ -10,35 +10,56 @@ import io.github.kszatan.gocd.b2.utils.storage.*;
 import org.apache.http.HttpStatus;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.security.GeneralSecurityException;
 import java.util.Optional;
 
 public class UploadPart extends B2ApiCall {
-    private final byte[] filePart;
+    private final FileChannel fileChannel;
+    private final Long offset;
     private final Integer partLength;
     private final Integer partNumber;
     private final AuthorizeResponse authorizeResponse;
     private GetUploadPartUrlResponse getUploadPartUrlResponse;
     private UploadPartResponse uploadPartResponse;
+    private String contentSha1;
 
-    public UploadPart(BackblazeApiWrapper backblazeApiWrapper, byte[] filePart, Integer partLength, Integer partNumber,
-                      AuthorizeResponse authorizeResponse, GetUploadPartUrlResponse getUploadPartUrlResponse) {
-        super("upload part ", backblazeApiWrapper);
-        this.filePart = filePart;
+    public UploadPart(BackblazeApiWrapper backblazeApiWrapper, FileChannel fileChannel, Long offset, Integer partLength,
+                      Integer partNumber, AuthorizeResponse authorizeResponse,
+                      GetUploadPartUrlResponse getUploadPartUrlResponse) {
+        this(backblazeApiWrapper, fileChannel, offset, partLength, partNumber, authorizeResponse,
+                getUploadPartUrlResponse, null);
+    }
+
+    public UploadPart(BackblazeApiWrapper backblazeApiWrapper, FileChannel fileChannel, Long offset, Integer partLength,
+                      Integer partNumber, AuthorizeResponse authorizeResponse,
+                      GetUploadPartUrlResponse getUploadPartUrlResponse, String contentSha1) {
+        super("upload part " + partNumber, backblazeApiWrapper);
+        this.fileChannel = fileChannel;
+        this.offset = offset;
         this.partNumber = partNumber;
         this.partLength = partLength;
         this.getUploadPartUrlResponse = getUploadPartUrlResponse;
         this.authorizeResponse = authorizeResponse;
+        this.contentSha1 = contentSha1;
     }
 
     public Optional<UploadPartResponse> getResponse() {
         return Optional.ofNullable(uploadPartResponse);
     }
 
+    public GetUploadPartUrlResponse getUploadPartUrlResponse() {
+        return getUploadPartUrlResponse;
+    }
+
     @Override
     public Boolean call() throws StorageException {
         try {
-            uploadPartResponse = backblazeApiWrapper.uploadPart(filePart, partLength, partNumber, getUploadPartUrlResponse)
+            uploadPartResponse = (contentSha1 == null
+                    ? backblazeApiWrapper.uploadPart(fileChannel, offset, partLength, partNumber,
+                            getUploadPartUrlResponse)
+                    : backblazeApiWrapper.uploadPart(fileChannel, offset, partLength, partNumber,
+                            getUploadPartUrlResponse, contentSha1))
                     .orElse(null);
         } catch(IOException | GeneralSecurityException e) {
             throw new StorageException("Exception while uploading file part: " + e.getMessage(), e);
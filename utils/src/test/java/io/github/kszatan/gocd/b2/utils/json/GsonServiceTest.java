@@ -6,12 +6,16 @@
 
 package io.github.kszatan.gocd.b2.utils.json;
 
+import io.github.kszatan.gocd.b2.utils.storage.AuthorizeResponse;
+import io.github.kszatan.gocd.b2.utils.storage.FileName;
+import io.github.kszatan.gocd.b2.utils.storage.ListFileNamesResponse;
 import org.junit.Test;
 
 import java.util.*;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.*;
 
 public class GsonServiceTest {
@@ -43,4 +47,56 @@ public class GsonServiceTest {
         String configurationJson = GsonService.getField(json, "scm-configuration");
         assertThat(configurationJson, equalTo("{\"url\":{\"value\":\"repourl\"},\"username\":{\"value\":\"kszatan\"},\"password\":{\"value\":\"hunter2\"}}"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void parseShouldThrowGivenMalformedJson() throws Exception {
+        try {
+            GsonService.parse("Invalid JSON");
+            fail("InvalidJson expected");
+        } catch (InvalidJson e) {
+            assertThat(e.getMessage().startsWith("Malformed JSON: "), is(true));
+        }
+    }
+
+    @Test
+    public void getGsonShouldReturnSharedInstance() {
+        assertThat(GsonService.getGson() == GsonService.getGson(), is(true));
+    }
+
+    @Test
+    public void listFileNamesResponseShouldSurviveRoundTrip() {
+        String json = "{\"files\":[{\"fileId\":\"id-1\",\"fileName\":\"dir/file-1\",\"action\":\"upload\"," +
+                "\"contentLength\":5000000000,\"size\":5000000000,\"uploadTimestamp\":1514764800000," +
+                "\"contentType\":\"text/plain\",\"contentSha1\":\"none\",\"fileInfo\":{\"large_file_sha1\":\"abc\"," +
+                "\"author\":\"someone\"},\"unknown\":[1,2]}],\"nextFileName\":null}";
+        ListFileNamesResponse response = GsonService.fromJson(json, ListFileNamesResponse.class);
+        assertThat(response.fileNames.size(), is(1));
+        FileName fileName = response.fileNames.get(0);
+        assertThat(fileName.fileId, equalTo("id-1"));
+        assertThat(fileName.fileName, equalTo("dir/file-1"));
+        assertThat(fileName.contentLength, equalTo(5000000000L));
+        assertThat(fileName.uploadTimestamp, equalTo(1514764800000L));
+        assertThat(fileName.fileInfo.largeFileSha1, equalTo("abc"));
+        assertThat(fileName.fileInfo.srcLastModifiedMillis, nullValue());
+        assertThat(response.nextFileName, nullValue());
+
+        ListFileNamesResponse copy = GsonService.fromJson(GsonService.toJson(response), ListFileNamesResponse.class);
+        assertThat(copy.fileNames.get(0).contentSha1, equalTo("none"));
+        assertThat(copy.fileNames.get(0).fileInfo.largeFileSha1, equalTo("abc"));
+    }
+
+    @Test
+    public void authorizeResponseShouldSurviveRoundTrip() {
+        AuthorizeResponse response = new AuthorizeResponse();
+        response.accountId = "account";
+        response.apiUrl = "https://api001.backblazeb2.com";
+        response.recommendedPartSize = 100000000;
+        String json = GsonService.toJson(response);
+        assertThat(json.contains("downloadUrl"), is(false));
+        AuthorizeResponse copy = GsonService.fromJson(json, AuthorizeResponse.class);
+        assertThat(copy.accountId, equalTo("account"));
+        assertThat(copy.apiUrl, equalTo("https://api001.backblazeb2.com"));
+        assertThat(copy.recommendedPartSize, equalTo(100000000));
+        assertThat(copy.downloadUrl, nullValue());
+    }
+}
@@ -8,16 +8,21 @@ package io.github.kszatan.gocd.b2.utils.storage;
 
 import io.github.kszatan.gocd.b2.utils.json.GsonService;
 import io.github.kszatan.gocd.b2.utils.storage.api.BackblazeApiWrapper;
+import io.github.kszatan.gocd.b2.utils.storage.api.HttpTransport;
+import io.github.kszatan.gocd.b2.utils.storage.api.UploadHashMode;
 import org.apache.http.HttpStatus;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Optional;
 
 import static org.hamcrest.Matchers.equalTo;
@@ -27,7 +32,7 @@ import static org.mockito.Mockito.*;
 
 public class BackblazeApiWrapperTest {
     private BackblazeApiWrapper wrapper;
-    private URLStreamHandler stubUrlHandler;
+    private HttpTransport stubTransport;
     private HttpURLConnection mockUrlCon;
     private AuthorizeResponse defAuthResponse;
     private FileHash mockFileHash;
@@ -159,14 +164,14 @@ public class BackblazeApiWrapperTest {
     @Before
     public void setUp() throws Exception {
         mockUrlCon = mock(HttpURLConnection.class);
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 return mockUrlCon;
             }
         };
         mockFileHash = mock(FileHash.class);
-        wrapper = new BackblazeApiWrapper(stubUrlHandler, mockFileHash);
+        wrapper = new BackblazeApiWrapper(stubTransport, mockFileHash);
 
         defAuthResponse = new AuthorizeResponse();
         defAuthResponse.absoluteMinimumPartSize = 5000000;
@@ -211,14 +216,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnAuthorizeShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         String accountId = "account_id";
         String applicationKey = "application_key";
@@ -231,14 +236,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnAuthorizeShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         String accountId = "account_id";
         String applicationKey = "application_key";
@@ -255,14 +260,14 @@ public class BackblazeApiWrapperTest {
     public void exceptionDuringOpeningConnectionOnListBucketsShouldCloseConnection() throws Exception {
         doThrow(new IOException("Bad")).when(mockUrlCon).getInputStream();
 
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 return mockUrlCon;
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         try {
             wrapper.listBuckets(GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class));
@@ -273,14 +278,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnListBucketsShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         try {
             wrapper.listBuckets(GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class));
@@ -291,14 +296,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnListBucketsShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         Optional<ListBucketsResponse> response = wrapper.listBuckets(authorizeResponse);
@@ -341,15 +346,15 @@ public class BackblazeApiWrapperTest {
     public void exceptionDuringOpeningConnectionOnUploadFileShouldCloseConnection() throws Exception {
         doThrow(new IOException("Bad")).when(mockUrlCon).getInputStream();
 
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 return mockUrlCon;
             }
         };
         doReturn("hash").when(mockFileHash).getHashValue(any());
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler, mockFileHash);
+        wrapper = new BackblazeApiWrapper(stubTransport, mockFileHash);
 
         GetUploadUrlResponse uploadUrlResponse = GsonService.fromJson(getUploadUrlResponseJson, GetUploadUrlResponse.class);
         try {
@@ -361,14 +366,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnUploadFileShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler, mockFileHash);
+        wrapper = new BackblazeApiWrapper(stubTransport, mockFileHash);
 
         GetUploadUrlResponse uploadUrlResponse = GsonService.fromJson(getUploadUrlResponseJson, GetUploadUrlResponse.class);
         try {
@@ -380,14 +385,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnUploadFileShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         Path filePath = Paths.get(this.getClass().getResource("UploadFileTest.txt").toURI());
         GetUploadUrlResponse uploadUrlResponse = GsonService.fromJson(getUploadUrlResponseJson, GetUploadUrlResponse.class);
@@ -418,6 +423,28 @@ public class BackblazeApiWrapperTest {
         assertThat(os.toString(), equalTo(fileContents));
     }
 
+    @Test
+    public void uploadFileWithHashAtEndShouldAppendSha1ToFileContentsAndReadFileOnce() throws Exception {
+        ByteArrayInputStream is = new ByteArrayInputStream(uploadFileResponseJson.getBytes("UTF-8"));
+        doReturn(is).when(mockUrlCon).getInputStream();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        doReturn(os).when(mockUrlCon).getOutputStream();
+        doReturn(HttpStatus.SC_OK).when(mockUrlCon).getResponseCode();
+
+        Path filePath = Paths.get(this.getClass().getResource("UploadFileTest.txt").toURI());
+        GetUploadUrlResponse uploadUrlResponse = GsonService.fromJson(getUploadUrlResponseJson, GetUploadUrlResponse.class);
+
+        wrapper.setUploadHashMode(UploadHashMode.AT_END);
+        wrapper.uploadFile(Paths.get(""), filePath, "", uploadUrlResponse);
+
+        byte[] fileBytes = Files.readAllBytes(filePath);
+        String sha1 = new Sha1FileHash().getHashValue(filePath);
+        assertThat(os.toString(), equalTo(new String(fileBytes) + sha1));
+        verify(mockUrlCon).setRequestProperty("X-Bz-Content-Sha1", "hex_digits_at_end");
+        verify(mockUrlCon).setFixedLengthStreamingMode(fileBytes.length + 40L);
+        verify(mockFileHash, never()).getHashValue(any(Path.class));
+    }
+
     @Test
     public void uploadFileShouldCloseConnectionAfterSuccessfulUpload() throws Exception {
         ByteArrayInputStream is = new ByteArrayInputStream(uploadFileResponseJson.getBytes("UTF-8"));
@@ -447,14 +474,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnGetUploadUrlShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         try {
             wrapper.getUploadUrl(GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class), "asdf");
@@ -465,14 +492,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnGetUploadUrlShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         Optional<GetUploadUrlResponse> response = wrapper.getUploadUrl(authorizeResponse, "asdf");
@@ -561,14 +588,14 @@ public class BackblazeApiWrapperTest {
     public void exceptionDuringOpeningConnectionOnListFileNamesShouldCloseConnection() throws Exception {
         doThrow(new IOException("Bad")).when(mockUrlCon).getInputStream();
 
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 return mockUrlCon;
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         try {
             wrapper.listFileNames(GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class), "bucketId");
@@ -579,14 +606,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnListFileNamesShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         try {
             wrapper.listFileNames(GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class), "bucketId");
@@ -597,14 +624,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnListFileNamesShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         Optional<ListFileNamesResponse> response = wrapper.listFileNames(authorizeResponse, "bucketId");
@@ -629,17 +656,17 @@ public class BackblazeApiWrapperTest {
         assertThat(response.fileNames.size(), equalTo(2));
         FileName fileName = response.fileNames.get(0);
         assertThat(fileName.action, equalTo("upload"));
-        assertThat(fileName.contentLength, equalTo(6));
+        assertThat(fileName.contentLength, equalTo(6L));
         assertThat(fileName.fileId, equalTo("4_z27c88f1d182b150646ff0b16_f1004ba650fe24e6b_d20150809_m012853_c100_v0009990_t0000"));
         assertThat(fileName.fileName, equalTo("files/hello.txt"));
-        assertThat(fileName.size, equalTo(6));
+        assertThat(fileName.size, equalTo(6L));
         assertThat(fileName.uploadTimestamp, equalTo(1439083733000L));
         fileName = response.fileNames.get(1);
         assertThat(fileName.action, equalTo("upload"));
-        assertThat(fileName.contentLength, equalTo(6));
+        assertThat(fileName.contentLength, equalTo(6L));
         assertThat(fileName.fileId, equalTo("4_z27c88f1d182b150646ff0b16_f1004ba650fe24e6c_d20150809_m012854_c100_v0009990_t0000"));
         assertThat(fileName.fileName, equalTo("files/world.txt"));
-        assertThat(fileName.size, equalTo(6));
+        assertThat(fileName.size, equalTo(6L));
         assertThat(fileName.uploadTimestamp, equalTo(1439083734000L));
         assertThat(response.nextFileName, nullValue());
     }
@@ -648,13 +675,13 @@ public class BackblazeApiWrapperTest {
     public void exceptionDuringOpeningConnectionOnDownloadFileShouldCloseConnection() throws Exception {
         doThrow(new IOException("Bad")).when(mockUrlCon).getInputStream();
 
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 return mockUrlCon;
             }
         };
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         try {
             wrapper.downloadFileByName("bukhet", "file", Paths.get(""), "", authorizeResponse);
@@ -665,13 +692,13 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnDownloadFileShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         try {
             wrapper.downloadFileByName("bukhet", "file", Paths.get(""), "",authorizeResponse);
@@ -682,14 +709,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnDownloadFileShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         Optional<DownloadFileResponse> response = wrapper.downloadFileByName("bukhet", "file", Paths.get(""), "", authorizeResponse);
@@ -718,7 +745,7 @@ public class BackblazeApiWrapperTest {
         OutputStream mockFos = mock(OutputStream.class);
         BackblazeApiWrapper.OutputStreamFactory mockOsFactory = mock(BackblazeApiWrapper.OutputStreamFactory.class);
         doReturn(mockFos).when(mockOsFactory).create(any());
-        wrapper = new BackblazeApiWrapper(stubUrlHandler, mockOsFactory);
+        wrapper = new BackblazeApiWrapper(stubTransport, mockOsFactory);
 
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         final String bucketName = "bukhet";
@@ -741,13 +768,13 @@ public class BackblazeApiWrapperTest {
     public void exceptionDuringOpeningConnectionOnStartLargeFileShouldCloseConnection() throws Exception {
         doThrow(new IOException("Bad")).when(mockUrlCon).getInputStream();
 
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 return mockUrlCon;
             }
         };
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         try {
             wrapper.startLargeFile(authorizeResponse,"relative/path/to/file.txt", "4a48fe8875c6214145260818");
@@ -758,13 +785,13 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnStartLargeFileShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         try {
             wrapper.startLargeFile(authorizeResponse,"relative/path/to/file.txt", "4a48fe8875c6214145260818");
@@ -775,14 +802,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnStartLargeFileShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         Optional<StartLargeFileResponse> response = wrapper.startLargeFile(authorizeResponse,"relative/path/to/file.txt", "4a48fe8875c6214145260818");
@@ -816,13 +843,13 @@ public class BackblazeApiWrapperTest {
     public void exceptionDuringOpeningConnectionOnGetUploadPartUrlShouldCloseConnection() throws Exception {
         doThrow(new IOException("Bad")).when(mockUrlCon).getInputStream();
 
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 return mockUrlCon;
             }
         };
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         try {
             wrapper.getUploadPartUrl(authorizeResponse,"4_h4a48fe8875c6214145260818_f000000000000472a_d20140104_m032022_c001_v0000123_t0104");
@@ -833,13 +860,13 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnGetUploadPartUrlShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         try {
             wrapper.getUploadPartUrl(authorizeResponse,"4_h4a48fe8875c6214145260818_f000000000000472a_d20140104_m032022_c001_v0000123_t0104");
@@ -850,14 +877,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnGetUploadPartUrlShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         Optional<GetUploadPartUrlResponse> response = wrapper.getUploadPartUrl(authorizeResponse,"4_h4a48fe8875c6214145260818_f000000000000472a_d20140104_m032022_c001_v0000123_t0104");
@@ -887,19 +914,19 @@ public class BackblazeApiWrapperTest {
     public void exceptionDuringOpeningConnectionOnUploadPartShouldCloseConnection() throws Exception {
         doThrow(new IOException("Bad")).when(mockUrlCon).getInputStream();
 
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 return mockUrlCon;
             }
         };
         doReturn("hash").when(mockFileHash).getHashValue(any());
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler, mockFileHash);
+        wrapper = new BackblazeApiWrapper(stubTransport, mockFileHash);
 
         GetUploadPartUrlResponse uploadPartUrlResponse = GsonService.fromJson(getUploadPartUrlResponseJson, GetUploadPartUrlResponse.class);
         try {
-            wrapper.uploadPart(new byte[10], 10, 1, uploadPartUrlResponse);
+            uploadPart(wrapper, 10, uploadPartUrlResponse);
         } catch (Exception e) {
         }
         verify(mockUrlCon).disconnect();
@@ -907,18 +934,18 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnUploadPartShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler, mockFileHash);
+        wrapper = new BackblazeApiWrapper(stubTransport, mockFileHash);
 
         GetUploadPartUrlResponse uploadPartUrlResponse = GsonService.fromJson(getUploadPartUrlResponseJson, GetUploadPartUrlResponse.class);
         try {
-            wrapper.uploadPart(new byte[10], 10, 1, uploadPartUrlResponse);
+            uploadPart(wrapper, 10, uploadPartUrlResponse);
         } catch (Exception e) {
         }
         verify(mockUrlCon, times(0)).disconnect();
@@ -926,17 +953,17 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnUploadPartShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         GetUploadPartUrlResponse uploadPartUrlResponse = GsonService.fromJson(getUploadPartUrlResponseJson, GetUploadPartUrlResponse.class);
-        Optional<UploadPartResponse> response = wrapper.uploadPart(new byte[10], 10, 1, uploadPartUrlResponse);
+        Optional<UploadPartResponse> response = uploadPart(wrapper, 10, uploadPartUrlResponse);
         assertThat(response, equalTo(Optional.empty()));
         ErrorResponse error = wrapper.getLastError().get();
         assertThat(error.status, equalTo(HttpStatus.SC_REQUEST_TIMEOUT));
@@ -955,14 +982,10 @@ public class BackblazeApiWrapperTest {
 
         Path filePath = Paths.get(this.getClass().getResource("UploadFileTest.txt").toURI());
         int length = (int) Files.size(filePath);
-        byte[] buf = new byte[length];
-        InputStream fis = Files.newInputStream(filePath);
-        fis.read(buf, 0, length);
-        fis.close();
 
         GetUploadPartUrlResponse uploadPartUrlResponse = GsonService.fromJson(getUploadPartUrlResponseJson, GetUploadPartUrlResponse.class);
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
-        wrapper.uploadPart(buf, length,1, uploadPartUrlResponse);
+        wrapper = new BackblazeApiWrapper(stubTransport);
+        uploadPart(wrapper, length, uploadPartUrlResponse);
 
         byte[] fileBytes = Files.readAllBytes(filePath);
         String fileContents = new String(fileBytes);
@@ -979,13 +1002,9 @@ public class BackblazeApiWrapperTest {
 
         URI fileUri = this.getClass().getResource("UploadFileTest.txt").toURI();
         int length = (int) Files.size(Paths.get(fileUri));
-        byte[] buf = new byte[length];
-        InputStream fis = Files.newInputStream(Paths.get(fileUri));
-        fis.read(buf, 0, length);
-        fis.close();
 
         GetUploadPartUrlResponse uploadPartUrlResponse = GsonService.fromJson(getUploadPartUrlResponseJson, GetUploadPartUrlResponse.class);
-        UploadPartResponse response = wrapper.uploadPart(buf, length,1, uploadPartUrlResponse).get();
+        UploadPartResponse response = uploadPart(wrapper, length, uploadPartUrlResponse).get();
 
         assertThat(response.fileId, equalTo("4_ze73ede9c9c8412db49f60715_f100b4e93fbae6252_d20150824_m224353_c900_v8881000_t0001"));
         assertThat(response.contentSha1, equalTo("062685a84ab248d2488f02f6b01b948de2514ad8"));
@@ -993,6 +1012,29 @@ public class BackblazeApiWrapperTest {
         assertThat(response.partNumber, equalTo(1));
     }
 
+    @Test
+    public void uploadPartShouldStreamRequestedRegionOfFileChannel() throws Exception {
+        ByteArrayInputStream is = new ByteArrayInputStream(uploadPartResponseJson.getBytes("UTF-8"));
+        doReturn(is).when(mockUrlCon).getInputStream();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        doReturn(os).when(mockUrlCon).getOutputStream();
+        doReturn(HttpStatus.SC_OK).when(mockUrlCon).getResponseCode();
+
+        Path filePath = Paths.get(this.getClass().getResource("UploadFileTest.txt").toURI());
+        byte[] fileBytes = Files.readAllBytes(filePath);
+        GetUploadPartUrlResponse uploadPartUrlResponse = GsonService.fromJson(getUploadPartUrlResponseJson, GetUploadPartUrlResponse.class);
+        wrapper = new BackblazeApiWrapper(stubTransport);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            wrapper.uploadPart(channel, 5L, 10, 2, uploadPartUrlResponse);
+        }
+
+        assertThat(os.toByteArray(), equalTo(Arrays.copyOfRange(fileBytes, 5, 15)));
+        verify(mockUrlCon).setFixedLengthStreamingMode(10);
+        verify(mockUrlCon).setRequestProperty("X-Bz-Content-Sha1",
+                new Sha1FileHash().getHashValue(Arrays.copyOfRange(fileBytes, 5, 15), 10));
+        verify(mockUrlCon).disconnect();
+    }
+
     @Test
     public void uploadPartShouldCloseConnectionAfterSuccessfulUpload() throws Exception {
         ByteArrayInputStream is = new ByteArrayInputStream(uploadPartResponseJson.getBytes("UTF-8"));
@@ -1002,7 +1044,7 @@ public class BackblazeApiWrapperTest {
         doReturn(HttpStatus.SC_OK).when(mockUrlCon).getResponseCode();
 
         GetUploadPartUrlResponse uploadPartUrlResponse = GsonService.fromJson(getUploadPartUrlResponseJson, GetUploadPartUrlResponse.class);
-        wrapper.uploadPart(new byte[10], 10, 1, uploadPartUrlResponse);
+        uploadPart(wrapper, 10, uploadPartUrlResponse);
 
         verify(mockUrlCon).disconnect();
     }
@@ -1011,13 +1053,13 @@ public class BackblazeApiWrapperTest {
     public void exceptionDuringOpeningConnectionOnFinishLargeFileShouldCloseConnection() throws Exception {
         doThrow(new IOException("Bad")).when(mockUrlCon).getInputStream();
 
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 return mockUrlCon;
             }
         };
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         try {
             wrapper.finishLargeFile(authorizeResponse,"4_ze73ede9c9c8412db49f60715", new ArrayList<>());
@@ -1028,13 +1070,13 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnFinishLargeFileShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         try {
             wrapper.finishLargeFile(authorizeResponse,"4_ze73ede9c9c8412db49f60715", new ArrayList<>());
@@ -1045,14 +1087,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnFinishLargeFileShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         Optional<FinishLargeFileResponse> response = wrapper.finishLargeFile(authorizeResponse,"4_ze73ede9c9c8412db49f60715", new ArrayList<>());
@@ -1089,13 +1131,13 @@ public class BackblazeApiWrapperTest {
     public void exceptionDuringOpeningConnectionOnCancelLargeFileShouldCloseConnection() throws Exception {
         doThrow(new IOException("Bad")).when(mockUrlCon).getInputStream();
 
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 return mockUrlCon;
             }
         };
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         try {
             wrapper.cancelLargeFile(authorizeResponse,"4_ze73ede9c9c8412db49f60715");
@@ -1106,13 +1148,13 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void exceptionDuringOpeningConnectionOnCancelLargeFileShouldNotResultInAttemptToCloseConnection() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new IOException("Bad, bad connection");
             }
         };
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         try {
             wrapper.cancelLargeFile(authorizeResponse,"4_ze73ede9c9c8412db49f60715");
@@ -1123,14 +1165,14 @@ public class BackblazeApiWrapperTest {
 
     @Test
     public void requestTimeoutDuringConnectionOnCancelLargeFileShouldResultInCorrectlySetErrorAndEmptyReturn() throws Exception {
-        stubUrlHandler = new URLStreamHandler() {
+        stubTransport = new StubHttpTransport() {
             @Override
-            protected HttpURLConnection openConnection(URL u) throws IOException {
+            public HttpURLConnection open(URL u) throws IOException {
                 throw new SocketTimeoutException("Request timeout");
             }
         };
 
-        wrapper = new BackblazeApiWrapper(stubUrlHandler);
+        wrapper = new BackblazeApiWrapper(stubTransport);
 
         AuthorizeResponse authorizeResponse = GsonService.fromJson(authorizeResponseJson, AuthorizeResponse.class);
         Optional<CancelLargeFileResponse> response = wrapper.cancelLargeFile(authorizeResponse,"4_ze73ede9c9c8412db49f60715");
@@ -1156,4 +1198,12 @@ public class BackblazeApiWrapperTest {
         assertThat(response.fileId, equalTo("4_za71f544e781e6891531b001a_f200ec353a2184825_d20160409_m004829_c000_v0001016_t0028"));
         assertThat(response.fileName , equalTo("bigfile.dat"));
     }
-}
\ No newline at end of file
+
+    private Optional<UploadPartResponse> uploadPart(BackblazeApiWrapper wrapper, Integer length,
+                                                    GetUploadPartUrlResponse uploadPartUrlResponse) throws Exception {
+        Path filePath = Paths.get(this.getClass().getResource("UploadFileTest.txt").toURI());
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            return wrapper.uploadPart(channel, 0L, length, 1, uploadPartUrlResponse);
+        }
+    }
+}
@@ -17,10 +17,13 @@ import org.junit.rules.ExpectedException;
 import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
 import static org.hamcrest.Matchers.equalTo;
@@ -65,7 +68,7 @@ public class BackblazeStorageTest {
         fileName.fileId = "4_z27c88f1d182b150646ff0b16_f1004ba650fe24e6b_d20150809_m012853_c100_v0009990_t0000";
         fileName.action = "upload";
         fileName.uploadTimestamp = 1439083733000L;
-        fileName.contentLength = 6;
+        fileName.contentLength = 6L;
         listFileNamesResponse.fileNames.add(fileName);
         listFileNamesResponse.nextFileName = "next file";
         Optional<ListFileNamesResponse> maybeListFileNamesResponse = Optional.of(listFileNamesResponse);
@@ -94,7 +97,7 @@ public class BackblazeStorageTest {
         fileName.fileId = "4_z27c88f1d182b150646ff0b16_f1004ba650fe24e6b_d20150809_m012853_c100_v0009990_t0000";
         fileName.action = "upload";
         fileName.uploadTimestamp = 1439083733000L;
-        fileName.contentLength = 6;
+        fileName.contentLength = 6L;
         listFileNamesResponse.fileNames.add(fileName);
         listFileNamesResponse.nextFileName = "next file";
         Optional<ListFileNamesResponse> maybeListFileNamesResponse = Optional.of(listFileNamesResponse);
@@ -126,7 +129,7 @@ public class BackblazeStorageTest {
         fileName.fileId = "4_z27c88f1d182b150646ff0b16_f1004ba650fe24e6b_d20150809_m012853_c100_v0009990_t0000";
         fileName.action = "upload";
         fileName.uploadTimestamp = 1439083733000L;
-        fileName.contentLength = 6;
+        fileName.contentLength = 6L;
         listFileNamesResponse.fileNames.add(fileName);
         listFileNamesResponse.nextFileName = "next file";
         Optional<ListFileNamesResponse> maybeListFileNamesResponse = Optional.of(listFileNamesResponse);
@@ -425,20 +428,20 @@ public class BackblazeStorageTest {
         doReturn(Optional.of(new GetUploadPartUrlResponse()))
                 .when(backblazeApiWrapperMock).getUploadPartUrl(any(), any());
         doReturn(Optional.of(new UploadPartResponse()))
-                .when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any());
+                .when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any(), any());
         doReturn(Optional.of(new FinishLargeFileResponse()))
                 .when(backblazeApiWrapperMock).finishLargeFile(any(), any(), any());
         String bucketId = "bukhet123";
         doReturn(Optional.of(bucketId)).when(credentialsManagerMock).getBucketId(accountId, applicationKey, bucketName);
         doReturn(Optional.of(new UploadPartResponse()))
-                .when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any());
+                .when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any(), any());
         Path workDir = Paths.get("");
         String destination = "";
         Path relativeTestFilePath = Paths.get("").toAbsolutePath().relativize(testFilePath);
         storage.upload(workDir, relativeTestFilePath, destination);
         String uploadedFileName = FilenameUtils.normalize(relativeTestFilePath.toString(), true);
         verify(backblazeApiWrapperMock).startLargeFile(authorizeResponse, uploadedFileName, bucketId);
-        verify(backblazeApiWrapperMock, times(3)).uploadPart(any(), any(), any(), any());
+        verify(backblazeApiWrapperMock, times(3)).uploadPart(any(), any(), any(), any(), any());
     }
 
     @Test
@@ -560,7 +563,7 @@ public class BackblazeStorageTest {
         doReturn(Optional.of(new GetUploadPartUrlResponse()))
                 .when(backblazeApiWrapperMock).getUploadPartUrl(any(), any());
         doReturn(Optional.of(new UploadPartResponse()))
-                .when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any());
+                .when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any(), any());
         doReturn(Optional.of(new FinishLargeFileResponse()))
                 .when(backblazeApiWrapperMock).finishLargeFile(any(), any(), any());
 
@@ -568,10 +571,70 @@ public class BackblazeStorageTest {
         storage.upload(workDir, testFilePath, "dest");
         verify(backblazeApiWrapperMock).startLargeFile(any(), any(), any());
         verify(backblazeApiWrapperMock).getUploadPartUrl(any(), any());
-        verify(backblazeApiWrapperMock, times(3)).uploadPart(any(), any(), any(), any());
+        verify(backblazeApiWrapperMock, times(3)).uploadPart(any(), any(), any(), any(), any());
         verify(backblazeApiWrapperMock).finishLargeFile(any(), any(), any());
     }
 
+    @Test
+    public void uploadLargeFileShouldUploadPartsConcurrentlyAndKeepPartOrder() throws Exception {
+        AuthorizeResponse authorizeResponse = new AuthorizeResponse();
+        authorizeResponse.recommendedPartSize = 10;
+        authorize(authorizeResponse);
+        mockListBucketsCall(Optional.of(authorizeResponse));
+
+        doReturn(Optional.of(new StartLargeFileResponse()))
+                .when(backblazeApiWrapperMock).startLargeFile(any(), any(), any());
+        doReturn(Optional.of(new GetUploadPartUrlResponse()))
+                .when(backblazeApiWrapperMock).getUploadPartUrl(any(), any());
+        doAnswer(invocation -> {
+            UploadPartResponse uploadPartResponse = new UploadPartResponse();
+            uploadPartResponse.contentSha1 = "sha1_" + invocation.getArguments()[3];
+            return Optional.of(uploadPartResponse);
+        }).when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any(), any());
+        doReturn(Optional.of(new FinishLargeFileResponse()))
+                .when(backblazeApiWrapperMock).finishLargeFile(any(), any(), any());
+
+        storage.setPartUploadThreads(3);
+        storage.upload(Paths.get(""), testFilePath, "dest");
+        verify(backblazeApiWrapperMock, times(3)).getUploadPartUrl(any(), any());
+        verify(backblazeApiWrapperMock, times(3)).uploadPart(any(), any(), any(), any(), any());
+        verify(backblazeApiWrapperMock)
+                .finishLargeFile(any(), any(), eq(Arrays.asList("sha1_1", "sha1_2", "sha1_3")));
+    }
+
+    @Test
+    public void uploadLargeFileShouldPassPartHashesComputedAhead() throws Exception {
+        AuthorizeResponse authorizeResponse = new AuthorizeResponse();
+        authorizeResponse.recommendedPartSize = 10;
+        authorize(authorizeResponse);
+        mockListBucketsCall(Optional.of(authorizeResponse));
+
+        doReturn(Optional.of(new StartLargeFileResponse()))
+                .when(backblazeApiWrapperMock).startLargeFile(any(), any(), any());
+        doReturn(Optional.of(new GetUploadPartUrlResponse()))
+                .when(backblazeApiWrapperMock).getUploadPartUrl(any(), any());
+        doAnswer(invocation -> {
+            UploadPartResponse uploadPartResponse = new UploadPartResponse();
+            uploadPartResponse.contentSha1 = (String) invocation.getArguments()[5];
+            return Optional.of(uploadPartResponse);
+        }).when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any(), any(), any());
+        doReturn(Optional.of(new FinishLargeFileResponse()))
+                .when(backblazeApiWrapperMock).finishLargeFile(any(), any(), any());
+
+        storage.setPartUploadThreads(2);
+        storage.setPartsHashedAhead(2);
+        storage.upload(Paths.get(""), testFilePath, "dest");
+        byte[] content = Files.readAllBytes(testFilePath);
+        List<String> expected = new ArrayList<>();
+        for (int offset = 0; offset < content.length; offset += 10) {
+            expected.add(new Sha1FileHash().getHashValue(
+                    Arrays.copyOfRange(content, offset, Math.min(content.length, offset + 10)),
+                    Math.min(10, content.length - offset)));
+        }
+        verify(backblazeApiWrapperMock, never()).uploadPart(any(), any(), any(), any(), any());
+        verify(backblazeApiWrapperMock).finishLargeFile(any(), any(), eq(expected));
+    }
+
     @Test
     public void uploadLargeFileShouldThrowIfStartLargeFileFails() throws Exception {
         AuthorizeResponse authorizeResponse = new AuthorizeResponse();
@@ -650,7 +713,7 @@ public class BackblazeStorageTest {
                 .doReturn(Optional.empty())
                 .doReturn(Optional.empty())
                 .doReturn(Optional.empty())
-                .when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any());
+                .when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any(), any());
         doReturn(Optional.of(new CancelLargeFileResponse())).
                 when(backblazeApiWrapperMock).cancelLargeFile(any(), eq(fileId));
 
@@ -679,7 +742,7 @@ public class BackblazeStorageTest {
         doReturn(Optional.of(new GetUploadPartUrlResponse()))
                 .when(backblazeApiWrapperMock).getUploadPartUrl(any(), any());
         doReturn(Optional.of(new UploadPartResponse()))
-                .when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any());
+                .when(backblazeApiWrapperMock).uploadPart(any(), any(), any(), any(), any());
         doReturn(Optional.empty())
                 .doReturn(Optional.empty())
                 .doReturn(Optional.empty())
@@ -711,7 +774,34 @@ public class BackblazeStorageTest {
         Boolean result = storage.download("dir1/fileName.txt", Paths.get(System.getProperty("java.io.tmpdir")), "up42/up42_stage/up42_job/63.1/");
         assertThat(result, equalTo(false));
     }
-    
+
+    @Test
+    public void failedDownloadShouldNotOverwriteErrorMessageOfOtherThreads() throws Exception {
+        authorize(new AuthorizeResponse());
+        ErrorResponse errorResponse = new ErrorResponse();
+        errorResponse.status = HttpStatus.SC_INTERNAL_SERVER_ERROR;
+        errorResponse.message = "Internal Error";
+        doReturn(Optional.of(errorResponse)).when(backblazeApiWrapperMock).getLastError();
+        doReturn(Optional.empty()).when(backblazeApiWrapperMock).downloadFileByName(any(), any(), any(), any(), any());
+        Path destination = Paths.get(System.getProperty("java.io.tmpdir"));
+
+        assertThat(storage.download("dir1/first.txt", destination, "up42/"), equalTo(false));
+        String[] otherMessage = new String[1];
+        Thread other = new Thread(() -> {
+            try {
+                storage.download("dir1/second.txt", destination, "up42/");
+                otherMessage[0] = storage.getLastErrorMessage();
+            } catch (StorageException e) {
+                otherMessage[0] = e.getMessage();
+            }
+        });
+        other.start();
+        other.join();
+        assertThat(otherMessage[0], equalTo("Failed to download dir1/second.txt: maximum number of retry attempts reached"));
+        assertThat(storage.getLastErrorMessage(),
+                equalTo("Failed to download dir1/first.txt: maximum number of retry attempts reached"));
+    }
+
     @Test
     public void downloadShouldUseAuthorizeResponseFromCredentialManagerIfProvided() throws Exception {
         reset(credentialsManagerMock);
@@ -8,9 +8,17 @@ package io.github.kszatan.gocd.b2.utils.storage;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.*;
 
 public class CachingCredentialsManagerTest {
@@ -66,4 +74,94 @@ public class CachingCredentialsManagerTest {
         assertThat(manager.getAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY).isPresent(), equalTo(false));
         assertThat(manager.getBucketId(ACCOUNT_ID, APPLICATION_KEY, bucketName).isPresent(), equalTo(false));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void authorizeResponseShouldExpireAfterTokenLifetime() {
+        AtomicLong now = new AtomicLong(0);
+        CachingCredentialsManager manager = new CachingCredentialsManager(null, 10, 1000, null, now::get);
+        manager.storeAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY, new AuthorizeResponse());
+        now.set(999);
+        assertThat(manager.getAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY).isPresent(), equalTo(true));
+        now.set(1000);
+        assertThat(manager.getAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY).isPresent(), equalTo(false));
+    }
+
+    @Test
+    public void leastRecentlyUsedCredentialsShouldBeEvictedWhenFull() {
+        CachingCredentialsManager manager = new CachingCredentialsManager(null, 2, 1000, null, () -> 0);
+        manager.storeAuthorizeResponse("first", APPLICATION_KEY, new AuthorizeResponse());
+        manager.storeAuthorizeResponse("second", APPLICATION_KEY, new AuthorizeResponse());
+        manager.getAuthorizeResponse("first", APPLICATION_KEY);
+        manager.storeAuthorizeResponse("third", APPLICATION_KEY, new AuthorizeResponse());
+        assertThat(manager.getAuthorizeResponse("first", APPLICATION_KEY).isPresent(), equalTo(true));
+        assertThat(manager.getAuthorizeResponse("second", APPLICATION_KEY).isPresent(), equalTo(false));
+        assertThat(manager.getAuthorizeResponse("third", APPLICATION_KEY).isPresent(), equalTo(true));
+    }
+
+    @Test
+    public void authorizeResponseShouldBeRefreshedInBackgroundBeforeItExpires() {
+        AtomicLong now = new AtomicLong(0);
+        AuthorizeResponse refreshed = new AuthorizeResponse();
+        AtomicInteger authorizations = new AtomicInteger();
+        List<Runnable> refreshes = new ArrayList<>();
+        CachingCredentialsManager manager = new CachingCredentialsManager((accountId, applicationKey) -> {
+            authorizations.incrementAndGet();
+            return Optional.of(refreshed);
+        }, 10, CachingCredentialsManager.TOKEN_LIFETIME_MILLIS, refreshes::add, now::get);
+        AuthorizeResponse original = new AuthorizeResponse();
+        manager.storeAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY, original);
+
+        now.set(CachingCredentialsManager.TOKEN_LIFETIME_MILLIS - 60 * 1000L);
+        assertThat(manager.getAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY).get(), sameInstance(original));
+        assertThat(manager.getAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY).get(), sameInstance(original));
+        assertThat(refreshes.size(), equalTo(1));
+        refreshes.get(0).run();
+
+        now.addAndGet(2 * 60 * 1000L);
+        assertThat(manager.getAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY).get(), sameInstance(refreshed));
+        assertThat(authorizations.get(), equalTo(1));
+    }
+
+    @Test
+    public void hitsAndMissesShouldBeCounted() {
+        CachingCredentialsManager manager = new CachingCredentialsManager();
+        manager.getAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY);
+        manager.storeAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY, new AuthorizeResponse());
+        manager.storeBucketId(ACCOUNT_ID, APPLICATION_KEY, "bukhet", "8ad3jh3ui4aiu3");
+        manager.getAuthorizeResponse(ACCOUNT_ID, APPLICATION_KEY);
+        manager.getBucketId(ACCOUNT_ID, APPLICATION_KEY, "bukhet");
+        manager.getBucketId(ACCOUNT_ID, APPLICATION_KEY, "other");
+        assertThat(manager.getHitCount(), equalTo(2L));
+        assertThat(manager.getMissCount(), equalTo(2L));
+    }
+
+    @Test
+    public void concurrentUseShouldKeepEveryStoredBucketId() throws Exception {
+        CachingCredentialsManager manager = new CachingCredentialsManager();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String accountId = "account" + (i % 2);
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 500; j++) {
+                        manager.storeBucketId(accountId, APPLICATION_KEY, "bucket" + thread + "-" + j, "id");
+                        manager.getAuthorizeResponse(accountId, APPLICATION_KEY);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 500; j++) {
+                assertThat(manager.getBucketId("account" + (i % 2), APPLICATION_KEY, "bucket" + i + "-" + j)
+                        .isPresent(), equalTo(true));
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+public class CachingFileHashTest {
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+    private static final String OTHER_HASH = "76543210fedcba9876543210fedcba9876543210";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FileHash sha1;
+    private Path index;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        sha1 = mock(FileHash.class);
+        index = temporaryFolder.getRoot().toPath().resolve("index");
+        file = temporaryFolder.newFile("file").toPath();
+        Files.write(file, "content".getBytes(StandardCharsets.UTF_8));
+        makeOld(file, 0);
+        when(sha1.getHashValue(file)).thenReturn(HASH);
+    }
+
+    @Test
+    public void unchangedFileShouldBeHashedOnlyOnce() throws Exception {
+        CachingFileHash fileHash = new CachingFileHash(sha1, index);
+        assertThat(fileHash.getHashValue(file), equalTo(HASH));
+        assertThat(fileHash.getHashValue(file), equalTo(HASH));
+        verify(sha1, times(1)).getHashValue(file);
+    }
+
+    @Test
+    public void hashesShouldSurviveInIndexFile() throws Exception {
+        new CachingFileHash(sha1, index).getHashValue(file);
+        assertThat(new CachingFileHash(sha1, index).getHashValue(file), equalTo(HASH));
+        verify(sha1, times(1)).getHashValue(file);
+    }
+
+    @Test
+    public void modifiedFileShouldBeHashedAgain() throws Exception {
+        CachingFileHash fileHash = new CachingFileHash(sha1, index);
+        fileHash.getHashValue(file);
+        makeOld(file, 1000);
+        when(sha1.getHashValue(file)).thenReturn(OTHER_HASH);
+        assertThat(fileHash.getHashValue(file), equalTo(OTHER_HASH));
+        assertThat(new CachingFileHash(sha1, index).getHashValue(file), equalTo(OTHER_HASH));
+        verify(sha1, times(2)).getHashValue(file);
+    }
+
+    @Test
+    public void recentlyModifiedFileShouldNotBeCached() throws Exception {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        CachingFileHash fileHash = new CachingFileHash(sha1, index);
+        fileHash.getHashValue(file);
+        fileHash.getHashValue(file);
+        verify(sha1, times(2)).getHashValue(file);
+    }
+
+    @Test
+    public void truncatedIndexLineShouldBeIgnoredAndNotBreakNextEntry() throws Exception {
+        Files.write(index, ("abc\t7\t" + System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE);
+        new CachingFileHash(sha1, index).getHashValue(file);
+        assertThat(new CachingFileHash(sha1, index).getHashValue(file), equalTo(HASH));
+        verify(sha1, times(1)).getHashValue(file);
+    }
+
+    @Test
+    public void partsShouldAlwaysBeHashedByDecoratedHash() throws Exception {
+        byte[] buffer = new byte[4];
+        when(sha1.getHashValue(buffer, 4)).thenReturn(HASH);
+        CachingFileHash fileHash = new CachingFileHash(sha1, index);
+        fileHash.getHashValue(buffer, 4);
+        fileHash.getHashValue(buffer, 4);
+        verify(sha1, times(2)).getHashValue(buffer, 4);
+    }
+
+    private static void makeOld(Path path, long offset) throws Exception {
+        long lastModified = System.currentTimeMillis() - 10 * CachingFileHash.RACY_WINDOW_MS + offset;
+        Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.kszatan.gocd.b2.utils.storage.api.BackblazeApiWrapper;
+import io.github.kszatan.gocd.b2.utils.storage.api.KeepAliveHttpTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class SegmentedDownloadTest {
+    private static final String BUCKET_NAME = "bucket";
+    private static final String PREFIX = "pipeline/stage/job/1.1/";
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private HttpServer server;
+    private byte[] content;
+    private String contentSha1Header;
+    private String largeFileSha1Header;
+    private boolean ignoreRange;
+    private AtomicInteger rangeRequests = new AtomicInteger();
+    private AtomicInteger fullRequests = new AtomicInteger();
+    private BackblazeStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        contentSha1Header = new Sha1FileHash().getHashValue(content, content.length);
+        largeFileSha1Header = null;
+        ignoreRange = false;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/file/" + BUCKET_NAME + "/" + PREFIX + "dir/big.bin", this::serve);
+        server.start();
+
+        AuthorizeResponse authorizeResponse = new AuthorizeResponse();
+        authorizeResponse.downloadUrl = "http://localhost:" + server.getAddress().getPort();
+        authorizeResponse.authorizationToken = "token";
+        CredentialsManager credentialsManager = mock(CredentialsManager.class);
+        doReturn(Optional.of(authorizeResponse)).when(credentialsManager).getAuthorizeResponse(any(), any());
+        storage = new BackblazeStorage(BUCKET_NAME, new BackblazeApiWrapper(new KeepAliveHttpTransport()), credentialsManager);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("X-Bz-File-Id", "file_id");
+        exchange.getResponseHeaders().add("X-Bz-File-Name", PREFIX + "dir/big.bin");
+        exchange.getResponseHeaders().add("X-Bz-Content-Sha1", contentSha1Header);
+        if (largeFileSha1Header != null) {
+            exchange.getResponseHeaders().add("X-Bz-Info-large_file_sha1", largeFileSha1Header);
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int first = 0;
+        int last = content.length - 1;
+        int status = 200;
+        if (range != null && !ignoreRange) {
+            Matcher matcher = RANGE_PATTERN.matcher(range);
+            matcher.matches();
+            first = Integer.parseInt(matcher.group(1));
+            last = Math.min(Integer.parseInt(matcher.group(2)), content.length - 1);
+            status = 206;
+            rangeRequests.incrementAndGet();
+        } else {
+            fullRequests.incrementAndGet();
+        }
+        exchange.sendResponseHeaders(status, last - first + 1);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(content, first, last - first + 1);
+        }
+    }
+
+    @Test
+    public void downloadShouldFetchLargeFileInSegments() throws Exception {
+        Path destination = temporaryFolder.getRoot().toPath();
+        storage.setSegmentedDownload(1024L * 1024L, 4);
+
+        Boolean result = storage.download("dir/big.bin", (long) content.length, destination, PREFIX);
+
+        assertThat(result, equalTo(true));
+        assertThat(rangeRequests.get(), equalTo(4));
+        assertThat(fullRequests.get(), equalTo(0));
+        assertThat(Files.readAllBytes(destination.resolve("dir").resolve("big.bin")), equalTo(content));
+    }
+
+    @Test
+    public void downloadShouldUseSingleRequestForFilesBelowThreshold() throws Exception {
+        Path destination = temporaryFolder.getRoot().toPath();
+        storage.setSegmentedDownload(2L * 1024L * 1024L, 4);
+
+        Boolean result = storage.download("dir/big.bin", (long) content.length, destination, PREFIX);
+
+        assertThat(result, equalTo(true));
+        assertThat(rangeRequests.get(), equalTo(0));
+        assertThat(fullRequests.get(), equalTo(1));
+        assertThat(Files.readAllBytes(destination.resolve("dir").resolve("big.bin")), equalTo(content));
+    }
+
+    @Test
+    public void downloadShouldVerifyLargeFileSha1WhenContentSha1IsNone() throws Exception {
+        Path destination = temporaryFolder.getRoot().toPath();
+        largeFileSha1Header = contentSha1Header;
+        contentSha1Header = "none";
+        storage.setSegmentedDownload(1024L * 1024L, 3);
+
+        Boolean result = storage.download("dir/big.bin", (long) content.length, destination, PREFIX);
+
+        assertThat(result, equalTo(true));
+        assertThat(rangeRequests.get(), equalTo(3));
+    }
+
+    @Test
+    public void downloadShouldFailAndRemoveFileWhenSha1DoesNotMatch() throws Exception {
+        Path destination = temporaryFolder.getRoot().toPath();
+        contentSha1Header = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+        storage.setSegmentedDownload(1024L * 1024L, 4);
+
+        try {
+            thrown.expect(StorageException.class);
+            thrown.expectMessage("SHA-1 mismatch");
+            storage.download("dir/big.bin", (long) content.length, destination, PREFIX);
+        } finally {
+            assertThat(Files.exists(destination.resolve("dir").resolve("big.bin")), equalTo(false));
+        }
+    }
+
+    @Test
+    public void downloadShouldFailWhenRangeIsAnsweredWithWholeFile() throws Exception {
+        Path destination = temporaryFolder.getRoot().toPath();
+        ignoreRange = true;
+        storage.setSegmentedDownload(1024L * 1024L, 4);
+
+        try {
+            thrown.expect(StorageException.class);
+            thrown.expectMessage("Range request for " + PREFIX + "dir/big.bin was answered with the whole file");
+            storage.download("dir/big.bin", (long) content.length, destination, PREFIX);
+        } finally {
+            assertThat(Files.exists(destination.resolve("dir").resolve("big.bin")), equalTo(false));
+        }
+    }
+}
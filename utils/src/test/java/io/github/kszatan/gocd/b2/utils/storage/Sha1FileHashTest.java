@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class Sha1FileHashTest {
+    private static final String ABC_SHA1 = "a9993e364706816aba3e25717850c26c9cd0d89d";
+    private static final String EMPTY_SHA1 = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Sha1FileHash fileHash = new Sha1FileHash();
+
+    @Test
+    public void allVariantsShouldProduceKnownHash() throws Exception {
+        byte[] abc = "abc".getBytes(StandardCharsets.US_ASCII);
+        Path file = temporaryFolder.newFile().toPath();
+        Files.write(file, abc);
+        assertThat(fileHash.getHashValue(file), equalTo(ABC_SHA1));
+        assertThat(fileHash.getHashValue(abc, 3), equalTo(ABC_SHA1));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertThat(fileHash.getHashValue(channel, 0, 3), equalTo(ABC_SHA1));
+        }
+    }
+
+    @Test
+    public void emptyFileShouldHaveEmptyHash() throws Exception {
+        assertThat(fileHash.getHashValue(temporaryFolder.newFile().toPath()), equalTo(EMPTY_SHA1));
+    }
+
+    @Test
+    public void filesLargerThanBufferShouldMatchInMemoryHash() throws Exception {
+        byte[] content = new byte[200 * 1024 + 17];
+        new Random(7).nextBytes(content);
+        Path file = temporaryFolder.newFile().toPath();
+        Files.write(file, content);
+        assertThat(fileHash.getHashValue(file), equalTo(fileHash.getHashValue(content, content.length)));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            byte[] range = Arrays.copyOfRange(content, 1000, 150000);
+            assertThat(fileHash.getHashValue(channel, 1000, range.length),
+                    equalTo(fileHash.getHashValue(range, range.length)));
+        }
+    }
+
+    @Test
+    public void toHexShouldEncodeAllByteValues() {
+        assertThat(Sha1FileHash.toHex(new byte[]{0, 15, 16, 127, -128, -1}), equalTo("000f107f80ff"));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    private SingleFlight<String, List<String>> singleFlight;
+    private ExecutorService executor;
+    private AtomicInteger calls;
+    private CountDownLatch calling;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        singleFlight = new SingleFlight<>(ArrayList::new);
+        executor = Executors.newFixedThreadPool(2);
+        calls = new AtomicInteger();
+        calling = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void callerWithoutFollowersShouldGetOriginalResult() throws Exception {
+        List<String> result = new ArrayList<>();
+        assertThat(singleFlight.run("key", () -> result), sameInstance(result));
+    }
+
+    @Test
+    public void concurrentCallersShouldShareOneCallAndGetSeparateCopies() throws Exception {
+        List<String> result = new ArrayList<>();
+        result.add("file");
+        Future<List<String>> leader = executor.submit(() -> singleFlight.run("key", () -> blockingCall(result)));
+        calling.await();
+        Future<List<String>> follower = executor.submit(() -> singleFlight.run("key", () -> blockingCall(result)));
+        awaitFollower();
+        release.countDown();
+        assertThat(leader.get(), equalTo(result));
+        assertThat(follower.get(), equalTo(result));
+        assertThat(leader.get(), not(sameInstance(follower.get())));
+        assertThat(leader.get(), not(sameInstance(result)));
+        assertThat(calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void followersShouldGetFailureOfSharedCall() throws Exception {
+        StorageException failure = new StorageException("Failed to list files");
+        Future<List<String>> leader = executor.submit(() -> singleFlight.run("key", () -> {
+            blockingCall(null);
+            throw failure;
+        }));
+        calling.await();
+        Future<List<String>> follower = executor.submit(() -> singleFlight.run("key", () -> blockingCall(null)));
+        awaitFollower();
+        release.countDown();
+        for (Future<List<String>> caller : Arrays.asList(leader, follower)) {
+            try {
+                caller.get();
+                fail("StorageException expected");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), sameInstance(failure));
+            }
+        }
+        assertThat(calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void finishedCallShouldNotBeSharedWithLaterCallers() throws Exception {
+        release.countDown();
+        singleFlight.run("key", () -> blockingCall(new ArrayList<>()));
+        singleFlight.run("key", () -> blockingCall(new ArrayList<>()));
+        assertThat(calls.get(), equalTo(2));
+    }
+
+    private List<String> blockingCall(List<String> result) throws StorageException {
+        calls.incrementAndGet();
+        calling.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            throw new StorageException(e);
+        }
+        return result;
+    }
+
+    // The follower can't be observed joining a flight, so wait until the executor's other thread is parked on it.
+    private void awaitFollower() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline && !followerWaiting()) {
+            Thread.sleep(10);
+        }
+    }
+
+    private Boolean followerWaiting() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getState() == Thread.State.WAITING)
+                .anyMatch(thread -> {
+                    for (StackTraceElement frame : thread.getStackTrace()) {
+                        if (frame.getMethodName().equals("await") && frame.getClassName().equals(
+                                SingleFlight.class.getName())) {
+                            return true;
+                        }
+                    }
+                    return false;
+                });
+    }
+}
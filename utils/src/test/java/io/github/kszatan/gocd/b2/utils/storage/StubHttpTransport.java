@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage;
+
+import io.github.kszatan.gocd.b2.utils.storage.api.HttpTransport;
+
+import java.net.HttpURLConnection;
+
+public abstract class StubHttpTransport implements HttpTransport {
+    @Override
+    public void release(HttpURLConnection connection, boolean responded) {
+        connection.disconnect();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage.api;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class KeepAliveHttpTransportTest {
+    private HttpServer server;
+    private URL url;
+    private Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+    private AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            clients.add(exchange.getRemoteAddress());
+            requests.incrementAndGet();
+            byte[] body = "ok".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/redirect", exchange -> {
+            exchange.getResponseHeaders().add("Location",
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.start();
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void releasedConnectionShouldBeReused() throws Exception {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(4, 60000L);
+        for (int i = 0; i < 3; ++i) {
+            HttpURLConnection connection = transport.open(url);
+            assertThat(connection.getResponseCode(), equalTo(200));
+            transport.release(connection, true);
+        }
+        assertThat(clients.size(), equalTo(1));
+    }
+
+    @Test
+    public void openShouldBlockWhenHostLimitIsReached() throws Exception {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(1, 60000L);
+        HttpURLConnection first = transport.open(url);
+        assertThat(first.getResponseCode(), equalTo(200));
+        assertThat(transport.availableConnections(url), equalTo(0));
+
+        CountDownLatch opened = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                transport.release(transport.open(url), false);
+                opened.countDown();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiter.start();
+        assertThat(opened.await(200, TimeUnit.MILLISECONDS), equalTo(false));
+
+        transport.release(first, true);
+        assertThat(opened.await(5, TimeUnit.SECONDS), equalTo(true));
+        waiter.join();
+        assertThat(transport.availableConnections(url), equalTo(1));
+    }
+
+    @Test
+    public void redirectedConnectionShouldBeReleasedToHostItWasOpenedFor() throws Exception {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(2, 60000L);
+        URL redirect = new URL(url, "/redirect");
+        URL target = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        HttpURLConnection connection = transport.open(redirect);
+        assertThat(connection.getResponseCode(), equalTo(200));
+        assertThat(connection.getURL().getHost(), equalTo("127.0.0.1"));
+        assertThat(transport.availableConnections(url), equalTo(1));
+
+        transport.release(connection, true);
+        assertThat(transport.availableConnections(url), equalTo(2));
+        assertThat(transport.availableConnections(target), equalTo(2));
+    }
+
+    @Test
+    public void connectionWithoutResponseShouldBeDisconnectedWithoutSendingRequest() throws Exception {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(1, 60000L);
+        HttpURLConnection connection = transport.open(url);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        transport.release(connection, false);
+        assertThat(transport.availableConnections(url), equalTo(1));
+
+        HttpURLConnection next = transport.open(url);
+        assertThat(next.getResponseCode(), equalTo(200));
+        transport.release(next, true);
+        assertThat(requests.get(), equalTo(1));
+    }
+}
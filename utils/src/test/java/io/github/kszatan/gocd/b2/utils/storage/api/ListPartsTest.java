@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage.api;
+
+import io.github.kszatan.gocd.b2.utils.storage.AuthorizeResponse;
+import io.github.kszatan.gocd.b2.utils.storage.ListPartsResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class ListPartsTest {
+    private ListParts listParts;
+    private BackblazeApiWrapper mockApiWrapper;
+    private AuthorizeResponse authorizeResponse;
+    private String fileId;
+
+    @Before
+    public void setUp() {
+        mockApiWrapper = mock(BackblazeApiWrapper.class);
+        authorizeResponse = new AuthorizeResponse();
+        authorizeResponse.accountId = "accountId";
+        authorizeResponse.apiUrl = "https://api001.backblazeb2.com";
+        authorizeResponse.authorizationToken = "token_fristajlo";
+        fileId = "4_ze73ede9c9c8412db49f60715_f100b4e93fbae6252_d20150824_m224353_c900_v8881000_t0001";
+        listParts = new ListParts(mockApiWrapper, authorizeResponse, fileId, 3);
+    }
+
+    @Test
+    public void callShouldReturnTrueOnSuccess() throws Exception {
+        ListPartsResponse response = new ListPartsResponse();
+        doReturn(Optional.of(response)).when(mockApiWrapper).listParts(authorizeResponse, fileId, 3);
+        Boolean result = listParts.call();
+        assertThat(result, equalTo(true));
+        assertThat(listParts.getResponse().get(), equalTo(response));
+    }
+
+    @Test
+    public void callShouldReturnFalseOnFailure() throws Exception {
+        doReturn(Optional.empty()).when(mockApiWrapper).listParts(authorizeResponse, fileId, 3);
+        Boolean result = listParts.call();
+        assertThat(result, equalTo(false));
+        assertThat(listParts.getResponse().isPresent(), equalTo(false));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 Krzysztof Szatan <kszatan@gmail.com>
+ * This file is subject to the license terms in the LICENSE file found in the
+ * top-level directory of this distribution.
+ */
+
+package io.github.kszatan.gocd.b2.utils.storage.api;
+
+import io.github.kszatan.gocd.b2.utils.storage.AuthorizeResponse;
+import io.github.kszatan.gocd.b2.utils.storage.ListUnfinishedLargeFilesResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class ListUnfinishedLargeFilesTest {
+    private ListUnfinishedLargeFiles listUnfinishedLargeFiles;
+    private BackblazeApiWrapper mockApiWrapper;
+    private AuthorizeResponse authorizeResponse;
+
+    @Before
+    public void setUp() {
+        mockApiWrapper = mock(BackblazeApiWrapper.class);
+        authorizeResponse = new AuthorizeResponse();
+        authorizeResponse.accountId = "accountId";
+        authorizeResponse.apiUrl = "https://api001.backblazeb2.com";
+        authorizeResponse.authorizationToken = "token_fristajlo";
+        listUnfinishedLargeFiles = new ListUnfinishedLargeFiles(mockApiWrapper, authorizeResponse, "bucketId",
+                "pipeline/stage/job/1.1/large.bin", null);
+    }
+
+    @Test
+    public void callShouldReturnTrueOnSuccess() throws Exception {
+        ListUnfinishedLargeFilesResponse response = new ListUnfinishedLargeFilesResponse();
+        doReturn(Optional.of(response)).when(mockApiWrapper).listUnfinishedLargeFiles(authorizeResponse, "bucketId",
+                "pipeline/stage/job/1.1/large.bin", null);
+        Boolean result = listUnfinishedLargeFiles.call();
+        assertThat(result, equalTo(true));
+        assertThat(listUnfinishedLargeFiles.getResponse().get(), equalTo(response));
+    }
+
+    @Test
+    public void callShouldReturnFalseOnFailure() throws Exception {
+        doReturn(Optional.empty()).when(mockApiWrapper).listUnfinishedLargeFiles(authorizeResponse, "bucketId",
+                "pipeline/stage/job/1.1/large.bin", null);
+        Boolean result = listUnfinishedLargeFiles.call();
+        assertThat(result, equalTo(false));
+    }
+}
@@ -14,6 +14,7 @@ import org.apache.http.HttpStatus;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.channels.FileChannel;
 import java.util.Optional;
 
 import static org.hamcrest.Matchers.equalTo;
@@ -23,7 +24,8 @@ import static org.mockito.Mockito.*;
 public class UploadPartTest {
     private UploadPart uploadPart;
     private BackblazeApiWrapper mockApiWrapper;
-    private byte[] filePart;
+    private FileChannel fileChannel;
+    private Long offset;
     private Integer partLength;
     private Integer partNumber;
     private String fileId;
@@ -33,8 +35,9 @@ public class UploadPartTest {
     @Before
     public void setUp() {
         mockApiWrapper = mock(BackblazeApiWrapper.class);
-        filePart = "This is a buffer".getBytes();
-        partLength = filePart.length;
+        fileChannel = mock(FileChannel.class);
+        offset = 0L;
+        partLength = "This is a buffer".length();
         partNumber = 1;
         fileId = "4_z27c88f1d182b150646ff0b16_f1004ba650fe24e6b_d20150809_m012853_c100_v0009990_t0000";
         authorizeResponse = new AuthorizeResponse();
@@ -48,27 +51,31 @@ public class UploadPartTest {
         getUploadPartUrlResponse.fileId = fileId;
         getUploadPartUrlResponse.uploadUrl = "https://api001.backblazeb2.com";
         getUploadPartUrlResponse.authorizationToken = "token_fristajlo";
-        uploadPart = new UploadPart(mockApiWrapper, filePart, partLength, partNumber, authorizeResponse, getUploadPartUrlResponse);
+        uploadPart = new UploadPart(mockApiWrapper, fileChannel, offset, partLength, partNumber, authorizeResponse,
+                getUploadPartUrlResponse);
     }
 
     @Test
     public void callShouldReturnTrueOnSuccess() throws Exception {
         UploadPartResponse response = new UploadPartResponse();
-        doReturn(Optional.of(response)).when(mockApiWrapper).uploadPart(filePart, partLength, partNumber, getUploadPartUrlResponse);
+        doReturn(Optional.of(response)).when(mockApiWrapper).uploadPart(fileChannel, offset, partLength, partNumber,
+                getUploadPartUrlResponse);
         Boolean result = uploadPart.call();
         assertThat(result, equalTo(true));
     }
 
     @Test
     public void callShouldReturnFalseOnFailure() throws Exception {
-        doReturn(Optional.empty()).when(mockApiWrapper).uploadPart(filePart, partLength, partNumber, getUploadPartUrlResponse);
+        doReturn(Optional.empty()).when(mockApiWrapper).uploadPart(fileChannel, offset, partLength, partNumber,
+                getUploadPartUrlResponse);
         Boolean result = uploadPart.call();
         assertThat(result, equalTo(false));
     }
 
     @Test
     public void handleErrorsShouldFetchNewUploadPartUrlOnRequestTimeout() throws Exception {
-        uploadPart = new UploadPart(mockApiWrapper, filePart, partLength, partNumber, authorizeResponse, getUploadPartUrlResponse);
+        uploadPart = new UploadPart(mockApiWrapper, fileChannel, offset, partLength, partNumber, authorizeResponse,
+                getUploadPartUrlResponse);
         doReturn(Optional.of(getUploadPartUrlResponse)).when(mockApiWrapper).getUploadPartUrl(authorizeResponse, fileId);
         ErrorResponse error = new ErrorResponse();
         error.status = HttpStatus.SC_REQUEST_TIMEOUT;